@@ -0,0 +1,260 @@
+/*
+Id allocator follow up: the SegmentTree version in IdAlloactor needs 2N node objects
+(start, end, num, left, right + object header ~ 40 bytes each), so N = 100M is several GB of heap
+and every allocate/release chases pointers through logN nodes.
+
+Hierarchical bitmap instead:
+        – level 0: one bit per ID, packed into long[] (N / 64 words). bit = 1 means the ID is free.
+        – level 1: one bit per level 0 word. bit = 1 means that word still has a free ID.
+        – level 2: one bit per level 1 word ... until a level fits in a single long.
+        allocate: start at the top word, Long.numberOfTrailingZeros picks the first child with a free ID,
+        descend one level at a time -> O(log64 N), i.e. 5 word reads for N = 100M.
+        release: set the bit, and only touch the parent when the word goes from 0 to non 0.
+        Space: N/8 bytes for level 0, the upper levels add ~1/64 on top -> ~12.7MB for 100M IDs.
+*/
+public class BitmapIdAllocator {
+    int N;
+    // levels[0] is the leaf bitmap, levels[levels.length - 1] is a single word
+    long[][] levels;
+
+    public BitmapIdAllocator(int N) {
+        if (N <= 0) throw new IllegalArgumentException("N must be positive: " + N);
+        this.N = N;
+        int depth = 1;
+        for (long bits = N; bits > 64; bits = (bits + 63) >>> 6) depth++;
+        levels = new long[depth][];
+
+        long bits = N;
+        for (int l = 0; l < depth; l++) {
+            int words = (int) ((bits + 63) >>> 6);
+            long[] level = new long[words];
+            java.util.Arrays.fill(level, -1L);
+            // bits past the end of the level must never look free
+            int tail = (int) (bits & 63);
+            if (tail != 0) level[words - 1] = (1L << tail) - 1;
+            levels[l] = level;
+            bits = words;
+        }
+    }
+
+    // returns the smallest free ID, or -1 when everything is allocated
+    public int allocate() {
+        int top = levels.length - 1;
+        if (levels[top][0] == 0) return -1;
+        int idx = 0;
+        for (int l = top; l >= 0; l--) {
+            idx = (idx << 6) + Long.numberOfTrailingZeros(levels[l][idx]);
+        }
+        clear(idx);
+        return idx;
+    }
+
+    public void release(int id) {
+        checkId(id);
+        for (int l = 0; l < levels.length; l++) {
+            int w = id >>> 6;
+            long before = levels[l][w];
+            levels[l][w] = before | (1L << id);
+            // parent bit is already set unless this word was full
+            if (before != 0) return;
+            id = w;
+        }
+    }
+
+    public boolean isAllocated(int id) {
+        checkId(id);
+        return (levels[0][id >>> 6] & (1L << id)) == 0;
+    }
+
+    // allocates k consecutive IDs and returns the first one, or -1 if there is no such gap.
+    // Full leaf words are skipped through level 1, so a dense region costs one summary word test per 64 leaf words.
+    public int allocateRange(int k) {
+        if (k <= 0) throw new IllegalArgumentException("k must be positive: " + k);
+        if (k == 1) return allocate();
+        if (k > N) return -1;
+        long[] leaf = levels[0];
+        long runStart = -1;
+        long runLen = 0;
+        for (int w = 0; w < leaf.length; w++) {
+            long word = leaf[w];
+            if (word == 0) {
+                runLen = 0;
+                w = nextFreeWord(w + 1) - 1;
+                continue;
+            }
+            if (word == -1L) {
+                if (runLen == 0) runStart = (long) w << 6;
+                runLen += 64;
+            } else {
+                // walk the alternating free / taken runs inside this word
+                int pos = 0;
+                while (pos < 64) {
+                    long rest = word >>> pos;
+                    if (rest == 0) {
+                        runLen = 0;
+                        break;
+                    }
+                    int zeros = Long.numberOfTrailingZeros(rest);
+                    if (zeros > 0) {
+                        runLen = 0;
+                        pos += zeros;
+                        continue;
+                    }
+                    int ones = Long.numberOfTrailingZeros(~rest);
+                    if (pos + ones > 64) ones = 64 - pos;
+                    if (runLen == 0) runStart = ((long) w << 6) + pos;
+                    runLen += ones;
+                    if (runLen >= k) break;
+                    pos += ones;
+                    if (pos < 64) runLen = 0;
+                }
+            }
+            if (runLen >= k) {
+                int start = (int) runStart;
+                clearRange(start, start + k);
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    // first leaf word at or after from that still has a free ID (leaf.length if none), read from level 1
+    private int nextFreeWord(int from) {
+        if (levels.length == 1) return from;
+        long[] summary = levels[1];
+        int i = from >>> 6;
+        if (i >= summary.length) return levels[0].length;
+        long bits = summary[i] & (-1L << from);
+        while (bits == 0) {
+            if (++i == summary.length) return levels[0].length;
+            bits = summary[i];
+        }
+        return (i << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    public int capacity() {
+        return N;
+    }
+
+    public long memoryBytes() {
+        long bytes = 0;
+        for (long[] level : levels) bytes += 8L * level.length;
+        return bytes;
+    }
+
+    // recomputes every summary level from levels[0], used after the leaf words were loaded from disk
+    void rebuildSummaries() {
+        for (int l = 1; l < levels.length; l++) {
+            long[] child = levels[l - 1];
+            long[] level = levels[l];
+            java.util.Arrays.fill(level, 0L);
+            for (int w = 0; w < child.length; w++) {
+                if (child[w] != 0) level[w >>> 6] |= 1L << w;
+            }
+        }
+    }
+
+    private void clear(int id) {
+        for (int l = 0; l < levels.length; l++) {
+            int w = id >>> 6;
+            long after = levels[l][w] & ~(1L << id);
+            levels[l][w] = after;
+            // parent only changes when this word becomes full
+            if (after != 0) return;
+            id = w;
+        }
+    }
+
+    // clears [from, to) word by word, then fixes the parents of the words that became full
+    private void clearRange(int from, int to) {
+        long[] leaf = levels[0];
+        int w = from >>> 6;
+        int last = (to - 1) >>> 6;
+        for (; w <= last; w++) {
+            long mask = -1L;
+            if (w == from >>> 6) mask &= -1L << from;
+            if (w == last) mask &= -1L >>> (63 - ((to - 1) & 63));
+            leaf[w] &= ~mask;
+            if (leaf[w] == 0) clearParent(w);
+        }
+    }
+
+    private void clearParent(int idx) {
+        for (int l = 1; l < levels.length; l++) {
+            int w = idx >>> 6;
+            long after = levels[l][w] & ~(1L << idx);
+            levels[l][w] = after;
+            if (after != 0) return;
+            idx = w;
+        }
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= N) throw new IllegalArgumentException("id out of range: " + id);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // allocate everything, release a random half, allocate it back
+    private static void benchmark(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        java.util.Random random = new java.util.Random(42);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i]; order[i] = order[j]; order[j] = t;
+        }
+        int half = n / 2;
+
+        long base = usedHeap();
+        IdAlloactor tree = new IdAlloactor(n);
+        long treeBytes = usedHeap() - base;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) tree.allocate();
+        for (int i = 0; i < half; i++) tree.release(order[i]);
+        for (int i = 0; i < half; i++) tree.allocate();
+        long treeNanos = System.nanoTime() - start;
+        tree = null;
+
+        base = usedHeap();
+        BitmapIdAllocator bitmap = new BitmapIdAllocator(n);
+        long bitmapBytes = usedHeap() - base;
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) bitmap.allocate();
+        for (int i = 0; i < half; i++) bitmap.release(order[i]);
+        for (int i = 0; i < half; i++) bitmap.allocate();
+        long bitmapNanos = System.nanoTime() - start;
+
+        long ops = (long) n + 2L * half;
+        System.out.printf("N=%d SegmentTree: %,d bytes, %,.0f ops/sec%n",
+                n, treeBytes, ops * 1e9 / treeNanos);
+        System.out.printf("N=%d Bitmap:      %,d bytes (%,d by count), %,.0f ops/sec%n",
+                n, bitmapBytes, bitmap.memoryBytes(), ops * 1e9 / bitmapNanos);
+    }
+
+    public static void main(String[] args) {
+        BitmapIdAllocator allocator = new BitmapIdAllocator(3);
+        System.out.println(allocator.allocate()); // 0
+        System.out.println(allocator.allocate()); // 1
+        System.out.println(allocator.allocate()); // 2
+        System.out.println(allocator.allocate()); // -1
+        allocator.release(1);
+        System.out.println(allocator.isAllocated(1)); // false
+        System.out.println(allocator.allocate()); // 1
+
+        allocator = new BitmapIdAllocator(200);
+        System.out.println(allocator.allocateRange(10)); // 0
+        allocator.allocate(); // 10
+        System.out.println(allocator.allocateRange(100)); // 11
+        allocator.release(5);
+        System.out.println(allocator.allocateRange(2)); // 111
+        System.out.println(allocator.allocateRange(100)); // -1
+        System.out.println(allocator.allocate()); // 5
+
+        benchmark(args.length > 0 ? Integer.parseInt(args[0]) : 1 << 22);
+    }
+}
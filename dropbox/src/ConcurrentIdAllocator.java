@@ -0,0 +1,247 @@
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Id allocator follow up: many threads call allocate()/release() at the same time.
+IdAlloactor / BitmapIdAllocator have no synchronization, and a global lock would serialize every caller.
+
+        – global pool: AtomicLongArray, one bit per ID, bit = 1 means free and not leased.
+        – lease: a thread takes a whole 64 ID word out of the pool with one CAS (word -> 0)
+          and then hands IDs out of that word without touching shared state.
+        – release(id): if id belongs to the caller's current lease the bit goes back to the lease,
+          otherwise it is OR-ed back into the global word with a CAS loop.
+        – when the pool is empty, free bits still sitting in other threads' leases are stolen back
+          (getAndSet(0) on their lease mask), so allocate() only returns -1 when every ID is really taken.
+        Lease mask is an AtomicLong because a stealer can zero it; the owner's CAS is uncontended in the common case.
+*/
+public class ConcurrentIdAllocator {
+    int N;
+    AtomicLongArray pool;
+    // scan starts here so threads do not all fight over word 0
+    AtomicInteger cursor = new AtomicInteger();
+    // one holder per thread that ever allocated, used for stealing
+    List<LeaseHolder> holders = new CopyOnWriteArrayList<>();
+    ThreadLocal<LeaseHolder> local = ThreadLocal.withInitial(() -> {
+        LeaseHolder holder = new LeaseHolder();
+        holders.add(holder);
+        return holder;
+    });
+
+    public ConcurrentIdAllocator(int N) {
+        if (N <= 0) throw new IllegalArgumentException("N must be positive: " + N);
+        this.N = N;
+        int words = (N + 63) >>> 6;
+        pool = new AtomicLongArray(words);
+        for (int i = 0; i < words; i++) pool.set(i, -1L);
+        if ((N & 63) != 0) pool.set(words - 1, (1L << (N & 63)) - 1);
+    }
+
+    public int allocate() {
+        LeaseHolder holder = local.get();
+        while (true) {
+            Lease lease = holder.current;
+            long mask = lease.mask.get();
+            if (mask != 0) {
+                if (lease.mask.compareAndSet(mask, mask & (mask - 1))) {
+                    return (lease.word << 6) + Long.numberOfTrailingZeros(mask);
+                }
+                // a stealer took the bits, look again
+                continue;
+            }
+            Lease next = takeWord();
+            if (next == null) {
+                steal();
+                next = takeWord();
+                if (next == null) return -1;
+            }
+            holder.current = next;
+        }
+    }
+
+    public void release(int id) {
+        if (id < 0 || id >= N) throw new IllegalArgumentException("id out of range: " + id);
+        int w = id >>> 6;
+        long bit = 1L << id;
+        Lease lease = local.get().current;
+        if (lease.word == w) {
+            lease.mask.getAndUpdate(m -> m | bit);
+            return;
+        }
+        giveBack(w, bit);
+    }
+
+    // exact only when no other thread is allocating or releasing at the same time
+    public boolean isAllocated(int id) {
+        if (id < 0 || id >= N) throw new IllegalArgumentException("id out of range: " + id);
+        int w = id >>> 6;
+        long bit = 1L << id;
+        if ((pool.get(w) & bit) != 0) return false;
+        for (LeaseHolder holder : holders) {
+            Lease lease = holder.current;
+            if (lease.word == w && (lease.mask.get() & bit) != 0) return false;
+        }
+        return true;
+    }
+
+    // hands the caller's unused leased IDs back to the pool, e.g. before a worker thread exits
+    public void releaseLease() {
+        Lease lease = local.get().current;
+        long mask = lease.mask.getAndSet(0);
+        if (mask != 0) giveBack(lease.word, mask);
+    }
+
+    private Lease takeWord() {
+        int words = pool.length();
+        int start = cursor.get();
+        for (int i = 0; i < words; i++) {
+            int w = start + i;
+            if (w >= words) w -= words;
+            long v = pool.get(w);
+            while (v != 0) {
+                if (pool.compareAndSet(w, v, 0)) {
+                    cursor.set(w);
+                    return new Lease(w, v);
+                }
+                v = pool.get(w);
+            }
+        }
+        return null;
+    }
+
+    private void steal() {
+        for (LeaseHolder holder : holders) {
+            Lease lease = holder.current;
+            long mask = lease.mask.getAndSet(0);
+            if (mask != 0) giveBack(lease.word, mask);
+        }
+    }
+
+    private void giveBack(int w, long bits) {
+        pool.getAndUpdate(w, v -> v | bits);
+    }
+
+    static class Lease {
+        static final Lease EMPTY = new Lease(-1, 0);
+
+        // word index is fixed for the lifetime of a lease, so a stealer always knows where bits go back
+        final int word;
+        final AtomicLong mask;
+
+        Lease(int word, long mask) {
+            this.word = word;
+            this.mask = new AtomicLong(mask);
+        }
+    }
+
+    static class LeaseHolder {
+        volatile Lease current = Lease.EMPTY;
+    }
+
+    // every thread keeps a small set of IDs, randomly releasing and allocating.
+    // owner[id] is flipped 0 -> 1 on allocate and 1 -> 0 on release, a failed flip means a duplicate.
+    private static long stress(int n, int threads, int opsPerThread) throws InterruptedException {
+        ConcurrentIdAllocator allocator = new ConcurrentIdAllocator(n);
+        AtomicIntegerArray owner = new AtomicIntegerArray(n);
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        int keep = n / threads;
+
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            new Thread(() -> {
+                Random random = new Random(seed);
+                int[] held = new int[keep];
+                int size = 0;
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < opsPerThread; i++) {
+                    if (size == keep || (size > 0 && random.nextBoolean())) {
+                        int j = random.nextInt(size);
+                        int id = held[j];
+                        held[j] = held[--size];
+                        owner.set(id, 0);
+                        allocator.release(id);
+                    } else {
+                        int id = allocator.allocate();
+                        if (id < 0) continue;
+                        if (!owner.compareAndSet(id, 0, 1)) duplicates.incrementAndGet();
+                        held[size++] = id;
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        long start = System.nanoTime();
+        ready.countDown();
+        done.await();
+        long nanos = System.nanoTime() - start;
+        if (duplicates.get() != 0) throw new IllegalStateException(duplicates.get() + " duplicate IDs handed out");
+        return (long) (threads * (double) opsPerThread * 1e9 / nanos);
+    }
+
+    private static long lockedBaseline(int n, int threads, int opsPerThread) throws InterruptedException {
+        BitmapIdAllocator allocator = new BitmapIdAllocator(n);
+        CountDownLatch done = new CountDownLatch(threads);
+        int keep = n / threads;
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            new Thread(() -> {
+                Random random = new Random(seed);
+                int[] held = new int[keep];
+                int size = 0;
+                for (int i = 0; i < opsPerThread; i++) {
+                    if (size == keep || (size > 0 && random.nextBoolean())) {
+                        int j = random.nextInt(size);
+                        int id = held[j];
+                        held[j] = held[--size];
+                        synchronized (allocator) {
+                            allocator.release(id);
+                        }
+                    } else {
+                        int id;
+                        synchronized (allocator) {
+                            id = allocator.allocate();
+                        }
+                        if (id >= 0) held[size++] = id;
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return (long) (threads * (double) opsPerThread * 1e9 / (System.nanoTime() - start));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentIdAllocator allocator = new ConcurrentIdAllocator(3);
+        System.out.println(allocator.allocate()); // 0
+        System.out.println(allocator.allocate()); // 1
+        System.out.println(allocator.allocate()); // 2
+        System.out.println(allocator.allocate()); // -1
+        allocator.release(1);
+        System.out.println(allocator.isAllocated(1)); // false
+        System.out.println(allocator.allocate()); // 1
+
+        // small N so threads keep running out and stealing from each other
+        stress(256, 8, 200_000);
+        System.out.println("stress: no duplicate IDs");
+
+        int n = 1 << 20;
+        int ops = 2_000_000;
+        for (int threads = 1; threads <= Math.max(8, Runtime.getRuntime().availableProcessors()); threads *= 2) {
+            System.out.printf("threads=%d leased CAS: %,d ops/sec, synchronized bitmap: %,d ops/sec%n",
+                    threads, stress(n, threads, ops / threads), lockedBaseline(n, threads, ops / threads));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+Id allocator follow up: the allocator state has to survive a restart.
+Losing it either reissues IDs that are still in use, or forces us to leak the whole range.
+
+        – in memory it is still a BitmapIdAllocator (fast scans, summary levels).
+        – bitmap file: 8 byte header (magic, N) + the leaf words, memory mapped.
+          It is only written at checkpoint time: allocate/release just mark the 4KB page of leaf words as dirty,
+          and checkpoint copies the dirty pages into the mapping and forces them.
+        – redo log file: memory mapped int records, id + 1 for allocate, -(id + 1) for release, 0 = end of log.
+          The log lives in the OS page cache, so a killed process loses nothing,
+          and sync() forces only the log (a few sequential pages) instead of random bitmap pages.
+        – checkpoint (log full / close): copy dirty pages + force the bitmap, then zero record 0 and force it
+          before zeroing the rest of the log. Once record 0 is 0 on disk the log reads as empty, so an OS crash
+          that wrote back only some of the zeroed pages can never replay a stale prefix of the old log.
+          If the crash comes before that, the whole old log is still there and is replayed in full.
+        – recovery: bulk load the leaf words, replay the log on top, rebuild the summary levels.
+          Every record sets the absolute state of one ID, so replaying the whole old log onto a bitmap that
+          already contains it ends in the same state. Whatever is left after the first 0 (stale records of a
+          half zeroed log, unsynced records behind a torn page) is zeroed and forced before new records go there.
+        IDs handed out after the last sync() can come back after an OS crash (not a process crash),
+        callers that need more should sync() before publishing the ID.
+*/
+public class DurableIdAllocator implements Closeable {
+    static final int MAGIC = 0x1DA110C8;
+    static final int HEADER_BYTES = 8;
+    // 512 leaf words = one 4KB page of the bitmap file
+    static final int PAGE_SHIFT = 9;
+    static final int[] ZEROS = new int[1 << 12];
+
+    BitmapIdAllocator bitmap;
+    FileChannel bitmapChannel;
+    FileChannel logChannel;
+    MappedByteBuffer bitmapMap;
+    LongBuffer words;
+    MappedByteBuffer logMap;
+    IntBuffer log;
+    int logPos;
+    // one bit per page of leaf words changed since the last checkpoint
+    long[] dirtyPages;
+
+    private DurableIdAllocator(BitmapIdAllocator bitmap, FileChannel bitmapChannel, FileChannel logChannel,
+                               int logCapacity) throws IOException {
+        this.bitmap = bitmap;
+        this.bitmapChannel = bitmapChannel;
+        this.logChannel = logChannel;
+        long[] leaf = bitmap.levels[0];
+        this.bitmapMap = bitmapChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 8L * leaf.length);
+        this.words = bitmapMap.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        this.logMap = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, 4L * logCapacity);
+        this.log = logMap.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        this.dirtyPages = new long[((leaf.length >>> PAGE_SHIFT) >>> 6) + 1];
+    }
+
+    // opens the allocator stored in dir, or creates a new one with every ID free
+    public static DurableIdAllocator open(Path dir, int N, int logCapacity) throws IOException {
+        Files.createDirectories(dir);
+        Path bitmapFile = dir.resolve("bitmap");
+        boolean exists = Files.exists(bitmapFile);
+        BitmapIdAllocator bitmap = new BitmapIdAllocator(N);
+        FileChannel bitmapChannel = null;
+        FileChannel logChannel = null;
+        try {
+            bitmapChannel = new RandomAccessFile(bitmapFile.toFile(), "rw").getChannel();
+            logChannel = new RandomAccessFile(dir.resolve("redo.log").toFile(), "rw").getChannel();
+            // a log left behind without its bitmap belongs to some other state, start from an empty one
+            if (!exists) logChannel.truncate(0);
+            DurableIdAllocator allocator = new DurableIdAllocator(bitmap, bitmapChannel, logChannel, logCapacity);
+            if (exists) {
+                allocator.recover(N);
+            } else {
+                allocator.bitmapMap.putInt(0, MAGIC).putInt(4, N);
+                allocator.words.put(0, bitmap.levels[0]);
+                allocator.bitmapMap.force();
+            }
+            return allocator;
+        } catch (IOException | RuntimeException e) {
+            // mapping or recovery failed: nobody else holds the channels, close them before rethrowing
+            closeAfterFailure(bitmapChannel, e);
+            closeAfterFailure(logChannel, e);
+            throw e;
+        }
+    }
+
+    private static void closeAfterFailure(FileChannel channel, Exception failure) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    public static DurableIdAllocator open(Path dir, int N) throws IOException {
+        return open(dir, N, 1 << 22);
+    }
+
+    public int allocate() {
+        int id = bitmap.allocate();
+        if (id >= 0) logAndStore(id + 1, id);
+        return id;
+    }
+
+    public int allocateRange(int k) {
+        int start = bitmap.allocateRange(k);
+        for (int i = 0; i < k && start >= 0; i++) logAndStore(start + i + 1, start + i);
+        return start;
+    }
+
+    public void release(int id) {
+        bitmap.release(id);
+        logAndStore(-(id + 1), id);
+    }
+
+    public boolean isAllocated(int id) {
+        return bitmap.isAllocated(id);
+    }
+
+    // after this returns every operation so far survives an OS crash
+    public void sync() {
+        logMap.force();
+    }
+
+    public void checkpoint() {
+        long[] leaf = bitmap.levels[0];
+        for (int i = 0; i < dirtyPages.length; i++) {
+            long dirty = dirtyPages[i];
+            while (dirty != 0) {
+                int from = ((i << 6) + Long.numberOfTrailingZeros(dirty)) << PAGE_SHIFT;
+                words.put(from, leaf, from, Math.min(1 << PAGE_SHIFT, leaf.length - from));
+                dirty &= dirty - 1;
+            }
+            dirtyPages[i] = 0;
+        }
+        bitmapMap.force();
+        if (logPos == 0) return;
+        log.put(0, 0);
+        logMap.force();
+        zeroLog(1, logPos);
+        logPos = 0;
+        logMap.force();
+    }
+
+    private void zeroLog(int from, int to) {
+        for (int i = from; i < to; i += ZEROS.length) {
+            log.put(i, ZEROS, 0, Math.min(ZEROS.length, to - i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        bitmapChannel.close();
+        logChannel.close();
+    }
+
+    private void logAndStore(int record, int id) {
+        if (logPos == log.limit()) checkpoint();
+        logMap.putInt(logPos << 2, record);
+        logPos++;
+        int page = id >>> (6 + PAGE_SHIFT);
+        dirtyPages[page >>> 6] |= 1L << page;
+    }
+
+    private void recover(int N) throws IOException {
+        if (bitmapMap.getInt(0) != MAGIC || bitmapMap.getInt(4) != N) {
+            throw new IOException("bitmap file does not belong to an allocator of size " + N);
+        }
+        long[] leaf = bitmap.levels[0];
+        words.get(0, leaf);
+        int replayed = 0;
+        while (replayed < log.limit()) {
+            int record = log.get(replayed);
+            if (record == 0) break;
+            int id = record > 0 ? record - 1 : -record - 1;
+            long bit = 1L << id;
+            // bit = 1 means free
+            int w = id >>> 6;
+            if (record > 0) leaf[w] &= ~bit;
+            else leaf[w] |= bit;
+            dirtyPages[(w >>> PAGE_SHIFT) >>> 6] |= 1L << (w >>> PAGE_SHIFT);
+            replayed++;
+        }
+        bitmap.rebuildSummaries();
+        // replayed records stay in the log, new ones are appended after them;
+        // nothing past the first 0 may ever be read as part of the log again
+        int tail = log.limit();
+        while (tail > replayed && log.get(tail - 1) == 0) tail--;
+        if (tail > replayed) {
+            zeroLog(replayed, tail);
+            logMap.force();
+        }
+        logPos = replayed;
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("idalloc");
+        deleteAll(dir);
+
+        DurableIdAllocator allocator = DurableIdAllocator.open(dir, 3);
+        System.out.println(allocator.allocate()); // 0
+        System.out.println(allocator.allocate()); // 1
+        allocator.release(0);
+        allocator.sync();
+        // no close(): the log still holds the ops, like after kill -9
+        allocator = DurableIdAllocator.open(dir, 3);
+        System.out.println(allocator.isAllocated(0)); // false
+        System.out.println(allocator.isAllocated(1)); // true
+        System.out.println(allocator.allocate()); // 0
+        System.out.println(allocator.allocate()); // 2
+        System.out.println(allocator.allocate()); // -1
+        allocator.close();
+        // wrong size: recover rejects the bitmap, open closes both channels and rethrows
+        try {
+            DurableIdAllocator.open(dir, 4);
+            throw new AssertionError("opened a size-3 allocator as size 4");
+        } catch (IOException expected) {
+            System.out.println(expected.getMessage()); // bitmap file does not belong to an allocator of size 4
+        }
+        deleteAll(dir);
+
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000_000;
+        int ops = 20_000_000;
+        BitmapIdAllocator memory = new BitmapIdAllocator(n);
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) memory.allocate();
+        for (int i = 0; i < ops; i += 2) memory.release(i);
+        long memoryNanos = System.nanoTime() - start;
+
+        allocator = DurableIdAllocator.open(dir, n);
+        start = System.nanoTime();
+        for (int i = 0; i < ops; i++) allocator.allocate();
+        for (int i = 0; i < ops; i += 2) allocator.release(i);
+        long durableNanos = System.nanoTime() - start;
+        allocator.sync();
+
+        start = System.nanoTime();
+        allocator = DurableIdAllocator.open(dir, n);
+        long recoverNanos = System.nanoTime() - start;
+        System.out.printf("N=%,d in-memory: %,.0f ops/sec, durable: %,.0f ops/sec, recovery: %.1f ms%n",
+                n, ops * 1.5e9 / memoryNanos, ops * 1.5e9 / durableNanos, recoverNanos / 1e6);
+        System.out.println(allocator.isAllocated(0) + " " + allocator.isAllocated(1)); // false true
+        allocator.close();
+        deleteAll(dir);
+    }
+}
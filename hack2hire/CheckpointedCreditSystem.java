@@ -0,0 +1,342 @@
+import java.util.*;
+
+/*
+CreditSystem 的事件溯源版本：getBalance 不再每次从头重放
+- 语义和 CreditSystem / GPUCredit3 一样：grant 在 [startTime, expirationTime) 有效，subtract 按时间顺序执行，
+  先扣最早过期的；同一时间先 grant 后 subtract；不够扣的部分直接丢掉
+- 时间轴按 interval 分桶，checkpoint b = 时间 < b * interval 的事件全部执行完之后还有效的 (过期时间, 余额)，
+  按过期时间排好序，同一过期时间合并成一项
+- 查询 t：找到 checkpoint t / interval，只重放这个桶里 <= t 的事件，O(live + 桶内事件 · log)
+- 乱序插入时间 ts 的事件：只有 ts 之后的 checkpoint 失效，而且是懒重算；重算出来的 checkpoint 和旧的一样时，
+  说明这次插入的影响已经被吸收了（比如 grant 还没被用到就过期了），后面直到下一个被改过的桶都不用再算
+*/
+public class CheckpointedCreditSystem {
+
+    static class Event {
+        final int timestamp;
+        final int amount;
+        final int expirationTime;  // subtract 为 -1
+        final long seq;
+
+        Event(int timestamp, int amount, int expirationTime, long seq) {
+            this.timestamp = timestamp;
+            this.amount = amount;
+            this.expirationTime = expirationTime;
+            this.seq = seq;
+        }
+
+        boolean isGrant() {
+            return expirationTime >= 0;
+        }
+    }
+
+    // 同一时间 grant 在前，其余按插入顺序
+    private static final Comparator<Event> ORDER = Comparator.<Event>comparingInt(e -> e.timestamp)
+            .thenComparingInt(e -> e.isGrant() ? 0 : 1)
+            .thenComparingLong(e -> e.seq);
+
+    // checkpoint：按过期时间升序，同一过期时间只有一项
+    static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new int[0], new long[0]);
+
+        final int[] ends;
+        final long[] amounts;
+
+        Snapshot(int[] ends, long[] amounts) {
+            this.ends = ends;
+            this.amounts = amounts;
+        }
+
+        boolean sameAs(Snapshot other) {
+            return Arrays.equals(ends, other.ends) && Arrays.equals(amounts, other.amounts);
+        }
+    }
+
+    private final int interval;
+    private final Map<Integer, List<Event>> buckets = new HashMap<>();
+    private final List<Snapshot> checkpoints = new ArrayList<>(List.of(Snapshot.EMPTY));
+    // checkpoints[0, valid) 是对的
+    private int valid = 1;
+    // checkpoint j + 1 可能过时了：算完之后桶 j 又插入过事件，或者 checkpoint j 变了
+    private final BitSet dirty = new BitSet();
+    private long seq;
+    private long recomputed;
+
+    public CheckpointedCreditSystem() {
+        this(1024);
+    }
+
+    public CheckpointedCreditSystem(int interval) {
+        if (interval <= 0) throw new IllegalArgumentException("interval must be positive");
+        this.interval = interval;
+    }
+
+    public void grantCredit(int amount, int startTime, int expirationTime) {
+        if (expirationTime <= startTime) return;  // 从来没有生效过
+        insert(new Event(startTime, amount, expirationTime, seq++));
+    }
+
+    public void subtract(int amount, int timestamp) {
+        insert(new Event(timestamp, amount, -1, seq++));
+    }
+
+    private void insert(Event e) {
+        if (e.timestamp < 0) throw new IllegalArgumentException("negative timestamp " + e.timestamp);
+        int bucket = e.timestamp / interval;
+        List<Event> events = buckets.computeIfAbsent(bucket, k -> new ArrayList<>());
+        // 一般是按时间追加，二分只是为了乱序插入
+        int pos = events.size();
+        if (pos > 0 && ORDER.compare(events.get(pos - 1), e) > 0) {
+            pos = -Collections.binarySearch(events, e, ORDER) - 1;
+        }
+        events.add(pos, e);
+        if (bucket + 1 < checkpoints.size()) {
+            dirty.set(bucket);
+            valid = Math.min(valid, bucket + 1);
+        }
+    }
+
+    public int getBalance(int timestamp) {
+        if (timestamp < 0) return 0;
+        int bucket = timestamp / interval;
+        Ledger ledger = new Ledger(checkpoint(bucket));
+        ledger.replay(buckets.get(bucket), timestamp);
+        return (int) ledger.balanceAt(timestamp);
+    }
+
+    private Snapshot checkpoint(int bucket) {
+        while (valid <= bucket) {
+            int k = valid;
+            Ledger ledger = new Ledger(checkpoints.get(k - 1));
+            ledger.replay(buckets.get(k - 1), k * interval - 1);
+            Snapshot snapshot = ledger.snapshot(k * interval);
+            recomputed++;
+            dirty.clear(k - 1);
+            if (k == checkpoints.size()) {
+                checkpoints.add(snapshot);
+                valid = k + 1;
+            } else if (snapshot.sameAs(checkpoints.get(k))) {
+                // 后面的 checkpoint 是从同一个状态、没改过的桶算出来的，直到下一个脏桶都还对
+                int next = dirty.nextSetBit(k);
+                valid = next < 0 ? checkpoints.size() : Math.min(checkpoints.size(), next + 1);
+            } else {
+                // checkpoint k 变了，k + 1 是从旧的 k 算出来的，也要重算
+                checkpoints.set(k, snapshot);
+                if (k + 1 < checkpoints.size()) dirty.set(k);
+                valid = k + 1;
+            }
+        }
+        return checkpoints.get(bucket);
+    }
+
+    public long recomputedCheckpoints() {
+        return recomputed;
+    }
+
+    // 重放用的小顶堆：过期时间 -> 余额
+    static class Ledger {
+        private int[] ends;
+        private long[] amounts;
+        private int size;
+
+        // 升序数组本身就是合法的小顶堆
+        Ledger(Snapshot from) {
+            size = from.ends.length;
+            ends = Arrays.copyOf(from.ends, Math.max(16, size * 2));
+            amounts = Arrays.copyOf(from.amounts, ends.length);
+        }
+
+        void replay(List<Event> events, int upTo) {
+            if (events == null) return;
+            for (Event e : events) {
+                if (e.timestamp > upTo) break;
+                if (e.isGrant()) {
+                    push(e.expirationTime, e.amount);
+                } else {
+                    subtract(e.amount, e.timestamp);
+                }
+            }
+        }
+
+        private void subtract(long need, int t) {
+            while (need > 0 && size > 0) {
+                if (ends[0] <= t) {
+                    pop();
+                    continue;
+                }
+                long used = Math.min(amounts[0], need);
+                amounts[0] -= used;
+                need -= used;
+                if (amounts[0] == 0) pop();
+            }
+        }
+
+        long balanceAt(int t) {
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                if (ends[i] > t) total += amounts[i];
+            }
+            return total;
+        }
+
+        // boundary 时刻还有效的部分，按过期时间排序并合并
+        Snapshot snapshot(int boundary) {
+            while (size > 0 && ends[0] <= boundary) pop();
+            int[] outEnds = new int[size];
+            long[] outAmounts = new long[size];
+            int n = 0;
+            while (size > 0) {
+                int end = ends[0];
+                long amount = amounts[0];
+                pop();
+                if (amount == 0) continue;
+                if (n > 0 && outEnds[n - 1] == end) {
+                    outAmounts[n - 1] += amount;
+                } else {
+                    outEnds[n] = end;
+                    outAmounts[n++] = amount;
+                }
+            }
+            return new Snapshot(Arrays.copyOf(outEnds, n), Arrays.copyOf(outAmounts, n));
+        }
+
+        private void push(int end, long amount) {
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (ends[parent] <= end) break;
+                ends[i] = ends[parent];
+                amounts[i] = amounts[parent];
+                i = parent;
+            }
+            ends[i] = end;
+            amounts[i] = amount;
+        }
+
+        private void pop() {
+            int end = ends[--size];
+            long amount = amounts[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && ends[child + 1] < ends[child]) child++;
+                if (ends[child] >= end) break;
+                ends[i] = ends[child];
+                amounts[i] = amounts[child];
+                i = child;
+            }
+            ends[i] = end;
+            amounts[i] = amount;
+        }
+    }
+
+    public static void main(String[] args) {
+        CheckpointedCreditSystem cs = new CheckpointedCreditSystem(16);
+
+        cs.grantCredit(3, 10, 60);
+        System.out.println("getBalance(10) = " + cs.getBalance(10)); // 3
+
+        cs.grantCredit(2, 20, 40);
+        cs.subtract(1, 30);
+        cs.subtract(3, 50);
+
+        System.out.println("getBalance(10) = " + cs.getBalance(10)); // 3
+        System.out.println("getBalance(20) = " + cs.getBalance(20)); // 5
+        System.out.println("getBalance(30) = " + cs.getBalance(30)); // 4
+        System.out.println("getBalance(35) = " + cs.getBalance(35)); // 4
+        System.out.println("getBalance(40) = " + cs.getBalance(40)); // 3
+        System.out.println("getBalance(50) = " + cs.getBalance(50)); // 0
+
+        // 和 CreditSystem 对拍，包括乱序插入
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            CreditSystem expected = new CreditSystem();
+            CheckpointedCreditSystem actual = new CheckpointedCreditSystem(1 + random.nextInt(20));
+            for (int i = 0; i < 100; i++) {
+                int t = random.nextInt(300);
+                if (random.nextBoolean()) {
+                    int amount = 1 + random.nextInt(10);
+                    int end = t + random.nextInt(80);
+                    expected.grantCredit(amount, t, end);
+                    actual.grantCredit(amount, t, end);
+                } else {
+                    int amount = 1 + random.nextInt(15);
+                    expected.subtract(amount, t);
+                    actual.subtract(amount, t);
+                }
+                int q = random.nextInt(400);
+                if (expected.getBalance(q) != actual.getBalance(q)) {
+                    throw new AssertionError("round " + round + " op " + i + " balance at " + q);
+                }
+            }
+        }
+        System.out.println("matches CreditSystem");
+
+        benchmark(args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000);
+    }
+
+    // n 个事件按时间追加，之后随机查询；再插入一批乱序事件，看重算了多少 checkpoint
+    private static void benchmark(int n) {
+        Random random = new Random(1);
+        CheckpointedCreditSystem cs = new CheckpointedCreditSystem();
+        int time = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            time += random.nextInt(4);
+            if (random.nextInt(3) == 0) {
+                cs.grantCredit(1 + random.nextInt(100), time, time + 100 + random.nextInt(5_000));
+            } else {
+                cs.subtract(1 + random.nextInt(20), time);
+            }
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        int queries = 100_000;
+        cs.getBalance(time);  // 先把 checkpoint 都算出来，单独计时
+        start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < queries; i++) checksum += cs.getBalance(random.nextInt(time + 1));
+        long queryNanos = System.nanoTime() - start;
+        System.out.printf("n=%,d events: insert %,.0f/s, getBalance %.1f us/query [%d]%n",
+                n, n * 1e9 / insertNanos, queryNanos / 1e3 / queries, checksum & 1);
+
+        long before = cs.recomputedCheckpoints();
+        int outOfOrder = 1_000;
+        start = System.nanoTime();
+        for (int i = 0; i < outOfOrder; i++) {
+            int t = random.nextInt(time + 1);
+            if (random.nextBoolean()) {
+                cs.grantCredit(1 + random.nextInt(10), t, t + 1 + random.nextInt(50));
+            } else {
+                cs.subtract(1 + random.nextInt(5), t);
+            }
+            checksum += cs.getBalance(random.nextInt(time + 1));
+        }
+        long mixedNanos = System.nanoTime() - start;
+        System.out.printf("%,d out-of-order inserts + queries: %.1f us each, %,d of %,d checkpoints recomputed [%d]%n",
+                outOfOrder, mixedNanos / 1e3 / outOfOrder, cs.recomputedCheckpoints() - before,
+                (long) outOfOrder * (time / cs.interval), checksum & 1);
+
+        // CreditSystem 每次查询都从头重放，只能跑很小的规模
+        int small = 3_000;
+        CreditSystem slow = new CreditSystem();
+        time = 0;
+        for (int i = 0; i < small; i++) {
+            time += random.nextInt(4);
+            if (random.nextInt(3) == 0) {
+                slow.grantCredit(1 + random.nextInt(100), time, time + 100 + random.nextInt(5_000));
+            } else {
+                slow.subtract(1 + random.nextInt(20), time);
+            }
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < 20; i++) checksum += slow.getBalance(random.nextInt(time + 1));
+        System.out.printf("CreditSystem n=%,d events: getBalance %.1f us/query [%d]%n",
+                small, (System.nanoTime() - start) / 1e3 / 20, checksum & 1);
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/*
+join / group by 用的 key -> 编号（0, 1, 2 ...）的开放寻址哈希表
+- 槽位是 int[]（编号 + 1，0 表示空），每个编号的 hash、数值 key、字符串 key 各一个数组，没有 Entry 对象
+- key 是数字时按 long 比，否则按字符串比；调用方决定哪些值算数字：SQLManager 用 parseNumber（"07" 和 "7" 是同一个 key），
+  InMemoryDB 的比较全是字典序，只用字符串 key，缺值的行用数字 key 单独成一组
+- 存了 hash，探测时先比 hash，相等才比 key；线性探测，装载因子到 1/2 扩容
+- 编号按第一次出现的顺序分配，调用方用编号索引自己的 int[] / long[] 数组（join 的链表头、聚合的状态）
+- hack2hire/ 和 openai/src/ 各有一份一模一样的，改的时候两份一起改
+*/
+public class KeyTable {
+    private int[] slots = new int[16];
+    private int mask = 15;
+    private int[] hashes = new int[8];
+    private long[] numbers = new long[8];
+    private String[] strings = new String[8];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public int hash(int g) {
+        return hashes[g];
+    }
+
+    // numeric 为 true 时 key 是 number，否则是 string
+    public int getOrAdd(String string, boolean numeric, long number) {
+        return getOrAdd(hash(string, numeric, number), string, numeric, number);
+    }
+
+    // other 的第 g 个 key，直接用存好的 hash 和 key，合并两张表时不用回去读原始值
+    public int getOrAdd(KeyTable other, int g) {
+        boolean numeric = other.strings[g] == null;
+        return getOrAdd(other.hashes[g], other.strings[g], numeric, other.numbers[g]);
+    }
+
+    private int getOrAdd(int h, String string, boolean numeric, long number) {
+        int slot = h & mask;
+        for (int g; (g = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (hashes[g - 1] == h && same(g - 1, string, numeric, number)) return g - 1;
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            numbers = Arrays.copyOf(numbers, size * 2);
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        hashes[size] = h;
+        numbers[size] = number;
+        strings[size] = numeric ? null : string;
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) resize();
+        return size - 1;
+    }
+
+    // 不存在返回 -1
+    public int find(String string, boolean numeric, long number) {
+        int h = hash(string, numeric, number);
+        for (int slot = h & mask, g; (g = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (hashes[g - 1] == h && same(g - 1, string, numeric, number)) return g - 1;
+        }
+        return -1;
+    }
+
+    static int hash(String string, boolean numeric, long number) {
+        long h = numeric ? number * 0x9E3779B97F4A7C15L : string.hashCode() * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private boolean same(int g, String string, boolean numeric, long number) {
+        return numeric ? strings[g] == null && numbers[g] == number : string.equals(strings[g]);
+    }
+
+    private void resize() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int slot = hashes[g] & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = g + 1;
+        }
+    }
+}
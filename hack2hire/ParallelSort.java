@@ -0,0 +1,55 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+long[] 的并行归并排序，跑在调用方给的 ForkJoinPool 上
+- Arrays.parallelSort 的并行度只看 common pool，没法按查询指定核数
+- 小于 THRESHOLD 的段直接 Arrays.sort，两半并行排好再归并
+- hack2hire/ 和 openai/src/ 各有一份一模一样的，改的时候两份一起改
+*/
+public class ParallelSort {
+    static final int THRESHOLD = 1 << 13;
+
+    public static void sort(long[] a, ForkJoinPool pool) {
+        if (a.length <= THRESHOLD || pool.getParallelism() == 1) {
+            Arrays.sort(a);
+            return;
+        }
+        pool.invoke(new SortTask(a, new long[a.length], 0, a.length));
+    }
+
+    static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final long[] a;
+        final long[] tmp;
+        final int lo;
+        final int hi;
+
+        SortTask(long[] a, long[] tmp, int lo, int hi) {
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                Arrays.sort(a, lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SortTask(a, tmp, lo, mid), new SortTask(a, tmp, mid, hi));
+            if (a[mid - 1] <= a[mid]) return;
+            int i = lo;
+            int j = mid;
+            int k = lo;
+            while (i < mid && j < hi) tmp[k++] = a[i] <= a[j] ? a[i++] : a[j++];
+            while (i < mid) tmp[k++] = a[i++];
+            while (j < hi) tmp[k++] = a[j++];
+            System.arraycopy(tmp, lo, a, lo, hi - lo);
+        }
+    }
+}
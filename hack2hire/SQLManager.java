@@ -1,12 +1,22 @@
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SQLManager {
 
     class Table {
         List<String> columns = new ArrayList<>();
         Map<String, Integer> columnIndex = new HashMap<>();
-        List<Row> rows = new ArrayList<>();
+        RowStore<Row> rows = new RowStore<>();
+        Map<String, ColumnIndex> indexes = new ConcurrentHashMap<>();
         String name;
+        String id;  // 建表顺序，WAL 里的 INSERT 用它代替表名
 
         public Table(String name, List<String> columns) {
             this.name = name;
@@ -22,32 +32,313 @@ public class SQLManager {
         List<String> values = new ArrayList<>();
     }
 
+    /*
+    并发：写串行、读不加锁（MVCC 的只追加版本）
+    - createTable / insert / createIndex / snapshot 这些写操作是 synchronized 的，多个写线程排队
+    - 行存在 RowStore 里，只追加、不修改不删除；行数是发布出来的水位线，一行的索引项都加完之后才发布这一行
+    - 每个查询开始时取一次 rows.snapshot()，整个查询（包括索引候选、并行任务）只看水位线以内的行，
+      查询中途插入的行不可见，看到的总是某个时刻的完整前缀；rowId 在水位线以内的行以后不会再变
+    - 表、索引用 ConcurrentHashMap / ConcurrentSkipListMap，索引的 rowId 列表也是先写元素再发布长度
+    */
     Map<String, Table> map;
 
     public SQLManager() {
-        this.map = new HashMap<>();
+        this.map = new ConcurrentHashMap<>();
     }
 
-    public void createTable(String tableName, List<String> columnNames) {
-        map.putIfAbsent(tableName, new Table(tableName, columnNames));
+    public synchronized void createTable(String tableName, List<String> columnNames) {
+        if (wal != null) {
+            String[] fields = new String[columnNames.size() + 1];
+            fields[0] = tableName;
+            for (int i = 0; i < columnNames.size(); i++) fields[i + 1] = columnNames.get(i);
+            log(CREATE_TABLE, fields);
+        }
+        if (!map.containsKey(tableName)) {
+            Table table = new Table(tableName, columnNames);
+            table.id = String.valueOf(tablesById.size());
+            tablesById.add(table);
+            map.put(tableName, table);
+        }
         map.get(tableName).columns = columnNames;
     }
 
-    public void insert(String tableName, List<String> values) {
-        if (!map.containsKey(tableName)) return;
-        List<Row> rows = map.get(tableName).rows;
+    public synchronized void insert(String tableName, List<String> values) {
+        Table table = map.get(tableName);
+        if (table == null) return;
+        if (wal != null) {
+            String[] fields = new String[values.size() + 1];
+            fields[0] = table.id;
+            for (int i = 0; i < values.size(); i++) fields[i + 1] = values.get(i);
+            log(INSERT, fields);
+        }
+        add(table, values);
+        maybeSnapshot();
+    }
+
+    private void add(Table table, List<String> values) {
+        RowStore<Row> rows = table.rows;
         Row row = new Row();
         row.rowId = rows.size();
         row.values = values;
+        // 先加索引再发布这一行，读线程按水位线截索引时不会漏
+        for (Map.Entry<String, ColumnIndex> e : table.indexes.entrySet()) {
+            e.getValue().add(values.get(table.columnIndex.get(e.getKey())), row.rowId);
+        }
         rows.add(row);
     }
 
+    /*
+    持久化：open(dir) 之后 createTable / insert / createIndex 先写 WAL 再改内存，格式见 WriteAheadLog
+    - INSERT 记录是 [表 id, 各列的值]，不带表名和列名
+    - 快照按 建表 -> 所有行 -> 建索引 的顺序写，恢复时索引在行都插完之后一次建好
+    - snapshotInterval > 0 时 WAL 每攒够这么多条记录自动做一次快照；insert 之后不保证落盘，sync() 之后才保证
+    - 没有 open 的 SQLManager 和原来一样只在内存里
+    */
+    static final int CREATE_TABLE = 1, INSERT = 2, CREATE_INDEX = 3;
+
+    WriteAheadLog wal;
+    List<Table> tablesById = new ArrayList<>();
+    long snapshotInterval;
+
+    public static SQLManager open(String dir) throws IOException {
+        SQLManager sql = new SQLManager();
+        WriteAheadLog log = new WriteAheadLog(new File(dir));
+        log.recover((type, fields) -> {
+            List<String> rest = Arrays.asList(Arrays.copyOfRange(fields, 1, fields.length));
+            if (type == INSERT) sql.add(sql.tablesById.get(Integer.parseInt(fields[0])), rest);
+            else if (type == CREATE_TABLE) sql.createTable(fields[0], rest);
+            else if (type == CREATE_INDEX) sql.createIndex(fields[0], fields[1]);
+            else throw new IOException("Unknown record type " + type);
+        });
+        sql.wal = log;
+        return sql;
+    }
+
+    public void setSnapshotInterval(long records) {
+        this.snapshotInterval = records;
+    }
+
+    public synchronized void sync() throws IOException {
+        wal.sync();
+    }
+
+    public synchronized void snapshot() throws IOException {
+        wal.snapshot(out -> {
+            for (Table table : tablesById) {
+                String[] fields = new String[table.columns.size() + 1];
+                fields[0] = table.name;
+                for (int i = 0; i < table.columns.size(); i++) fields[i + 1] = table.columns.get(i);
+                out.append(CREATE_TABLE, fields);
+            }
+            for (Table table : tablesById) {
+                for (Row row : table.rows) {
+                    String[] fields = new String[row.values.size() + 1];
+                    fields[0] = table.id;
+                    for (int i = 0; i < row.values.size(); i++) fields[i + 1] = row.values.get(i);
+                    out.append(INSERT, fields);
+                }
+            }
+            for (Table table : tablesById) {
+                for (String column : table.indexes.keySet()) out.append(CREATE_INDEX, table.name, column);
+            }
+        });
+    }
+
+    public synchronized void close() throws IOException {
+        wal.close();
+        wal = null;
+    }
+
+    private void log(int type, String... fields) {
+        try {
+            wal.append(type, fields);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 内存已经改完之后才能做快照，不然快照里少了刚写进旧 WAL 的这一条
+    private void maybeSnapshot() {
+        if (wal == null || snapshotInterval <= 0 || wal.appendedSinceSnapshot() < snapshotInterval) return;
+        try {
+            snapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+    二级索引：hash 做等值，有序的跳表做 < / >
+    - 语义要和 compare 一致：两边都是数字才按数值比，所以数字值和非数字值分开放，数字值按 int 做 key
+    - 等值：值是数字只查数字部分（非数字的行不可能 equals 一个数字串），否则只查字符串部分
+    - 范围：值是数字时数字部分按 int 取区间、字符串部分按字典序取区间；值不是数字时数字行要按字典序比，
+      索引用不上，交给 planner 换别的条件或者全表扫
+    - 每个 key 对应一个递增的 rowId 列表，hash 和跳表共用同一个列表
+    */
+    static class ColumnIndex {
+        final Map<Integer, IntList> numbers = new ConcurrentHashMap<>();
+        final Map<String, IntList> strings = new ConcurrentHashMap<>();
+        final NavigableMap<Integer, IntList> sortedNumbers = new ConcurrentSkipListMap<>();
+        final NavigableMap<String, IntList> sortedStrings = new ConcurrentSkipListMap<>();
+
+        void add(String value, int rowId) {
+            Integer number = parseNumber(value);
+            if (number != null) {
+                IntList ids = numbers.get(number);
+                if (ids == null) {
+                    ids = new IntList();
+                    numbers.put(number, ids);
+                    sortedNumbers.put(number, ids);
+                }
+                ids.add(rowId);
+            } else {
+                IntList ids = strings.get(value);
+                if (ids == null) {
+                    ids = new IntList();
+                    strings.put(value, ids);
+                    sortedStrings.put(value, ids);
+                }
+                ids.add(rowId);
+            }
+        }
+
+        // 满足条件的行所在的 rowId 列表，null 表示这个条件用不上索引
+        List<IntList> lookup(String op, String value) {
+            Integer number = parseNumber(value);
+            if (!op.equals("<") && !op.equals(">")) {
+                IntList ids = number != null ? numbers.get(number) : strings.get(value);
+                return ids == null ? Collections.emptyList() : Collections.singletonList(ids);
+            }
+            if (number == null) return null;
+            List<IntList> out = new ArrayList<>();
+            if (op.equals("<")) {
+                out.addAll(sortedNumbers.headMap(number, false).values());
+                out.addAll(sortedStrings.headMap(value, false).values());
+            } else {
+                out.addAll(sortedNumbers.tailMap(number, false).values());
+                out.addAll(sortedStrings.tailMap(value, false).values());
+            }
+            return out;
+        }
+    }
+
+    // 一个写线程追加、读线程不加锁读：写的时候先写 ids 再发布 size，读的时候先读 size 再读 ids
+    static class IntList {
+        int[] ids = new int[2];
+        volatile int size;
+
+        void add(int id) {
+            int n = size;
+            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+            ids[n] = id;
+            size = n + 1;
+        }
+
+        // rowId < limit 的个数，rowId 是递增的，二分
+        int countBelow(int limit) {
+            int n = size;
+            int[] a = ids;
+            int lo = 0;
+            while (lo < n) {
+                int mid = (lo + n) >>> 1;
+                if (a[mid] < limit) lo = mid + 1;
+                else n = mid;
+            }
+            return lo;
+        }
+    }
+
+    // 和 compare 里的判断一致，但 isNumeric 放过的 "-" / "1-2" / 溢出不能 parse 的当字符串
+    static Integer parseNumber(String s) {
+        long n = number(s);
+        return n == NOT_NUMBER ? null : (int) n;
+    }
+
+    static final long NOT_NUMBER = Long.MIN_VALUE;
+
+    // parseNumber 不装箱的版本：-?\d+ 并且在 int 范围内才是数字，否则返回 NOT_NUMBER；一趟扫描，不抛异常
+    static long number(String s) {
+        if (s == null) return NOT_NUMBER;
+        int len = s.length();
+        boolean negative = len > 0 && s.charAt(0) == '-';
+        int i = negative ? 1 : 0;
+        if (i == len) return NOT_NUMBER;
+        long n = 0;
+        for (; i < len; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) return NOT_NUMBER;
+            n = n * 10 + d;
+            if (n > 1L << 31) return NOT_NUMBER;
+        }
+        n = negative ? -n : n;
+        return n < Integer.MIN_VALUE || n > Integer.MAX_VALUE ? NOT_NUMBER : n;
+    }
+
+    public synchronized void createIndex(String tableName, String column) {
+        Table table = map.get(tableName);
+        if (table == null || table.indexes.containsKey(column)) return;
+        if (wal != null) log(CREATE_INDEX, tableName, column);
+        int idx = table.columnIndex.get(column);
+        ColumnIndex index = new ColumnIndex();
+        for (Row row : table.rows) index.add(row.values.get(idx), row.rowId);
+        table.indexes.put(column, index);
+    }
+
+    /*
+    planner：在有索引的条件里挑命中行最少的，只对这些行跑完整的 where
+    - 等值条件的行数直接是列表长度；范围条件边数边和当前最好的比，超过就不数了
+    - 最好的条件也要扫超过 1/4 的表时不如直接全表扫
+    - 候选 rowId 排好序，结果顺序和全表扫一样
+    - 只要 rowId < visible 的部分（查询开始时的水位线），之后插入的行不算
+    */
+    private int[] candidates(Table table, List<List<String>> conditions, int visible) {
+        if (conditions == null || table.indexes.isEmpty()) return null;
+        List<IntList> best = null;
+        long bestCount = visible / 4;
+        for (List<String> condition : conditions) {
+            ColumnIndex index = table.indexes.get(condition.get(0));
+            if (index == null) continue;
+            List<IntList> lists = index.lookup(condition.get(1), condition.get(2));
+            if (lists == null) continue;
+            long count = 0;
+            for (IntList ids : lists) {
+                count += ids.countBelow(visible);
+                if (count >= bestCount) break;
+            }
+            if (count < bestCount) {
+                best = lists;
+                bestCount = count;
+            }
+        }
+        if (best == null) return null;
+        int[] ids = new int[(int) bestCount];
+        int n = 0;
+        for (IntList list : best) {
+            int m = list.countBelow(visible);
+            System.arraycopy(list.ids, 0, ids, n, m);
+            n += m;
+        }
+        if (best.size() > 1) Arrays.sort(ids);
+        return ids;
+    }
+
     public List<Integer> select(String tableName, List<List<String>> conditions, List<String> orderBy) {
         Table table = map.get(tableName);
+        List<Row> rows = table.rows.snapshot();
         List<Row> res = new ArrayList<>();
-        for (Row row: table.rows) {
-            if (where(row, conditions, table)) {
-                res.add(row);
+        int[] candidates = candidates(table, conditions, rows.size());
+        if (candidates != null) {
+            for (int id : candidates) {
+                Row row = rows.get(id);
+                if (where(row, conditions, table)) {
+                    res.add(row);
+                }
+            }
+        } else {
+            for (Row row: rows) {
+                if (where(row, conditions, table)) {
+                    res.add(row);
+                }
             }
         }
 
@@ -103,7 +394,11 @@ public class SQLManager {
     }
 
     private void order(List<Row> rows, List<String> orderBy, Table table) {
-        rows.sort((a, b) -> {
+        rows.sort(comparator(orderBy, table));
+    }
+
+    private Comparator<Row> comparator(List<String> orderBy, Table table) {
+        return (a, b) -> {
             for (String col : orderBy) {
                 int idx = table.columnIndex.get(col);
                 String aVal = a.values.get(idx);
@@ -111,16 +406,545 @@ public class SQLManager {
                 
                 if (aVal.equals(bVal)) continue;
                 
-                // 数值比较
+                // 数值比较；数值相等但写法不同（"07" 和 "7"）算相等，继续比下一列
                 if (isNumeric(aVal) && isNumeric(bVal)) {
-                    return Integer.compare(Integer.parseInt(aVal), Integer.parseInt(bVal));
+                    int cmp = Integer.compare(Integer.parseInt(aVal), Integer.parseInt(bVal));
+                    if (cmp == 0) continue;
+                    return cmp;
                 }
                 
                 // 字符串比较
                 return aVal.compareTo(bVal);
             }
             return 0;
-        });
+        };
+    }
+
+    /*
+    LIMIT k：扫描时只留一个大小为 k 的堆，堆顶是目前留下的最差的一行
+    - 新行比堆顶好才换进去，n 行是 O(n log k)，内存 O(k)，不用先把整个结果排一遍
+    - 比较器最后按 rowId 比（扫描顺序），所以结果和整个排序再取前 k 行一样
+    - 没有 ORDER BY 时就是前 k 个命中的行，扫到 k 行就停
+    - 并行时每个叶子任务一个堆，两边排好序的前 k 归并后再取前 k；叶子大约是每个线程 4 段，
+      叶子太碎的话每个堆都要先灌满 k 行，k 大时这部分比扫描本身还贵
+    */
+    public List<Integer> select(String tableName, List<List<String>> conditions, List<String> orderBy, int limit) {
+        if (limit < 0) return select(tableName, conditions, orderBy);
+        Table table = map.get(tableName);
+        List<Row> rows = table.rows.snapshot();
+        int[] candidates = candidates(table, conditions, rows.size());
+        int n = candidates != null ? candidates.length : rows.size();
+        List<Integer> result = new ArrayList<>();
+        if (orderBy == null || orderBy.isEmpty()) {
+            for (int i = 0; i < n && result.size() < limit; i++) {
+                Row row = rows.get(candidates != null ? candidates[i] : i);
+                if (where(row, conditions, table)) result.add(row.rowId);
+            }
+            return result;
+        }
+        TopK<Row> top = new TopK<>(limit, comparator(orderBy, table).thenComparingInt(r -> r.rowId));
+        for (int i = 0; i < n; i++) {
+            Row row = rows.get(candidates != null ? candidates[i] : i);
+            if (where(row, conditions, table)) top.offer(row);
+        }
+        for (Row row : top.sorted()) result.add(row.rowId);
+        return result;
+    }
+
+    public List<Integer> selectParallel(String tableName, List<List<String>> conditions, List<String> orderBy,
+                                        int limit, ForkJoinPool pool) {
+        if (limit < 0) return selectParallel(tableName, conditions, orderBy, pool);
+        Table table = map.get(tableName);
+        int visible = table.rows.size();
+        int[] candidates = candidates(table, conditions, visible);
+        Comparator<Row> byRowId = Comparator.comparingInt(r -> r.rowId);
+        Comparator<Row> comparator = orderBy == null || orderBy.isEmpty()
+                ? byRowId : comparator(orderBy, table).thenComparing(byRowId);
+        int n = candidates != null ? candidates.length : visible;
+        int leaf = Math.max(TopKTask.THRESHOLD, n / (4 * pool.getParallelism()));
+        List<Row> top = pool.invoke(new TopKTask(table, conditions, candidates, comparator, limit, leaf, 0, n));
+        List<Integer> result = new ArrayList<>(top.size());
+        for (Row row : top) result.add(row.rowId);
+        return result;
+    }
+
+    static class TopK<T> {
+        final int k;
+        final Comparator<T> comparator;
+        final PriorityQueue<T> heap;
+
+        TopK(int k, Comparator<T> comparator) {
+            this.k = k;
+            this.comparator = comparator;
+            this.heap = new PriorityQueue<>(Math.min(Math.max(k, 1), 1 << 16), comparator.reversed());
+        }
+
+        void offer(T t) {
+            if (heap.size() < k) {
+                heap.add(t);
+            } else if (k > 0 && comparator.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+
+        // 从好到差
+        List<T> sorted() {
+            List<T> out = new ArrayList<>(heap);
+            out.sort(comparator);
+            return out;
+        }
+
+        static <T> List<T> merge(List<T> a, List<T> b, int k, Comparator<T> comparator) {
+            List<T> out = new ArrayList<>(Math.min(k, a.size() + b.size()));
+            int i = 0;
+            int j = 0;
+            while (out.size() < k && (i < a.size() || j < b.size())) {
+                if (j == b.size() || (i < a.size() && comparator.compare(a.get(i), b.get(j)) <= 0)) {
+                    out.add(a.get(i++));
+                } else {
+                    out.add(b.get(j++));
+                }
+            }
+            return out;
+        }
+    }
+
+    class TopKTask extends RecursiveTask<List<Row>> {
+        private static final long serialVersionUID = 1L;
+
+        static final int THRESHOLD = 1 << 14;
+        final Table table;
+        final List<List<String>> conditions;
+        final int[] source;  // null 表示全表
+        final Comparator<Row> comparator;
+        final int k;
+        final int leaf;
+        final int lo;
+        final int hi;
+
+        TopKTask(Table table, List<List<String>> conditions, int[] source, Comparator<Row> comparator, int k,
+                 int leaf, int lo, int hi) {
+            this.table = table;
+            this.conditions = conditions;
+            this.source = source;
+            this.comparator = comparator;
+            this.k = k;
+            this.leaf = leaf;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected List<Row> compute() {
+            if (hi - lo <= leaf) {
+                TopK<Row> top = new TopK<>(k, comparator);
+                for (int i = lo; i < hi; i++) {
+                    Row row = table.rows.get(source != null ? source[i] : i);
+                    if (where(row, conditions, table)) top.offer(row);
+                }
+                return top.sorted();
+            }
+            int mid = (lo + hi) >>> 1;
+            TopKTask left = new TopKTask(table, conditions, source, comparator, k, leaf, lo, mid);
+            left.fork();
+            List<Row> right = new TopKTask(table, conditions, source, comparator, k, leaf, mid, hi).compute();
+            return TopK.merge(left.join(), right, k, comparator);
+        }
+    }
+
+    /*
+    并行执行：结果和 select 一样
+    - 过滤：行（或者索引给出的候选行）按区间拆成 fork-join 任务，每段返回命中的 rowId，按顺序拼回去
+    - 排序：每个 ORDER BY 列只解码一次：全是整数的列按数值、全不是整数的列按字典序，算出稠密 rank；
+      各列 rank 拼成一个整数，和结果里的位置一起放进一个 long（rank 在高 32 位，位置在低 32 位，
+      位置保证了稳定），然后 ParallelSort 在同一个 pool 上排 long[]
+    - 列里数字和非数字混着（比较不是全序），或者 rank 拼起来超过 31 位时，退回按解码好的列做比较器排序
+    - 数值相等但写法不同（"07" 和 "7"）当作相等，继续比下一列；select 的 comparator 和退路的比较器也是这个规则
+    */
+    public List<Integer> selectParallel(String tableName, List<List<String>> conditions, List<String> orderBy,
+                                        ForkJoinPool pool) {
+        Table table = map.get(tableName);
+        int visible = table.rows.size();
+        int[] candidates = candidates(table, conditions, visible);
+        int[] ids = pool.invoke(new FilterTask(table, conditions, candidates, 0,
+                candidates != null ? candidates.length : visible));
+        if (orderBy != null && !orderBy.isEmpty()) {
+            ids = orderParallel(table, ids, orderBy, pool);
+        }
+        List<Integer> result = new ArrayList<>(ids.length);
+        for (int id : ids) result.add(id);
+        return result;
+    }
+
+    class FilterTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        static final int THRESHOLD = 1 << 14;
+        final Table table;
+        final List<List<String>> conditions;
+        final int[] source;  // null 表示全表
+        final int lo;
+        final int hi;
+
+        FilterTask(Table table, List<List<String>> conditions, int[] source, int lo, int hi) {
+            this.table = table;
+            this.conditions = conditions;
+            this.source = source;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (hi - lo <= THRESHOLD) {
+                int[] out = new int[hi - lo];
+                int n = 0;
+                for (int i = lo; i < hi; i++) {
+                    int id = source != null ? source[i] : i;
+                    if (where(table.rows.get(id), conditions, table)) out[n++] = id;
+                }
+                return Arrays.copyOf(out, n);
+            }
+            int mid = (lo + hi) >>> 1;
+            FilterTask left = new FilterTask(table, conditions, source, lo, mid);
+            left.fork();
+            int[] right = new FilterTask(table, conditions, source, mid, hi).compute();
+            int[] l = left.join();
+            int[] out = Arrays.copyOf(l, l.length + right.length);
+            System.arraycopy(right, 0, out, l.length, right.length);
+            return out;
+        }
+    }
+
+    private int[] orderParallel(Table table, int[] ids, List<String> orderBy, ForkJoinPool pool) {
+        int m = ids.length;
+        int[][] ranks = new int[orderBy.size()][];
+        int[] bits = new int[orderBy.size()];
+        int totalBits = 0;
+        for (int c = 0; c < orderBy.size(); c++) {
+            int idx = table.columnIndex.get(orderBy.get(c));
+            String[] values = new String[m];
+            for (int i = 0; i < m; i++) values[i] = table.rows.get(ids[i]).values.get(idx);
+            ranks[c] = rank(values);
+            if (ranks[c] == null) return orderByComparator(table, ids, orderBy, pool);
+            int distinct = 0;
+            for (int r : ranks[c]) distinct = Math.max(distinct, r + 1);
+            bits[c] = 32 - Integer.numberOfLeadingZeros(Math.max(distinct - 1, 0));
+            totalBits += bits[c];
+        }
+        if (totalBits > 31) return orderByComparator(table, ids, orderBy, pool);
+
+        long[] keys = new long[m];
+        for (int i = 0; i < m; i++) {
+            long key = 0;
+            for (int c = 0; c < ranks.length; c++) key = (key << bits[c]) | ranks[c][i];
+            keys[i] = (key << 32) | i;
+        }
+        ParallelSort.sort(keys, pool);
+        int[] out = new int[m];
+        for (int i = 0; i < m; i++) out[i] = ids[(int) keys[i]];
+        return out;
+    }
+
+    // 稠密 rank：全是整数按数值，全不是整数按字典序；混着的返回 null
+    private static int[] rank(String[] values) {
+        int numeric = 0;
+        for (String v : values) if (parseNumber(v) != null) numeric++;
+        int[] ranks = new int[values.length];
+        if (numeric == values.length) {
+            int[] nums = new int[values.length];
+            for (int i = 0; i < values.length; i++) nums[i] = parseNumber(values[i]);
+            int[] distinct = nums.clone();
+            Arrays.sort(distinct);
+            int d = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (i == 0 || distinct[i] != distinct[i - 1]) distinct[d++] = distinct[i];
+            }
+            for (int i = 0; i < nums.length; i++) ranks[i] = Arrays.binarySearch(distinct, 0, d, nums[i]);
+            return ranks;
+        }
+        if (numeric > 0) return null;
+        Map<String, Integer> rankOf = new HashMap<>();
+        for (String v : values) rankOf.put(v, 0);
+        String[] distinct = rankOf.keySet().toArray(new String[0]);
+        Arrays.sort(distinct);
+        for (int i = 0; i < distinct.length; i++) rankOf.put(distinct[i], i);
+        for (int i = 0; i < values.length; i++) ranks[i] = rankOf.get(values[i]);
+        return ranks;
+    }
+
+    // 退路：值先解码好（字符串 + 能 parse 的整数），比较器里不再 parse
+    private int[] orderByComparator(Table table, int[] ids, List<String> orderBy, ForkJoinPool pool) {
+        int m = ids.length;
+        String[][] strings = new String[orderBy.size()][m];
+        Integer[][] numbers = new Integer[orderBy.size()][m];
+        for (int c = 0; c < orderBy.size(); c++) {
+            int idx = table.columnIndex.get(orderBy.get(c));
+            for (int i = 0; i < m; i++) {
+                strings[c][i] = table.rows.get(ids[i]).values.get(idx);
+                numbers[c][i] = parseNumber(strings[c][i]);
+            }
+        }
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) order[i] = i;
+        Comparator<Integer> comparator = (a, b) -> {
+            for (int c = 0; c < strings.length; c++) {
+                if (strings[c][a].equals(strings[c][b])) continue;
+                if (numbers[c][a] != null && numbers[c][b] != null) {
+                    int cmp = Integer.compare(numbers[c][a], numbers[c][b]);
+                    if (cmp == 0) continue;
+                    return cmp;
+                }
+                return strings[c][a].compareTo(strings[c][b]);
+            }
+            return 0;
+        };
+        pool.submit(() -> Arrays.parallelSort(order, comparator)).join();
+        int[] out = new int[m];
+        for (int i = 0; i < m; i++) out[i] = ids[order[i]];
+        return out;
+    }
+
+    /*
+    JOIN right ON left.leftColumn = right.rightColumn，build / probe 的哈希 join
+    - 右表是 build 侧：每行的 key 放进 KeyTable 拿到编号，同一个 key 的行用 head / next 数组串成 rowId 递增的链表
+    - 左表是 probe 侧：每行查一次 KeyTable，沿链表输出
+    - 结果是 [左 rowId, 右 rowId]，顺序和嵌套循环（外层左表、内层右表）一样
+    - 相等和 compare 的 "=" 一样：两边都是数字按数值比
+    - build 侧占 O(右表行数) 的内存，小表放右边
+    */
+    public List<int[]> join(String leftTable, String leftColumn, String rightTable, String rightColumn) {
+        Table left = map.get(leftTable);
+        Table right = map.get(rightTable);
+        int li = left.columnIndex.get(leftColumn);
+        int ri = right.columnIndex.get(rightColumn);
+        List<Row> leftRows = left.rows.snapshot();
+        List<Row> rightRows = right.rows.snapshot();
+        KeyTable keys = new KeyTable();
+        int[] head = new int[16];
+        int[] tail = new int[16];
+        int[] next = new int[rightRows.size()];
+        for (Row row : rightRows) {
+            String value = row.values.get(ri);
+            long number = number(value);
+            int size = keys.size();
+            int g = keys.getOrAdd(value, number != NOT_NUMBER, number);
+            next[row.rowId] = -1;
+            if (g == size) {
+                if (g == head.length) {
+                    head = Arrays.copyOf(head, g * 2);
+                    tail = Arrays.copyOf(tail, g * 2);
+                }
+                head[g] = row.rowId;
+            } else {
+                next[tail[g]] = row.rowId;
+            }
+            tail[g] = row.rowId;
+        }
+        List<int[]> result = new ArrayList<>();
+        for (Row row : leftRows) {
+            String value = row.values.get(li);
+            long number = number(value);
+            int g = keys.find(value, number != NOT_NUMBER, number);
+            if (g < 0) continue;
+            for (int r = head[g]; r != -1; r = next[r]) result.add(new int[]{row.rowId, r});
+        }
+        return result;
+    }
+
+    /*
+    GROUP BY groupColumn，aggregates 是 "COUNT"、"SUM(col)"、"MIN(col)"、"MAX(col)"、"AVG(col)"
+    - 每个组一个 KeyTable 编号，聚合状态是按编号索引的 long[]，不为每个组建对象
+    - 组的 key 和 join 一样，数字按数值（"07" 和 "7" 同组），输出的是这个组第一行的原值
+    - SUM / MIN / MAX / AVG 只算能 parseNumber 的值，组里没有数字时 MIN / MAX / AVG 是 null；COUNT 是行数
+    - 结果每组一行：[组的值, 聚合1, 聚合2, ...]，按组第一次出现的 rowId 排
+    - pool 不为 null 时分两步：
+      1. 表按连续区间切成每个线程约 4 段，每段一个任务在自己的 KeyTable 上局部聚合（顺序访问行，不共享状态）
+      2. 各段的局部组按 key 的 hash 分区，每个分区一个任务把所有段里落在这个分区的组合并；
+         分区之间没有相同的 key，结果直接拼起来
+      按 hash 把行打散再聚合的话，每个分区都要跳着扫一遍整张表，行是对象时比局部聚合慢
+    */
+    public List<List<String>> groupBy(String tableName, List<List<String>> conditions, String groupColumn,
+                                      List<String> aggregates, ForkJoinPool pool) {
+        Table table = map.get(tableName);
+        int groupIdx = table.columnIndex.get(groupColumn);
+        int[] funcs = new int[aggregates.size()];
+        int[] columns = new int[aggregates.size()];
+        for (int a = 0; a < funcs.length; a++) {
+            String spec = aggregates.get(a);
+            int open = spec.indexOf('(');
+            String func = open < 0 ? spec : spec.substring(0, open);
+            funcs[a] = Arrays.asList("COUNT", "SUM", "MIN", "MAX", "AVG").indexOf(func);
+            if (funcs[a] < 0) throw new IllegalArgumentException("Unknown aggregate " + spec);
+            columns[a] = open < 0 ? -1 : table.columnIndex.get(spec.substring(open + 1, spec.length() - 1));
+        }
+        List<Row> rows = table.rows.snapshot();
+        List<Aggregation> parts = new ArrayList<>();
+        if (pool == null) {
+            Aggregation all = new Aggregation(table, groupIdx, funcs, columns);
+            for (Row row : rows) {
+                if (where(row, conditions, table)) all.add(row);
+            }
+            parts.add(all);
+        } else {
+            int n = rows.size();
+            int ranges = Math.max(1, Math.min(pool.getParallelism() * 4, n / (1 << 14)));
+            List<Callable<Aggregation>> scans = new ArrayList<>();
+            for (int r = 0; r < ranges; r++) {
+                int lo = (int) ((long) n * r / ranges);
+                int hi = (int) ((long) n * (r + 1) / ranges);
+                scans.add(() -> {
+                    Aggregation local = new Aggregation(table, groupIdx, funcs, columns);
+                    for (int i = lo; i < hi; i++) {
+                        Row row = rows.get(i);
+                        if (where(row, conditions, table)) local.add(row);
+                    }
+                    return local;
+                });
+            }
+            List<Aggregation> locals = invokeAll(pool, scans);
+            int partitions = Integer.highestOneBit(pool.getParallelism() * 4 - 1) << 1;
+            List<Callable<Aggregation>> merges = new ArrayList<>();
+            for (int p = 0; p < partitions; p++) {
+                int mine = p;
+                merges.add(() -> {
+                    Aggregation merged = new Aggregation(table, groupIdx, funcs, columns);
+                    for (Aggregation local : locals) {
+                        for (int g = 0; g < local.keys.size(); g++) {
+                            if (partition(local.keys.hash(g), partitions) == mine) merged.merge(local, g);
+                        }
+                    }
+                    return merged;
+                });
+            }
+            parts = invokeAll(pool, merges);
+        }
+        List<long[]> order = new ArrayList<>();
+        for (int p = 0; p < parts.size(); p++) {
+            for (int g = 0; g < parts.get(p).keys.size(); g++) order.add(new long[]{parts.get(p).firstRow[g], p, g});
+        }
+        order.sort((a, b) -> Long.compare(a[0], b[0]));
+        List<List<String>> result = new ArrayList<>(order.size());
+        for (long[] o : order) result.add(parts.get((int) o[1]).output((int) o[2]));
+        return result;
+    }
+
+    // KeyTable 用 hash 的低位找槽，分区用重新混过的高位，不然同一个分区里的 key 在槽里挤在一起
+    private static int partition(int hash, int partitions) {
+        return (int) (((hash * 0x9E3779B9L) & 0xFFFFFFFFL) * partitions >>> 32);
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) {
+        List<T> out = new ArrayList<>(tasks.size());
+        for (Future<T> f : pool.invokeAll(tasks)) {
+            try {
+                out.add(f.get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return out;
+    }
+
+    // 一组行上的聚合；状态数组按 KeyTable 的编号索引
+    static class Aggregation {
+        static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3, AVG = 4;
+        final Table table;
+        final int groupIdx;
+        final int[] funcs;
+        final int[] columns;
+        final KeyTable keys = new KeyTable();
+        int[] firstRow = new int[16];
+        long[] rows = new long[16];
+        long[][] counts;  // 每个聚合列上能 parse 的值的个数
+        long[][] values;  // SUM / AVG 是和，MIN / MAX 是当前最值
+
+        Aggregation(Table table, int groupIdx, int[] funcs, int[] columns) {
+            this.table = table;
+            this.groupIdx = groupIdx;
+            this.funcs = funcs;
+            this.columns = columns;
+            this.counts = new long[funcs.length][16];
+            this.values = new long[funcs.length][16];
+        }
+
+        void add(Row row) {
+            int g = group(row.values.get(groupIdx), row.rowId);
+            rows[g]++;
+            int lastColumn = -1;
+            long v = NOT_NUMBER;
+            for (int a = 0; a < funcs.length; a++) {
+                if (funcs[a] == COUNT) continue;
+                if (columns[a] != lastColumn) {
+                    lastColumn = columns[a];
+                    v = number(row.values.get(lastColumn));
+                }
+                if (v == NOT_NUMBER) continue;
+                if (counts[a][g]++ == 0) values[a][g] = v;
+                else combine(a, g, v);
+            }
+        }
+
+        // 把 other 的第 g 组并进来
+        void merge(Aggregation other, int g) {
+            int size = keys.size();
+            int mine = keys.getOrAdd(other.keys, g);
+            if (mine == size) {
+                if (mine == rows.length) grow();
+                firstRow[mine] = other.firstRow[g];
+            } else {
+                firstRow[mine] = Math.min(firstRow[mine], other.firstRow[g]);
+            }
+            rows[mine] += other.rows[g];
+            for (int a = 0; a < funcs.length; a++) {
+                long count = other.counts[a][g];
+                if (count == 0) continue;
+                if (counts[a][mine] == 0) values[a][mine] = other.values[a][g];
+                else combine(a, mine, other.values[a][g]);
+                counts[a][mine] += count;
+            }
+        }
+
+        private int group(String key, int rowId) {
+            long number = number(key);
+            int size = keys.size();
+            int g = keys.getOrAdd(key, number != NOT_NUMBER, number);
+            if (g == size) {
+                if (g == rows.length) grow();
+                firstRow[g] = rowId;
+            }
+            return g;
+        }
+
+        private void combine(int a, int g, long v) {
+            if (funcs[a] == MIN) values[a][g] = Math.min(values[a][g], v);
+            else if (funcs[a] == MAX) values[a][g] = Math.max(values[a][g], v);
+            else values[a][g] += v;
+        }
+
+        private void grow() {
+            int cap = rows.length * 2;
+            firstRow = Arrays.copyOf(firstRow, cap);
+            rows = Arrays.copyOf(rows, cap);
+            for (int a = 0; a < funcs.length; a++) {
+                counts[a] = Arrays.copyOf(counts[a], cap);
+                values[a] = Arrays.copyOf(values[a], cap);
+            }
+        }
+
+        List<String> output(int g) {
+            List<String> out = new ArrayList<>(funcs.length + 1);
+            out.add(table.rows.get(firstRow[g]).values.get(groupIdx));
+            for (int a = 0; a < funcs.length; a++) {
+                if (funcs[a] == COUNT) out.add(String.valueOf(rows[g]));
+                else if (funcs[a] == SUM) out.add(String.valueOf(values[a][g]));
+                else if (counts[a][g] == 0) out.add(null);
+                else if (funcs[a] == AVG) out.add(String.valueOf((double) values[a][g] / counts[a][g]));
+                else out.add(String.valueOf(values[a][g]));
+            }
+            return out;
+        }
     }
 
     // Helper method to print row details
@@ -175,5 +999,466 @@ public class SQLManager {
         // select: order by rating, title
         sql.printResults("SELECT ORDER BY rating, title:", 
             sql.select("books", new ArrayList<>(), Arrays.asList("rating", "title")));
+
+        checkOrderTies();
+        benchmarkIndex(args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000);
+        benchmarkParallel(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000);
+        benchmarkTopK(args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000);
+        benchmarkJoin(args.length > 3 ? Integer.parseInt(args[3]) : 1_000_000);
+        try {
+            benchmarkRecovery(args.length > 4 ? Integer.parseInt(args[4]) : 10_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        benchmarkConcurrent(args.length > 5 ? Integer.parseInt(args[5]) : 1_000_000);
+    }
+
+    /*
+    写和读同时跑：先建 n 行，然后
+    1. 只有 2 个读线程，反复跑 全表扫 select / 走索引的 select / groupBy，记延迟
+    2. 2 个写线程一共再插 n 行，同时 2 个读线程照常查询
+    3. 读线程停掉，写线程单独再插 n 行，记吞吐
+    每次查询的结果都要是某个前缀的完整结果：select 返回的 rowId 必须正好是 [0, 最大 rowId] 里所有满足条件的行，
+    groupBy 的 COUNT / SUM 加起来要等于前 COUNT 行的行数 / 金额和
+    */
+    private static void benchmarkConcurrent(int n) {
+        SQLManager sql = new SQLManager();
+        sql.createTable("events", Arrays.asList("eventId", "user", "amount"));
+        Random random = new Random(8);
+        for (int i = 0; i < n; i++) {
+            sql.insert("events", Arrays.asList("e-" + i, "u-" + random.nextInt(1000), String.valueOf(random.nextInt(1000))));
+        }
+        sql.createIndex("events", "user");
+        System.out.printf("%n%,d events, cpus=%d%n", n, Runtime.getRuntime().availableProcessors());
+
+        List<List<Long>> alone = runReaders(sql, 2, () -> sleep(3000));
+        printLatencies("readers only (" + n / 1000 + "K rows)", alone);
+
+        long start = System.nanoTime();
+        List<List<Long>> mixed = runReaders(sql, 2, () -> runWriters(sql, 2, n));
+        long mixedNanos = System.nanoTime() - start;
+        printLatencies("readers with 2 writers (" + n / 1000 + "K -> " + 2 * n / 1000 + "K rows)", mixed);
+
+        start = System.nanoTime();
+        runWriters(sql, 2, n);
+        long aloneNanos = System.nanoTime() - start;
+        System.out.printf("insert throughput: writers only %,.0f rows/s, with 2 readers %,.0f rows/s%n",
+                n / (aloneNanos / 1e9), n / (mixedNanos / 1e9));
+        if (sql.map.get("events").rows.size() != 3 * n) throw new AssertionError("lost inserts");
+    }
+
+    private static final String[] QUERIES = {"select amount < 100 (scan)", "select user = u-7 (index)",
+            "groupBy user COUNT, SUM(amount)"};
+
+    // 读线程一直查到 work 跑完；返回每种查询的延迟（纳秒）
+    private static List<List<Long>> runReaders(SQLManager sql, int readers, Runnable work) {
+        AtomicBoolean stop = new AtomicBoolean();
+        List<List<Long>> latencies = new ArrayList<>();
+        for (int q = 0; q < QUERIES.length; q++) latencies.add(Collections.synchronizedList(new ArrayList<>()));
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < readers; t++) {
+            int first = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = first; !stop.get(); i++) {
+                        int q = i % QUERIES.length;
+                        long start = System.nanoTime();
+                        Object result = query(sql, q);
+                        latencies.get(q).add(System.nanoTime() - start);
+                        checkSnapshot(sql, q, result);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        work.run();
+        stop.set(true);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (!errors.isEmpty()) throw new AssertionError("reader failed", errors.get(0));
+        return latencies;
+    }
+
+    private static Object query(SQLManager sql, int q) {
+        if (q == 0) return sql.select("events", Arrays.asList(Arrays.asList("amount", "<", "100")), new ArrayList<>());
+        if (q == 1) return sql.select("events", Arrays.asList(Arrays.asList("user", "=", "u-7")), new ArrayList<>());
+        return sql.groupBy("events", null, "user", Arrays.asList("COUNT", "SUM(amount)"), null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void checkSnapshot(SQLManager sql, int q, Object result) {
+        Table table = sql.map.get("events");
+        if (q < 2) {
+            List<Integer> ids = (List<Integer>) result;
+            if (ids.isEmpty()) return;
+            List<List<String>> conditions = q == 0 ? Arrays.asList(Arrays.asList("amount", "<", "100"))
+                    : Arrays.asList(Arrays.asList("user", "=", "u-7"));
+            int k = 0;
+            for (int id = 0; id <= ids.get(ids.size() - 1); id++) {
+                if (!sql.where(table.rows.get(id), conditions, table)) continue;
+                if (k >= ids.size() || ids.get(k) != id) throw new AssertionError(QUERIES[q] + " missed row " + id);
+                k++;
+            }
+            if (k != ids.size()) throw new AssertionError(QUERIES[q] + " returned extra rows");
+            return;
+        }
+        long rows = 0;
+        long amount = 0;
+        for (List<String> group : (List<List<String>>) result) {
+            rows += Long.parseLong(group.get(1));
+            amount += Long.parseLong(group.get(2));
+        }
+        long expected = 0;
+        for (int id = 0; id < rows; id++) expected += Long.parseLong(table.rows.get(id).values.get(2));
+        if (expected != amount) throw new AssertionError("groupBy saw " + rows + " rows but not a prefix");
+    }
+
+    // writers 个线程一共插 n 行，每个线程自己的 Random
+    private static void runWriters(SQLManager sql, int writers, int n) {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(100 + id);
+                for (int i = id; i < n; i += writers) {
+                    sql.insert("events", Arrays.asList("w" + id + "-" + i, "u-" + random.nextInt(1000),
+                            String.valueOf(random.nextInt(1000))));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void printLatencies(String phase, List<List<Long>> latencies) {
+        System.out.println(phase + ":");
+        for (int q = 0; q < QUERIES.length; q++) {
+            List<Long> sorted = new ArrayList<>(latencies.get(q));
+            Collections.sort(sorted);
+            if (sorted.isEmpty()) continue;
+            System.out.printf("  %-32s %4d queries  p50 %,7.1f ms  p99 %,7.1f ms%n", QUERIES[q], sorted.size(),
+                    sorted.get(sorted.size() / 2) / 1e6, sorted.get(Math.min(sorted.size() - 1, sorted.size() * 99 / 100)) / 1e6);
+        }
+    }
+
+    // 同样 n 行：写 CSV 再按 notion Main.readFile 的方式重新导入 vs 带 WAL 写入之后从快照 + WAL 恢复
+    private static void benchmarkRecovery(int n) throws IOException {
+        File dir = java.nio.file.Files.createTempDirectory("sqlmanager").toFile();
+        File csv = new File(dir, "books.csv");
+        File db = new File(dir, "db");
+        List<String> columns = Arrays.asList("title", "year", "rating");
+        Random random = new Random(5);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(csv))) {
+            for (int i = 0; i < n; i++) {
+                out.write("book-" + i + "," + (1850 + random.nextInt(200)) + "," + random.nextInt(11));
+                out.newLine();
+            }
+        }
+
+        // 带 WAL 写入，每 40% 做一次快照，最后剩一段 WAL 没进快照
+        long start = System.nanoTime();
+        SQLManager durable = open(db.getPath());
+        durable.setSnapshotInterval(n * 2L / 5);
+        durable.createTable("books", columns);
+        try (BufferedReader in = new BufferedReader(new FileReader(csv))) {
+            String line;
+            while ((line = in.readLine()) != null) durable.insert("books", Arrays.asList(line.split(",")));
+        }
+        durable.sync();
+        durable.close();
+        long durableNanos = System.nanoTime() - start;
+        durable = null;
+
+        start = System.nanoTime();
+        SQLManager imported = new SQLManager();
+        imported.createTable("books", columns);
+        try (BufferedReader in = new BufferedReader(new FileReader(csv))) {
+            String line;
+            while ((line = in.readLine()) != null) imported.insert("books", Arrays.asList(line.split(",")));
+        }
+        long csvNanos = System.nanoTime() - start;
+        long expected = checksum(imported.map.get("books"));
+        imported = null;
+
+        start = System.nanoTime();
+        SQLManager recovered = open(db.getPath());
+        long recoverNanos = System.nanoTime() - start;
+        if (checksum(recovered.map.get("books")) != expected) throw new AssertionError("recovered rows differ from CSV");
+        recovered.close();
+
+        long dbBytes = 0;
+        StringBuilder files = new StringBuilder();
+        for (File f : db.listFiles()) {
+            dbBytes += f.length();
+            files.append(' ').append(f.getName()).append('=').append(f.length() >> 20).append("MB");
+        }
+        System.out.printf("%n%,d rows: CSV %,d MB, snapshot + WAL %,d MB (%s)%n", n, csv.length() >> 20, dbBytes >> 20,
+                files.toString().trim());
+        System.out.printf("load with WAL + 2 snapshots %,d ms; CSV re-import %,d ms; recovery from snapshot + WAL %,d ms%n",
+                durableNanos / 1_000_000, csvNanos / 1_000_000, recoverNanos / 1_000_000);
+        for (File f : db.listFiles()) f.delete();
+        db.delete();
+        csv.delete();
+        dir.delete();
+    }
+
+    private static long checksum(Table table) {
+        long sum = table.rows.size();
+        for (Row row : table.rows) sum = sum * 31 + row.values.hashCode();
+        return sum;
+    }
+
+    // orders(n) JOIN customers(n)：哈希 join vs 嵌套循环；GROUP BY：HashMap<String, long[]> 手写聚合 vs groupBy
+    private static void benchmarkJoin(int n) {
+        SQLManager sql = new SQLManager();
+        sql.createTable("orders", Arrays.asList("orderId", "customerId", "amount"));
+        sql.createTable("customers", Arrays.asList("customerId", "region"));
+        Random random = new Random(4);
+        for (int i = 0; i < n; i++) sql.insert("customers", Arrays.asList(String.valueOf(i), "region-" + random.nextInt(50)));
+        for (int i = 0; i < n; i++) {
+            sql.insert("orders", Arrays.asList(String.valueOf(i), String.valueOf(random.nextInt(n * 2)),
+                    String.valueOf(1 + random.nextInt(500))));
+        }
+        System.out.printf("%n%,d orders x %,d customers, cpus=%d%n", n, n, Runtime.getRuntime().availableProcessors());
+
+        long start = System.nanoTime();
+        List<int[]> joined = sql.join("orders", "customerId", "customers", "customerId");
+        long hashNanos = System.nanoTime() - start;
+        // 嵌套循环 n x n 跑不完，只跑前 probe 个订单，按比例外推
+        Table orders = sql.map.get("orders");
+        Table customers = sql.map.get("customers");
+        int probe = Math.min(n, 50);
+        List<int[]> nested = new ArrayList<>();
+        start = System.nanoTime();
+        for (int i = 0; i < probe; i++) {
+            String customerId = orders.rows.get(i).values.get(1);
+            for (Row c : customers.rows) {
+                if (sql.compare(c, "customerId", "=", customerId, customers)) nested.add(new int[]{i, c.rowId});
+            }
+        }
+        long nestedNanos = System.nanoTime() - start;
+        for (int k = 0; k < nested.size(); k++) {
+            if (!Arrays.equals(nested.get(k), joined.get(k))) throw new AssertionError("join differs from nested loop");
+        }
+        System.out.printf("JOIN ON customerId (%,d pairs): hash join %,d ms, nested loop %,d ms for %d probe rows -> ~%,.0f s for all%n",
+                joined.size(), hashNanos / 1_000_000, nestedNanos / 1_000_000, probe, nestedNanos / 1e9 * n / probe);
+
+        for (String[] group : new String[][]{{"customers", "region", "customerId"}, {"orders", "customerId", "amount"}}) {
+            Table table = sql.map.get(group[0]);
+            int g = table.columnIndex.get(group[1]);
+            int v = table.columnIndex.get(group[2]);
+            List<String> aggregates = Arrays.asList("COUNT", "SUM(" + group[2] + ")", "MAX(" + group[2] + ")");
+            long handNanos = Long.MAX_VALUE;
+            long groupNanos = Long.MAX_VALUE;
+            List<List<String>> expected = null;
+            for (int round = 0; round < 3; round++) {
+                start = System.nanoTime();
+                Map<String, long[]> byKey = new LinkedHashMap<>();
+                for (Row row : table.rows) {
+                    long[] acc = byKey.computeIfAbsent(row.values.get(g), k -> new long[]{0, 0, Long.MIN_VALUE});
+                    long value = Integer.parseInt(row.values.get(v));
+                    acc[0]++;
+                    acc[1] += value;
+                    acc[2] = Math.max(acc[2], value);
+                }
+                handNanos = Math.min(handNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                expected = sql.groupBy(group[0], null, group[1], aggregates, null);
+                groupNanos = Math.min(groupNanos, System.nanoTime() - start);
+                if (expected.size() != byKey.size()) throw new AssertionError("group count differs");
+            }
+            System.out.printf("GROUP BY %s.%s (%,d groups): HashMap %,d ms, groupBy %,d ms", group[0], group[1],
+                    expected.size(), handNanos / 1_000_000, groupNanos / 1_000_000);
+            for (int p = 1; p <= 8; p *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(p);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 2; round++) {
+                    start = System.nanoTime();
+                    List<List<String>> actual = sql.groupBy(group[0], null, group[1], aggregates, pool);
+                    best = Math.min(best, System.nanoTime() - start);
+                    if (!actual.equals(expected)) throw new AssertionError("partitioned groupBy differs, p=" + p);
+                }
+                pool.shutdown();
+                System.out.printf(", p=%d %,d ms", p, best / 1_000_000);
+            }
+            System.out.println();
+        }
+    }
+
+    // 整个排序再取前 k vs LIMIT k（顺序 / 4 路并行），结果必须一样；各取 3 次里最快的
+    private static void benchmarkTopK(int n) {
+        SQLManager sql = new SQLManager();
+        sql.createTable("books", Arrays.asList("title", "year", "rating"));
+        String[] years = new String[200];
+        for (int y = 0; y < years.length; y++) years[y] = String.valueOf(1850 + y);
+        String[] ratings = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10"};
+        Random random = new Random(3);
+        for (int i = 0; i < n; i++) {
+            sql.insert("books", Arrays.asList("book-" + random.nextInt(n), years[random.nextInt(years.length)],
+                    ratings[random.nextInt(ratings.length)]));
+        }
+        List<List<String>> conditions = Arrays.asList(Arrays.asList("rating", ">", "3"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        System.out.printf("%n%,d rows, cpus=%d%n", n, Runtime.getRuntime().availableProcessors());
+        for (List<String> orderBy : Arrays.asList(Arrays.asList("year", "rating"), Arrays.asList("title"))) {
+            long sortNanos = Long.MAX_VALUE;
+            List<Integer> sorted = null;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                sorted = sql.select("books", conditions, orderBy);
+                sortNanos = Math.min(sortNanos, System.nanoTime() - start);
+            }
+            System.out.printf("WHERE rating > 3 ORDER BY %s (%,d rows): full sort %,d ms%n", orderBy, sorted.size(),
+                    sortNanos / 1_000_000);
+            for (int k : new int[]{10, 100, 1000}) {
+                long heapNanos = Long.MAX_VALUE;
+                long parallelNanos = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    List<Integer> top = sql.select("books", conditions, orderBy, k);
+                    heapNanos = Math.min(heapNanos, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    List<Integer> parallel = sql.selectParallel("books", conditions, orderBy, k, pool);
+                    parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+                    if (!top.equals(sorted.subList(0, k)) || !parallel.equals(top)) {
+                        throw new AssertionError("LIMIT " + k + " differs from full sort");
+                    }
+                }
+                System.out.printf("  LIMIT %4d: heap %,6d ms, parallel heap (p=4) %,6d ms%n", k,
+                        heapNanos / 1_000_000, parallelNanos / 1_000_000);
+            }
+        }
+        pool.shutdown();
+    }
+
+    // "07" 和 "7" 数值相等，ORDER BY a, b 要接着比 b；rank 打包和退路比较器（a 列混着非数字）都和 select 一样
+    private static void checkOrderTies() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<List<String>> rows = Arrays.asList(Arrays.asList("07", "2"), Arrays.asList("7", "1"), Arrays.asList("x", "0"));
+        for (int n = 2; n <= rows.size(); n++) {
+            SQLManager sql = new SQLManager();
+            sql.createTable("t", Arrays.asList("a", "b"));
+            for (List<String> row : rows.subList(0, n)) sql.insert("t", row);
+            List<String> orderBy = Arrays.asList("a", "b");
+            List<Integer> expected = n == 2 ? Arrays.asList(1, 0) : Arrays.asList(1, 0, 2);
+            List<List<Integer>> actual = Arrays.asList(sql.select("t", new ArrayList<>(), orderBy),
+                    sql.select("t", new ArrayList<>(), orderBy, 10),
+                    sql.selectParallel("t", new ArrayList<>(), orderBy, pool),
+                    sql.selectParallel("t", new ArrayList<>(), orderBy, 10, pool));
+            for (List<Integer> ids : actual) {
+                if (!ids.equals(expected)) throw new AssertionError("ORDER BY a, b: " + actual + " vs " + expected);
+            }
+        }
+        pool.shutdown();
+    }
+
+    // select vs selectParallel，pool 的并行度 1 到 16；结果必须一样
+    private static void benchmarkParallel(int n) {
+        SQLManager sql = new SQLManager();
+        sql.createTable("books", Arrays.asList("title", "year", "rating"));
+        String[] years = new String[200];
+        for (int y = 0; y < years.length; y++) years[y] = String.valueOf(1850 + y);
+        String[] ratings = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10"};
+        Random random = new Random(2);
+        for (int i = 0; i < n; i++) {
+            sql.insert("books", Arrays.asList("book-" + random.nextInt(n), years[random.nextInt(years.length)],
+                    ratings[random.nextInt(ratings.length)]));
+        }
+        List<List<String>> conditions = Arrays.asList(Arrays.asList("rating", ">", "3"), Arrays.asList("year", "<", "2000"));
+        List<List<String>> orders = Arrays.asList(Arrays.asList("year", "rating"), Arrays.asList("title"));
+        System.out.printf("%n%,d rows, cpus=%d%n", n, Runtime.getRuntime().availableProcessors());
+        for (List<String> orderBy : orders) {
+            long start = System.nanoTime();
+            List<Integer> expected = sql.select("books", conditions, orderBy);
+            System.out.printf("WHERE rating > 3 AND year < 2000 ORDER BY %s (%,d rows): select %,d ms", orderBy,
+                    expected.size(), (System.nanoTime() - start) / 1_000_000);
+            for (int p = 1; p <= 16; p *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(p);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 2; round++) {
+                    start = System.nanoTime();
+                    List<Integer> actual = sql.selectParallel("books", conditions, orderBy, pool);
+                    best = Math.min(best, System.nanoTime() - start);
+                    if (!actual.equals(expected)) throw new AssertionError("parallel result differs, p=" + p);
+                }
+                pool.shutdown();
+                System.out.printf(", p=%d %,d ms", p, best / 1_000_000);
+            }
+            System.out.println();
+        }
+    }
+
+    // 同一张表建索引前后跑同样的选择性查询，结果必须一样；每个查询取 3 次里最快的
+    private static void benchmarkIndex(int n) {
+        SQLManager sql = new SQLManager();
+        sql.createTable("books", Arrays.asList("title", "year", "rating"));
+        String[] years = new String[200];
+        for (int y = 0; y < years.length; y++) years[y] = String.valueOf(1850 + y);
+        String[] ratings = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "n/a"};
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            sql.insert("books", Arrays.asList("book-" + i, years[random.nextInt(years.length)],
+                    ratings[random.nextInt(ratings.length)]));
+        }
+        List<List<List<String>>> queries = Arrays.asList(
+                Arrays.asList(Arrays.asList("title", "=", "book-" + n / 2)),
+                Arrays.asList(Arrays.asList("year", "=", "1965"), Arrays.asList("rating", ">", "8")),
+                Arrays.asList(Arrays.asList("rating", ">", "3"), Arrays.asList("year", "<", "1852")),
+                Arrays.asList(Arrays.asList("rating", "=", "n/a"), Arrays.asList("year", ">", "2047")),
+                Arrays.asList(Arrays.asList("rating", ">", "5")));
+
+        long[] scanNanos = new long[queries.size()];
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int q = 0; q < queries.size(); q++) {
+            scanNanos[q] = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                List<Integer> result = sql.select("books", queries.get(q), new ArrayList<>());
+                scanNanos[q] = Math.min(scanNanos[q], System.nanoTime() - start);
+                if (round == 0) expected.add(result);
+            }
+        }
+
+        long start = System.nanoTime();
+        sql.createIndex("books", "title");
+        sql.createIndex("books", "year");
+        sql.createIndex("books", "rating");
+        System.out.printf("%n%,d rows, createIndex on 3 columns: %,d ms%n", n, (System.nanoTime() - start) / 1_000_000);
+        for (int q = 0; q < queries.size(); q++) {
+            List<Integer> actual = null;
+            long indexNanos = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                start = System.nanoTime();
+                actual = sql.select("books", queries.get(q), new ArrayList<>());
+                indexNanos = Math.min(indexNanos, System.nanoTime() - start);
+            }
+            if (!actual.equals(expected.get(q))) throw new AssertionError("index result differs for " + queries.get(q));
+            System.out.printf("%-40s %,9d rows  scan %,8.2f ms  index %,8.3f ms%n", queries.get(q), actual.size(),
+                    scanNanos[q] / 1e6, indexNanos / 1e6);
+        }
     }
 }
\ No newline at end of file
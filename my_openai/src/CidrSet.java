@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CIDR 集合运算（IPv4Iterator Part 5 的补充）
+ *
+ * 一组 CIDR 保存为排好序、互不相交且不相邻的闭区间 [start, end]，
+ * 所以 union / intersect / difference 都是两个有序区间表的线性归并，结果不展开成地址列表。
+ * 一个 /8 只占一个区间（16 字节），而不是 16M 个 String。
+ */
+public class CidrSet {
+
+    private static final long MAX_IP = 0xFFFFFFFFL;
+
+    /** starts[i]..ends[i] 为第 i 个区间，按 start 升序 */
+    private final long[] starts;
+    private final long[] ends;
+    private final int size;
+
+    private CidrSet(long[] starts, long[] ends, int size) {
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+    }
+
+    /** 解析 "a.b.c.d/prefix" 或单个 IP（等价于 /32），重叠或相邻的块会被合并 */
+    public static CidrSet of(List<String> cidrs) {
+        long[][] ranges = new long[cidrs.size()][];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = parseRange(cidrs.get(i));
+        }
+        Arrays.sort(ranges, (a, b) -> Long.compare(a[0], b[0]));
+        Builder b = new Builder(ranges.length);
+        for (long[] r : ranges) b.add(r[0], r[1]);
+        return b.build();
+    }
+
+    public static CidrSet of(String... cidrs) {
+        return of(Arrays.asList(cidrs));
+    }
+
+    public CidrSet union(CidrSet other) {
+        Builder b = new Builder(size + other.size);
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && starts[i] <= other.starts[j])) {
+                b.add(starts[i], ends[i]);
+                i++;
+            } else {
+                b.add(other.starts[j], other.ends[j]);
+                j++;
+            }
+        }
+        return b.build();
+    }
+
+    public CidrSet intersect(CidrSet other) {
+        Builder b = new Builder(Math.min(size, other.size));
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            long lo = Math.max(starts[i], other.starts[j]);
+            long hi = Math.min(ends[i], other.ends[j]);
+            if (lo <= hi) b.add(lo, hi);
+            // 先结束的区间不会再和后面的区间相交
+            if (ends[i] < other.ends[j]) i++;
+            else j++;
+        }
+        return b.build();
+    }
+
+    /** this 中去掉 other 覆盖的地址 */
+    public CidrSet difference(CidrSet other) {
+        Builder b = new Builder(size + other.size);
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            long lo = starts[i];
+            long hi = ends[i];
+            while (j < other.size && other.ends[j] < lo) j++;
+            int k = j;
+            while (k < other.size && other.starts[k] <= hi) {
+                if (other.starts[k] > lo) b.add(lo, other.starts[k] - 1);
+                lo = other.ends[k] + 1;
+                if (lo > hi) break;
+                k++;
+            }
+            if (lo <= hi) b.add(lo, hi);
+        }
+        return b.build();
+    }
+
+    public boolean contains(int ip) {
+        long v = ip & MAX_IP;
+        int i = Arrays.binarySearch(starts, 0, size, v);
+        if (i >= 0) return true;
+        i = -i - 2;
+        return i >= 0 && v <= ends[i];
+    }
+
+    /** 集合包含的地址总数 */
+    public long addressCount() {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += ends[i] - starts[i] + 1;
+        return total;
+    }
+
+    public int rangeCount() {
+        return size;
+    }
+
+    public long rangeStart(int i) {
+        return starts[i];
+    }
+
+    public long rangeEnd(int i) {
+        return ends[i];
+    }
+
+    /** 每个区间拆成最少个数的 CIDR 块：每次取起点对齐允许、且不超过终点的最大块 */
+    public List<String> toCidrs() {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            long lo = starts[i];
+            long hi = ends[i];
+            while (lo <= hi) {
+                int bits = lo == 0 ? 32 : Long.numberOfTrailingZeros(lo);
+                while (bits > 0 && lo + (1L << bits) - 1 > hi) bits--;
+                out.add(IPv4Iterator.format((int) lo) + "/" + (32 - bits));
+                lo += 1L << bits;
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(IPv4Iterator.format((int) starts[i])).append('-').append(IPv4Iterator.format((int) ends[i]));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static long[] parseRange(String cidr) {
+        int slash = cidr.indexOf('/');
+        String ip = slash < 0 ? cidr : cidr.substring(0, slash);
+        int prefixLen = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1).trim());
+        if (prefixLen < 0 || prefixLen > 32) {
+            throw new IllegalArgumentException("Invalid prefix length: " + prefixLen);
+        }
+        long mask = (1L << (32 - prefixLen)) - 1;
+        long base = (IPv4Iterator.parseInt(ip) & MAX_IP) & ~mask;
+        return new long[]{base, base + mask};
+    }
+
+    /** 按 start 升序追加区间，顺手合并重叠和相邻的区间 */
+    private static class Builder {
+        long[] starts;
+        long[] ends;
+        int size;
+
+        Builder(int capacity) {
+            starts = new long[Math.max(capacity, 1)];
+            ends = new long[Math.max(capacity, 1)];
+        }
+
+        void add(long start, long end) {
+            if (size > 0 && start <= ends[size - 1] + 1) {
+                ends[size - 1] = Math.max(ends[size - 1], end);
+                return;
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        CidrSet build() {
+            return new CidrSet(starts, ends, size);
+        }
+    }
+
+    public static void main(String[] args) {
+        CidrSet a = CidrSet.of("10.0.0.0/24", "10.0.1.0/24", "192.168.0.0/16");
+        CidrSet b = CidrSet.of("10.0.0.128/25", "192.168.10.0/24", "172.16.0.0/12");
+
+        // 相邻的两个 /24 合并成一个 /23
+        if (!a.toCidrs().equals(List.of("10.0.0.0/23", "192.168.0.0/16"))) throw new AssertionError("of: " + a.toCidrs());
+
+        CidrSet u = a.union(b);
+        if (u.rangeCount() != 3 || u.addressCount() != 512 + 65536 + (1L << 20)) throw new AssertionError("union: " + u);
+
+        CidrSet in = a.intersect(b);
+        if (!in.toCidrs().equals(List.of("10.0.0.128/25", "192.168.10.0/24"))) throw new AssertionError("intersect: " + in.toCidrs());
+
+        CidrSet d = a.difference(b);
+        if (!d.toCidrs().equals(List.of("10.0.0.0/25", "10.0.1.0/24", "192.168.0.0/21", "192.168.8.0/23",
+                "192.168.11.0/24", "192.168.12.0/22", "192.168.16.0/20", "192.168.32.0/19",
+                "192.168.64.0/18", "192.168.128.0/17"))) {
+            throw new AssertionError("difference: " + d.toCidrs());
+        }
+        if (d.contains(IPv4Iterator.parseInt("192.168.10.1")) || !d.contains(IPv4Iterator.parseInt("192.168.11.1"))) {
+            throw new AssertionError("contains");
+        }
+
+        CidrSet all = CidrSet.of("0.0.0.0/0");
+        if (!all.toCidrs().equals(List.of("0.0.0.0/0"))) throw new AssertionError("/0: " + all.toCidrs());
+        if (all.difference(all).rangeCount() != 0) throw new AssertionError("empty difference");
+
+        System.out.println(d);
+        System.out.println("CidrSet tests passed.");
+    }
+}
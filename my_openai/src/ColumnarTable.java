@@ -0,0 +1,474 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+InMemDB follow up：列存 + 声明类型
+- 每行一个 HashMap<String, String> 大概 200+ 字节，比较时每次 isNumeric + parseInt
+- 列存：INT / LONG 列是 int[] / long[]，插入时 parse 一次；STRING 列做字典编码，存 int[] 编码 + 字典
+- 每列一个 null bitmap（没给值的列），null 不匹配任何条件
+- 过滤是对一列的原始类型循环，AND 在上一步的结果（行号数组）上继续筛，OR 用 bitmap 合并
+- STRING 列的条件先在字典上算一遍（每个不同的值只比较一次），行上只查表
+- 比较语义和 InMemDB.compare 一样：= 是字符串相等，< / > 两边都是整数时按数值，否则按字典序；
+  INT / LONG 列存的是规范化的整数，"040" 插进去再读出来是 "40"
+*/
+public class ColumnarTable {
+
+    public enum Type { INT, LONG, STRING }
+
+    private final String[] names;
+    private final Type[] types;
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+    private final Column[] columns;
+    private int size;
+
+    public ColumnarTable(List<String> names, List<Type> types) {
+        if (names.size() != types.size()) throw new IllegalArgumentException("names and types differ in length");
+        this.names = names.toArray(new String[0]);
+        this.types = types.toArray(new Type[0]);
+        this.columns = new Column[this.names.length];
+        for (int i = 0; i < this.names.length; i++) {
+            columnIndex.put(this.names[i], i);
+            switch (this.types[i]) {
+                case INT: columns[i] = new IntColumn(); break;
+                case LONG: columns[i] = new LongColumn(); break;
+                default: columns[i] = new StringColumn(); break;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<String> columnNames() {
+        return Arrays.asList(names);
+    }
+
+    public List<Type> columnTypes() {
+        return Arrays.asList(types);
+    }
+
+    // 没出现在 columns 里的列是 null
+    public void insert(List<String> columns, List<String> values) {
+        boolean[] seen = new boolean[names.length];
+        for (int i = 0; i < columns.size(); i++) {
+            Integer c = columnIndex.get(columns.get(i));
+            if (c == null) throw new IllegalArgumentException("Unknown column " + columns.get(i));
+            String value = values.get(i);
+            if (value != null) {
+                this.columns[c].set(size, value);
+                seen[c] = true;
+            }
+        }
+        for (int c = 0; c < names.length; c++) {
+            if (!seen[c]) this.columns[c].setNull(size);
+        }
+        size++;
+    }
+
+    /*
+    批量追加（CsvLoader 用）：一批行已经按列放成原始类型数组，整段接到表后面，不经过 insert 的逐个 String
+    - INT 列用 ints，LONG 列用 longs；STRING 列的 ints 是这批自己的字典编码，dictionaries 是这批的字典，
+      追加时每个字典值查一次表的字典，再把编码整列换掉
+    - nulls 是这批的 null bitmap，行号从 0 开始
+    */
+    static class Batch {
+        final Type[] types;
+        final int[][] ints;
+        final long[][] longs;
+        final List<String>[] dictionaries;
+        final long[][] nulls;
+        int size;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Batch(List<Type> types, int capacity) {
+            this.types = types.toArray(new Type[0]);
+            int n = this.types.length;
+            ints = new int[n][];
+            longs = new long[n][];
+            dictionaries = new List[n];
+            nulls = new long[n][];
+            for (int c = 0; c < n; c++) {
+                if (this.types[c] == Type.LONG) longs[c] = new long[capacity];
+                else ints[c] = new int[capacity];
+                if (this.types[c] == Type.STRING) dictionaries[c] = new ArrayList<>();
+                nulls[c] = new long[(capacity + 63) >>> 6];
+            }
+        }
+
+        // 保证能放下第 row 行
+        void ensure(int row) {
+            int capacity = types.length == 0 ? Integer.MAX_VALUE : ints[0] != null ? ints[0].length : longs[0].length;
+            if (row < capacity) return;
+            int grown = Math.max(capacity * 2, row + 1);
+            for (int c = 0; c < types.length; c++) {
+                if (longs[c] != null) longs[c] = Arrays.copyOf(longs[c], grown);
+                else ints[c] = Arrays.copyOf(ints[c], grown);
+                nulls[c] = Arrays.copyOf(nulls[c], (grown + 63) >>> 6);
+            }
+        }
+
+        void setNull(int c, int row) {
+            nulls[c][row >>> 6] |= 1L << row;
+        }
+    }
+
+    public void append(Batch batch) {
+        if (!Arrays.equals(batch.types, types)) throw new IllegalArgumentException("Batch types differ from table");
+        if (batch.size == 0) return;
+        for (int c = 0; c < columns.length; c++) columns[c].append(batch, c, size);
+        size += batch.size;
+    }
+
+    // null 返回 null
+    public String get(int row, String column) {
+        Column c = columns[column(column)];
+        return c.isNull(row) ? null : c.get(row);
+    }
+
+    private int column(String name) {
+        Integer c = columnIndex.get(name);
+        if (c == null) throw new IllegalArgumentException("Unknown column " + name);
+        return c;
+    }
+
+    // condition 格式和 InMemDB 一样："col,op,value#col,op,value"，返回满足条件的行号（递增）
+    public int[] where(String logic, String condition) {
+        if (condition == null) return all();
+        String[] conditions = condition.split("#");
+        if (logic.equals("AND")) {
+            int[] selection = all();
+            int n = size;
+            for (String c : conditions) {
+                String[] parts = c.split(",");
+                n = columns[column(parts[0])].filter(parts[1], parts[2], selection, n);
+                if (n == 0) break;
+            }
+            return Arrays.copyOf(selection, n);
+        }
+        long[] matched = new long[(size + 63) >>> 6];
+        for (String c : conditions) {
+            String[] parts = c.split(",");
+            int[] selection = all();
+            int n = columns[column(parts[0])].filter(parts[1], parts[2], selection, size);
+            for (int i = 0; i < n; i++) matched[selection[i] >>> 6] |= 1L << selection[i];
+        }
+        int count = 0;
+        for (long word : matched) count += Long.bitCount(word);
+        int[] out = new int[count];
+        int k = 0;
+        for (int w = 0; w < matched.length; w++) {
+            for (long word = matched[w]; word != 0; word &= word - 1) {
+                out[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return out;
+    }
+
+    private int[] all() {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) rows[i] = i;
+        return rows;
+    }
+
+    // 数据部分的大概字节数（数组 + 字典字符串），不含对象头
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Column c : columns) bytes += c.memoryBytes();
+        return bytes;
+    }
+
+    static boolean isNumeric(String s) {
+        if (s == null || s.isEmpty()) return false;
+        int i = s.charAt(0) == '-' ? 1 : 0;
+        if (i == s.length()) return false;
+        for (; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    // isNumeric 并且在 long 范围内；超出范围的整数字面量和 "+5" 这种一样按字符串比较
+    static boolean isLong(String s) {
+        if (!isNumeric(s)) return false;
+        if (s.length() - (s.charAt(0) == '-' ? 1 : 0) < 19) return true;
+        try {
+            Long.parseLong(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    abstract static class Column {
+        long[] nulls = new long[1];
+
+        abstract void set(int row, String value);
+
+        abstract String get(int row);
+
+        // 在 selection[0, n) 里筛，满足的原地压到前面，返回个数
+        abstract int filter(String op, String value, int[] selection, int n);
+
+        abstract long memoryBytes();
+
+        // batch 的第 c 列接到 offset 行之后
+        abstract void append(Batch batch, int c, int offset);
+
+        void appendNulls(long[] bits, int n, int offset) {
+            ensureNulls(offset + n - 1);
+            for (int w = 0; w < (n + 63) >>> 6; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    int row = offset + (w << 6) + Long.numberOfTrailingZeros(word);
+                    nulls[row >>> 6] |= 1L << row;
+                }
+            }
+        }
+
+        // 值数组至少要到 row，null 行也要占位：filter 的循环先读 values[row] 再看 null 位
+        abstract void ensureRow(int row);
+
+        void setNull(int row) {
+            ensureRow(row);
+            ensureNulls(row);
+            nulls[row >>> 6] |= 1L << row;
+        }
+
+        boolean isNull(int row) {
+            return (row >>> 6) < nulls.length && (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        void ensureNulls(int row) {
+            if ((row >>> 6) >= nulls.length) nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, (row >>> 6) + 1));
+        }
+
+        // 通用慢路径：逐行转成字符串比较，只有数值列配非整数（或超出 long）的值时才会用到
+        int filterAsStrings(String op, String value, int[] selection, int n) {
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = selection[i];
+                if (isNull(row)) continue;
+                int cmp = get(row).compareTo(value);
+                if (op.equals("=") ? cmp == 0 : op.equals(">") ? cmp > 0 : cmp < 0) selection[k++] = row;
+            }
+            return k;
+        }
+    }
+
+    static class IntColumn extends Column {
+        int[] values = new int[16];
+
+        @Override
+        void set(int row, String value) {
+            ensureRow(row);
+            try {
+                values[row] = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not an INT: " + value);
+            }
+            ensureNulls(row);
+        }
+
+        @Override
+        void ensureRow(int row) {
+            if (row >= values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, row + 1));
+        }
+
+        @Override
+        String get(int row) {
+            return Integer.toString(values[row]);
+        }
+
+        @Override
+        int filter(String op, String value, int[] selection, int n) {
+            if (!isLong(value)) return filterAsStrings(op, value, selection, n);
+            long target = Long.parseLong(value);
+            // "=" 是字符串相等，只有规范写法（没有前导 0、不是 -0）才可能相等
+            if (op.equals("=") && !Long.toString(target).equals(value)) return 0;
+            int[] v = values;
+            long[] nullBits = nulls;
+            int k = 0;
+            if (op.equals(">")) {
+                for (int i = 0; i < n; i++) {
+                    int row = selection[i];
+                    if (v[row] > target && (nullBits[row >>> 6] & (1L << row)) == 0) selection[k++] = row;
+                }
+            } else if (op.equals("<")) {
+                for (int i = 0; i < n; i++) {
+                    int row = selection[i];
+                    if (v[row] < target && (nullBits[row >>> 6] & (1L << row)) == 0) selection[k++] = row;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    int row = selection[i];
+                    if (v[row] == target && (nullBits[row >>> 6] & (1L << row)) == 0) selection[k++] = row;
+                }
+            }
+            return k;
+        }
+
+        @Override
+        long memoryBytes() {
+            return 4L * values.length + 8L * nulls.length;
+        }
+
+        @Override
+        void append(Batch batch, int c, int offset) {
+            int n = batch.size;
+            if (offset + n > values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, offset + n));
+            System.arraycopy(batch.ints[c], 0, values, offset, n);
+            appendNulls(batch.nulls[c], n, offset);
+        }
+    }
+
+    static class LongColumn extends Column {
+        long[] values = new long[16];
+
+        @Override
+        void set(int row, String value) {
+            ensureRow(row);
+            try {
+                values[row] = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a LONG: " + value);
+            }
+            ensureNulls(row);
+        }
+
+        @Override
+        void ensureRow(int row) {
+            if (row >= values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, row + 1));
+        }
+
+        @Override
+        String get(int row) {
+            return Long.toString(values[row]);
+        }
+
+        @Override
+        int filter(String op, String value, int[] selection, int n) {
+            // 和 IntColumn 一样先看 isNumeric：Long.parseLong 会接受 "+5"，InMemDB 的行模式不会
+            if (!isLong(value)) return filterAsStrings(op, value, selection, n);
+            long target = Long.parseLong(value);
+            if (op.equals("=") && !Long.toString(target).equals(value)) return 0;
+            long[] v = values;
+            long[] nullBits = nulls;
+            int k = 0;
+            int sign = op.equals(">") ? 1 : op.equals("<") ? -1 : 0;
+            for (int i = 0; i < n; i++) {
+                int row = selection[i];
+                if (Long.signum(Long.compare(v[row], target)) == sign && (nullBits[row >>> 6] & (1L << row)) == 0) {
+                    selection[k++] = row;
+                }
+            }
+            return k;
+        }
+
+        @Override
+        long memoryBytes() {
+            return 8L * values.length + 8L * nulls.length;
+        }
+
+        @Override
+        void append(Batch batch, int c, int offset) {
+            int n = batch.size;
+            if (offset + n > values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, offset + n));
+            System.arraycopy(batch.longs[c], 0, values, offset, n);
+            appendNulls(batch.nulls[c], n, offset);
+        }
+    }
+
+    static class StringColumn extends Column {
+        int[] codes = new int[16];
+        final List<String> dictionary = new ArrayList<>();
+        final Map<String, Integer> codeOf = new HashMap<>();
+
+        @Override
+        void set(int row, String value) {
+            ensureRow(row);
+            Integer code = codeOf.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                codeOf.put(value, code);
+            }
+            codes[row] = code;
+            ensureNulls(row);
+        }
+
+        @Override
+        void ensureRow(int row) {
+            if (row >= codes.length) codes = Arrays.copyOf(codes, Math.max(codes.length * 2, row + 1));
+        }
+
+        @Override
+        String get(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        @Override
+        int filter(String op, String value, int[] selection, int n) {
+            int[] c = codes;
+            long[] nullBits = nulls;
+            int k = 0;
+            if (op.equals("=")) {
+                Integer code = codeOf.get(value);
+                if (code == null) return 0;
+                int target = code;
+                for (int i = 0; i < n; i++) {
+                    int row = selection[i];
+                    if (c[row] == target && (nullBits[row >>> 6] & (1L << row)) == 0) selection[k++] = row;
+                }
+                return k;
+            }
+            // 每个字典值只算一次
+            boolean[] match = new boolean[dictionary.size()];
+            boolean numeric = isLong(value);
+            for (int d = 0; d < match.length; d++) {
+                String s = dictionary.get(d);
+                int cmp = numeric && isLong(s) ? Long.compare(Long.parseLong(s), Long.parseLong(value)) : s.compareTo(value);
+                match[d] = op.equals(">") ? cmp > 0 : cmp < 0;
+            }
+            for (int i = 0; i < n; i++) {
+                int row = selection[i];
+                if (match[c[row]] && (nullBits[row >>> 6] & (1L << row)) == 0) selection[k++] = row;
+            }
+            return k;
+        }
+
+        @Override
+        void append(Batch batch, int c, int offset) {
+            int n = batch.size;
+            if (offset + n > codes.length) codes = Arrays.copyOf(codes, Math.max(codes.length * 2, offset + n));
+            List<String> local = batch.dictionaries[c];
+            int[] remap = new int[local.size()];
+            for (int d = 0; d < remap.length; d++) {
+                String value = local.get(d);
+                Integer code = codeOf.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.add(value);
+                    codeOf.put(value, code);
+                }
+                remap[d] = code;
+            }
+            int[] from = batch.ints[c];
+            long[] nullBits = batch.nulls[c];
+            for (int i = 0; i < n; i++) {
+                // null 行的编码没意义，不查表
+                codes[offset + i] = (nullBits[i >>> 6] & (1L << i)) != 0 ? 0 : remap[from[i]];
+            }
+            appendNulls(nullBits, n, offset);
+        }
+
+        @Override
+        long memoryBytes() {
+            long bytes = 4L * codes.length + 8L * nulls.length;
+            for (String s : dictionary) bytes += 40 + s.length();
+            return bytes;
+        }
+    }
+}
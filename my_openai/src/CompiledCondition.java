@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/*
+InMemDB follow up：WHERE 条件只解析一次
+- InMemDB.where 每一行都 split("#") / split(",")、按 op 字符串分支、对值跑正则 isNumeric
+- compile：把 "col,op,value#..." 解析成每个条件一个专门的 lambda（按 op 和字面量是不是整数分开），
+  字面量只 parse 一次；行上的值判断是不是整数和 parse 合成一趟扫描，不用正则
+- AND / OR 组合成一个 Predicate，之后所有行、所有同样文本的查询都复用
+- prepare：按 logic + 条件文本缓存编译结果（LRU，默认 256 条），相当于 prepared statement
+- 语义和 InMemDB.compare 一样；列不存在（null）时不匹配，不会 NPE
+- 例外：超出 int 范围的字面量编译成字典序比较。compare 要到碰上整数行才抛 NumberFormatException，
+  编译时就 parse 的话连没有整数行的表也会抛
+*/
+public class CompiledCondition {
+
+    private static final long NOT_NUMERIC = Long.MIN_VALUE;
+
+    private final Map<String, Predicate<Map<String, String>>> cache;
+    private long compiles;
+
+    public CompiledCondition() {
+        this(256);
+    }
+
+    public CompiledCondition(int capacity) {
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Predicate<Map<String, String>>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized Predicate<Map<String, String>> prepare(String logic, String condition) {
+        String key = logic + '\u0000' + condition;
+        Predicate<Map<String, String>> p = cache.get(key);
+        if (p == null) {
+            p = compile(logic, condition);
+            compiles++;
+            cache.put(key, p);
+        }
+        return p;
+    }
+
+    public synchronized long compileCount() {
+        return compiles;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Predicate<Map<String, String>> compile(String logic, String condition) {
+        if (condition == null) return row -> true;
+        String[] conditions = condition.split("#");
+        Predicate<Map<String, String>>[] parts = new Predicate[conditions.length];
+        for (int i = 0; i < conditions.length; i++) {
+            String[] c = conditions[i].split(",");
+            parts[i] = compile(c[0], c[1], c[2]);
+        }
+        if (parts.length == 1) return parts[0];
+        if (parts.length == 2) {
+            Predicate<Map<String, String>> a = parts[0];
+            Predicate<Map<String, String>> b = parts[1];
+            return logic.equals("AND") ? row -> a.test(row) && b.test(row) : row -> a.test(row) || b.test(row);
+        }
+        if (logic.equals("AND")) {
+            return row -> {
+                for (Predicate<Map<String, String>> p : parts) if (!p.test(row)) return false;
+                return true;
+            };
+        }
+        return row -> {
+            for (Predicate<Map<String, String>> p : parts) if (p.test(row)) return true;
+            return false;
+        };
+    }
+
+    static Predicate<Map<String, String>> compile(String column, String op, String value) {
+        if (op.equals("=")) {
+            return row -> value.equals(row.get(column));
+        }
+        boolean greater = op.equals(">");
+        long literal;
+        try {
+            literal = parseInt(value);
+        } catch (NumberFormatException e) {
+            literal = NOT_NUMERIC;
+        }
+        if (literal == NOT_NUMERIC) {
+            // 字面量不是整数（或者超出 int）：永远是字典序
+            return greater
+                    ? row -> { String v = row.get(column); return v != null && v.compareTo(value) > 0; }
+                    : row -> { String v = row.get(column); return v != null && v.compareTo(value) < 0; };
+        }
+        int target = (int) literal;
+        if (greater) {
+            return row -> {
+                String v = row.get(column);
+                if (v == null) return false;
+                long n = parseInt(v);
+                return n == NOT_NUMERIC ? v.compareTo(value) > 0 : n > target;
+            };
+        }
+        return row -> {
+            String v = row.get(column);
+            if (v == null) return false;
+            long n = parseInt(v);
+            return n == NOT_NUMERIC ? v.compareTo(value) < 0 : n < target;
+        };
+    }
+
+    // 和 InMemDB.isNumeric + Integer.parseInt 一样：-?\d+ 才是整数，超出 int 范围照样抛 NumberFormatException
+    static long parseInt(String s) {
+        int len = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && s.charAt(0) == '-') {
+            negative = true;
+            i = 1;
+        }
+        if (i == len) return NOT_NUMERIC;
+        long n = 0;
+        for (; i < len; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) return NOT_NUMERIC;
+            n = n * 10 + d;
+            if (n > 1L << 31) return Integer.parseInt(s);
+        }
+        n = negative ? -n : n;
+        if (n > Integer.MAX_VALUE || n < Integer.MIN_VALUE) return Integer.parseInt(s);
+        return n;
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        InMemDB db = new InMemDB();
+        List<String> columns = Arrays.asList("title", "author", "price");
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            db.insert("book", columns, Arrays.asList("book-" + i, "author-" + random.nextInt(1000),
+                    String.valueOf(random.nextInt(100))));
+        }
+        List<InMemDB.Row> rows = db.tables.get("book").rows;
+
+        // 每行的求值开销：解释执行 vs 编译好的 Predicate，结果个数要一样
+        String[][] queries = {{"AND", "author,=,author-7#price,>,20"}, {"AND", "price,>,50"},
+                {"OR", "price,<,5#author,=,author-3"}, {"AND", "price,>,20#price,<,40#title,>,book-5"}};
+        for (String[] q : queries) {
+            long interpreted = Long.MAX_VALUE;
+            long compiled = Long.MAX_VALUE;
+            int expected = 0;
+            int actual = 0;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                expected = 0;
+                for (InMemDB.Row row : rows) if (db.where(row, q[0], q[1])) expected++;
+                interpreted = Math.min(interpreted, System.nanoTime() - start);
+                start = System.nanoTime();
+                Predicate<Map<String, String>> p = compile(q[0], q[1]);
+                actual = 0;
+                for (InMemDB.Row row : rows) if (p.test(row.columnValue)) actual++;
+                compiled = Math.min(compiled, System.nanoTime() - start);
+            }
+            if (expected != actual) throw new AssertionError(q[1] + ": " + expected + " vs " + actual);
+            System.out.printf("%-3s %-40s interpreted %6.1f ns/row  compiled %6.1f ns/row%n",
+                    q[0], q[1], (double) interpreted / n, (double) compiled / n);
+        }
+
+        // 超出 int 的字面量：编译不抛，和字典序比较的结果一样
+        for (String op : new String[]{">", "<"}) {
+            String huge = "99999999999";
+            Predicate<Map<String, String>> p = compile("AND", "price," + op + "," + huge);
+            int matched = 0;
+            int lexical = 0;
+            for (InMemDB.Row row : rows) {
+                if (p.test(row.columnValue)) matched++;
+                int cmp = row.columnValue.get("price").compareTo(huge);
+                if (op.equals(">") ? cmp > 0 : cmp < 0) lexical++;
+            }
+            if (matched != lexical) throw new AssertionError("price " + op + " " + huge + ": " + matched + " vs " + lexical);
+        }
+
+        // 小表、大量重复文本的查询：每次编译 vs prepare 缓存
+        List<InMemDB.Row> small = rows.subList(0, 100);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 50; i++) texts.add("author,=,author-" + i + "#price,>," + i);
+        CompiledCondition cache = new CompiledCondition();
+        int total = 200_000;
+        long[] nanos = new long[3];
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            long hits = 0;
+            for (int i = 0; i < total; i++) {
+                String text = texts.get(i % texts.size());
+                for (InMemDB.Row row : small) if (db.where(row, "AND", text)) hits++;
+            }
+            nanos[0] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                Predicate<Map<String, String>> p = compile("AND", texts.get(i % texts.size()));
+                for (InMemDB.Row row : small) if (p.test(row.columnValue)) hits--;
+            }
+            nanos[1] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                Predicate<Map<String, String>> p = cache.prepare("AND", texts.get(i % texts.size()));
+                for (InMemDB.Row row : small) if (p.test(row.columnValue)) hits++;
+            }
+            nanos[2] = System.nanoTime() - start;
+            if (hits == Long.MIN_VALUE) System.out.println(hits);
+        }
+        System.out.printf("%,d queries x 100 rows: interpreted %.2f us/query, compile each %.2f us/query, prepared %.2f us/query (%d compiles)%n",
+                total, nanos[0] / 1e3 / total, nanos[1] / 1e3 / total, nanos[2] / 1e3 / total, cache.compileCount());
+    }
+}
@@ -0,0 +1,507 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+InMemDB follow up：CSV 批量导入到列存表
+- notion Main.readFile / GiftExchange 是 readLine + split(",")：每行一个 String、每个字段一个 String，带引号的字段会被拆错
+- 每块用 FileChannel 按位置整块读进一个 byte[]，直接在字节上解析，不用正则，也不给每个字段建 String：INT / LONG 字段直接算出数值，
+  STRING 字段先查这一块自己的字节字典，同一个值在一块里只 new 一次 String
+- RFC 4180：字段可以用双引号包起来，里面可以有逗号和换行，"" 表示一个引号；行尾是 \n 或者 \r\n；空行跳过
+- 没加引号的空字段是 null，加引号的空字段 "" 是空字符串
+- 并行：文件按字节切成差不多大的块，先并行数每块里的引号，前缀和的奇偶就是块的起点在不在引号里，
+  每块从起点之后第一个不在引号里的换行开始、到下一块的开始为止，切出来的都是完整的行
+- 每块解析成一个 ColumnarTable.Batch（原始类型数组），最后按块的顺序接到表后面，行的顺序和文件一样
+- 字段个数要和表的列数一样，不一样、引号没闭合、没加引号的字段里有引号、数字格式不对都抛 IllegalArgumentException，带出错的字节位置；
+  出错之前的块已经接到表里了
+*/
+public class CsvLoader {
+
+    static final int CHUNK = 32 << 20;
+
+    // 追加到 table 后面，返回读到的行数；header 为 true 时跳过第一行；pool 为 null 时在当前线程跑
+    public static int load(File file, ColumnarTable table, boolean header, ForkJoinPool pool) throws IOException {
+        return load(file, table, header, pool, CHUNK);
+    }
+
+    static int load(File file, ColumnarTable table, boolean header, ForkJoinPool pool, int chunkBytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            int chunks = (int) Math.max(1, (length + chunkBytes - 1) / chunkBytes);
+
+            List<Callable<Long>> counting = new ArrayList<>();
+            for (int i = 0; i < chunks; i++) {
+                long from = (long) i * chunkBytes;
+                long to = Math.min(length, from + chunkBytes);
+                counting.add(() -> countQuotes(channel, from, to));
+            }
+            List<Long> quotes = invokeAll(pool, counting);
+
+            long[] starts = new long[chunks + 1];
+            boolean quoted = false;
+            for (int i = 0; i < chunks; i++) {
+                if (i > 0) starts[i] = Math.max(starts[i - 1], nextLine(channel, (long) i * chunkBytes, quoted, length));
+                else if (header) starts[i] = nextLine(channel, 0, false, length);
+                quoted ^= (quotes.get(i) & 1) != 0;
+            }
+            starts[chunks] = length;
+
+            List<ColumnarTable.Type> types = table.columnTypes();
+            List<Callable<ColumnarTable.Batch>> parsing = new ArrayList<>();
+            for (int i = 0; i < chunks; i++) {
+                long from = starts[i];
+                long to = Math.max(from, starts[i + 1]);
+                if (to - from > Integer.MAX_VALUE) throw new IllegalArgumentException("Record too long at byte " + from);
+                parsing.add(() -> new Parser(read(channel, from, (int) (to - from)), from, types).parse());
+            }
+            // 按块的顺序接到表后面，接完就丢掉这一块，不用等所有块都解析完；
+            // 最多提前提交 2 * 并行度 个块，append 跟不上时解析好的 Batch 也不会越堆越多
+            int ahead = pool == null ? 0 : 2 * pool.getParallelism();
+            List<Future<ColumnarTable.Batch>> futures = new ArrayList<>(Collections.nCopies(chunks, null));
+            int submitted = 0;
+            int rows = 0;
+            try {
+                for (int i = 0; i < chunks; i++) {
+                    for (; pool != null && submitted < Math.min(chunks, i + ahead); submitted++) {
+                        futures.set(submitted, pool.submit(parsing.get(submitted)));
+                    }
+                    ColumnarTable.Batch batch = pool == null ? call(parsing.get(i)) : get(futures.get(i));
+                    parsing.set(i, null);
+                    if (pool != null) futures.set(i, null);
+                    table.append(batch);
+                    rows += batch.size;
+                }
+            } finally {
+                for (Future<ColumnarTable.Batch> f : futures) {
+                    if (f != null) f.cancel(false);
+                }
+            }
+            return rows;
+        }
+    }
+
+    // FileChannel 的按位置读，多个线程共用一个 channel 不用加锁
+    private static byte[] read(FileChannel channel, long from, int n) throws IOException {
+        byte[] bytes = new byte[n];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) < 0) throw new IOException("File shrank while loading");
+        }
+        return bytes;
+    }
+
+    private static long countQuotes(FileChannel channel, long from, long to) throws IOException {
+        long count = 0;
+        for (long base = from; base < to; base += 1 << 20) {
+            byte[] bytes = read(channel, base, (int) Math.min(1 << 20, to - base));
+            for (byte b : bytes) {
+                if (b == '"') count++;
+            }
+        }
+        return count;
+    }
+
+    // from 之后第一个不在引号里的换行的下一个字节，没有就是文件结尾；quoted 是 from 处在不在引号里
+    private static long nextLine(FileChannel channel, long from, boolean quoted, long length) throws IOException {
+        for (long base = from; base < length; base += 1 << 16) {
+            byte[] bytes = read(channel, base, (int) Math.min(1 << 16, length - base));
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '"') quoted = !quoted;
+                else if (bytes[i] == '\n' && !quoted) return base + i + 1;
+            }
+        }
+        return length;
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+        if (pool == null) {
+            for (Callable<T> task : tasks) results.add(call(task));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> task : tasks) futures.add(pool.submit(task));
+        for (Future<T> f : futures) results.add(get(f));
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 任务里抛的 IOException / RuntimeException 原样抛出来
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 一块的解析：没有转义的字段直接用 data 里的那一段，只有带 "" 的字段才拷进 scratch；再按列的类型存进 batch
+    static class Parser {
+        private static final int COMMA = 0, END = 1;
+
+        private final byte[] data;
+        private final long base;
+        private final ColumnarTable.Type[] types;
+        private final ColumnarTable.Batch batch;
+        private final ByteDictionary[] dictionaries;
+        private byte[] scratch = new byte[256];
+        private byte[] field;
+        private int fieldStart;
+        private int fieldLength;
+        private boolean fieldQuoted;
+        private int pos;
+
+        Parser(byte[] data, long base, List<ColumnarTable.Type> types) {
+            this.data = data;
+            this.base = base;
+            this.types = types.toArray(new ColumnarTable.Type[0]);
+            this.batch = new ColumnarTable.Batch(types, 1024);
+            this.dictionaries = new ByteDictionary[this.types.length];
+            for (int c = 0; c < this.types.length; c++) {
+                if (this.types[c] == ColumnarTable.Type.STRING) dictionaries[c] = new ByteDictionary(batch.dictionaries[c]);
+            }
+        }
+
+        ColumnarTable.Batch parse() {
+            int end = data.length;
+            int row = 0;
+            while (pos < end) {
+                byte b = data[pos];
+                if (b == '\n') {
+                    pos++;
+                    continue;
+                }
+                if (b == '\r' && pos + 1 < end && data[pos + 1] == '\n') {
+                    pos += 2;
+                    continue;
+                }
+                long recordStart = base + pos;
+                batch.ensure(row);
+                for (int c = 0; c < types.length; c++) {
+                    int terminator = readField(end);
+                    store(c, row);
+                    if (c < types.length - 1 && terminator == END) {
+                        throw new IllegalArgumentException("Expected " + types.length + " fields, got " + (c + 1)
+                                + " in record at byte " + recordStart);
+                    }
+                    if (c == types.length - 1 && terminator == COMMA) {
+                        throw new IllegalArgumentException("Expected " + types.length + " fields, got more in record at byte "
+                                + recordStart);
+                    }
+                }
+                row++;
+            }
+            batch.size = row;
+            return batch;
+        }
+
+        private int readField(int end) {
+            field = data;
+            fieldQuoted = pos < end && data[pos] == '"';
+            if (fieldQuoted) {
+                long open = base + pos;
+                fieldStart = ++pos;
+                while (pos < end && data[pos] != '"') pos++;
+                if (pos + 1 < end && data[pos + 1] == '"') {
+                    unescape(fieldStart, end, open);
+                } else {
+                    if (pos >= end) throw new IllegalArgumentException("Unterminated quoted field at byte " + open);
+                    fieldLength = pos - fieldStart;
+                    pos++;
+                }
+            } else {
+                fieldStart = pos;
+                while (pos < end) {
+                    byte b = data[pos];
+                    if (b == ',' || b == '\n' || b == '\r') break;
+                    // 并行切块靠数引号的奇偶，没加引号的字段里不能有引号
+                    if (b == '"') throw new IllegalArgumentException("Quote inside unquoted field at byte " + (base + pos));
+                    pos++;
+                }
+                fieldLength = pos - fieldStart;
+            }
+            if (pos >= end) return END;
+            byte b = data[pos];
+            if (b == ',') {
+                pos++;
+                return COMMA;
+            }
+            if (b == '\n') {
+                pos++;
+                return END;
+            }
+            if (b == '\r') {
+                pos += pos + 1 < end && data[pos + 1] == '\n' ? 2 : 1;
+                return END;
+            }
+            throw new IllegalArgumentException("Unexpected character after closing quote at byte " + (base + pos));
+        }
+
+        // 引号里有 ""：从 from 开始逐字节拷进 scratch，pos 停在闭合引号之后
+        private void unescape(int from, int end, long open) {
+            int n = 0;
+            for (pos = from; ; ) {
+                if (pos >= end) throw new IllegalArgumentException("Unterminated quoted field at byte " + open);
+                byte b = data[pos++];
+                if (b == '"') {
+                    if (pos < end && data[pos] == '"') pos++;
+                    else break;
+                }
+                if (n == scratch.length) scratch = Arrays.copyOf(scratch, n * 2);
+                scratch[n++] = b;
+            }
+            field = scratch;
+            fieldStart = 0;
+            fieldLength = n;
+        }
+
+        private void store(int c, int row) {
+            if (fieldLength == 0 && !fieldQuoted) {
+                batch.setNull(c, row);
+                return;
+            }
+            switch (types[c]) {
+                case INT: {
+                    long v = parseLong(c);
+                    if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw notNumber(c);
+                    batch.ints[c][row] = (int) v;
+                    break;
+                }
+                case LONG:
+                    batch.longs[c][row] = parseLong(c);
+                    break;
+                default:
+                    batch.ints[c][row] = dictionaries[c].code(field, fieldStart, fieldLength);
+                    break;
+            }
+        }
+
+        // 和 Long.parseLong 接受的一样：可选的 + / -，后面至少一位数字，不能溢出
+        private long parseLong(int c) {
+            byte[] f = field;
+            int i = fieldStart;
+            int end = fieldStart + fieldLength;
+            boolean negative = false;
+            if (f[i] == '-' || f[i] == '+') {
+                negative = f[i] == '-';
+                i++;
+            }
+            if (i == end) throw notNumber(c);
+            long n = 0;
+            for (; i < end; i++) {
+                int d = f[i] - '0';
+                if (d < 0 || d > 9) throw notNumber(c);
+                // 按负数累加，Long.MIN_VALUE 也能表示
+                if (n < (Long.MIN_VALUE + d) / 10) throw notNumber(c);
+                n = n * 10 - d;
+            }
+            if (!negative && n == Long.MIN_VALUE) throw notNumber(c);
+            return negative ? n : -n;
+        }
+
+        private IllegalArgumentException notNumber(int c) {
+            String type = types[c].name();
+            return new IllegalArgumentException("Not " + (types[c] == ColumnarTable.Type.INT ? "an " : "a ") + type + ": "
+                    + new String(field, fieldStart, fieldLength, StandardCharsets.UTF_8) + " before byte " + (base + pos));
+        }
+    }
+
+    /*
+    一块里 STRING 列的值 -> 编码：按字节哈希，开放寻址，同一个值只 new 一次 String
+    - 槽是 long：高 32 位 hash，低 32 位编码 + 1（0 表示空），探测时不用再去别的数组取 hash
+    - 每个编码的字节在 bytes 里，entries 是 offset << 32 | length，比较的时候一次取到
+    */
+    static class ByteDictionary {
+        private final List<String> strings;
+        private long[] slots = new long[1 << 10];
+        private long[] entries = new long[1 << 9];
+        private byte[] bytes = new byte[1 << 14];
+        private int used;
+
+        ByteDictionary(List<String> strings) {
+            this.strings = strings;
+        }
+
+        int code(byte[] value, int from, int length) {
+            int h = 0;
+            for (int i = from; i < from + length; i++) h = 31 * h + value[i];
+            h ^= h >>> 16;
+            int mask = slots.length - 1;
+            int slot = h & mask;
+            for (long s; (s = slots[slot]) != 0; slot = (slot + 1) & mask) {
+                if ((int) (s >>> 32) == h) {
+                    int code = (int) s - 1;
+                    long e = entries[code];
+                    int offset = (int) (e >>> 32);
+                    if ((int) e == length && Arrays.equals(bytes, offset, offset + length, value, from, from + length)) {
+                        return code;
+                    }
+                }
+            }
+            int code = strings.size();
+            if (code == entries.length) entries = Arrays.copyOf(entries, code * 2);
+            if (used + length > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + length));
+            System.arraycopy(value, from, bytes, used, length);
+            entries[code] = (long) used << 32 | length;
+            used += length;
+            strings.add(new String(value, from, length, StandardCharsets.UTF_8));
+            slots[slot] = (long) h << 32 | (code + 1);
+            if (strings.size() * 2 > slots.length) resize();
+            return code;
+        }
+
+        private void resize() {
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            int mask = slots.length - 1;
+            for (long s : old) {
+                if (s == 0) continue;
+                int slot = (int) (s >>> 32) & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = s;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = java.nio.file.Files.createTempDirectory("csvloader").toFile();
+
+        // 引号里的逗号、换行、""，\r\n 行尾，空行，null；块切得很小，保证边界会落在引号里面
+        File small = new File(dir, "small.csv");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(small, StandardCharsets.UTF_8))) {
+            out.write("title,author,price\r\n");
+            out.write("\"Harry Potter, Book 1\",J.K. Rowling,40\r\n");
+            out.write("\"The \"\"Hobbit\"\"\",J.R.R. Tolkien,30\n");
+            out.write("\n");
+            out.write("\"Lord of the\nRings\",\"\",\n");
+            out.write(",Tolkien,-7\n");
+            out.write("Café,Tolkien,2147483647");
+        }
+        List<String> columns = Arrays.asList("title", "author", "price");
+        List<ColumnarTable.Type> types = Arrays.asList(ColumnarTable.Type.STRING, ColumnarTable.Type.STRING,
+                ColumnarTable.Type.INT);
+        String[][] expected = {{"Harry Potter, Book 1", "J.K. Rowling", "40"}, {"The \"Hobbit\"", "J.R.R. Tolkien", "30"},
+                {"Lord of the\nRings", "", null}, {null, "Tolkien", "-7"}, {"Café", "Tolkien", "2147483647"}};
+        for (int chunk = 1; chunk <= 160; chunk++) {
+            ColumnarTable table = new ColumnarTable(columns, types);
+            ForkJoinPool pool = new ForkJoinPool(3);
+            load(small, table, true, chunk % 2 == 0 ? pool : null, chunk);
+            pool.shutdown();
+            if (table.size() != expected.length) throw new AssertionError("chunk " + chunk + ": " + table.size() + " rows");
+            for (int r = 0; r < expected.length; r++) {
+                for (int c = 0; c < columns.size(); c++) {
+                    String actual = table.get(r, columns.get(c));
+                    if (actual == null ? expected[r][c] != null : !actual.equals(expected[r][c])) {
+                        throw new AssertionError("chunk " + chunk + " row " + r + " " + columns.get(c) + ": " + actual);
+                    }
+                }
+            }
+        }
+        System.out.println("quoted / multi-line / CRLF / null fields: ok for chunk sizes 1..160");
+        InMemDB db = new InMemDB();
+        db.createTable("book", columns, types);
+        db.loadCsv("book", small, true, null);
+        System.out.println(db.select("book", new java.util.HashMap<>() {{
+            put("logic", "AND");
+            put("condition", "author,=,Tolkien");
+        }}, columns, Arrays.asList("price:asc")));
+
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        benchmark(new File(dir, "books.csv"), (long) megabytes << 20);
+        small.delete();
+        dir.delete();
+    }
+
+    // 同一个文件：readLine + split + ColumnarTable.insert vs CsvLoader（pool 并行度 1 到 4），MB/s；抽样比对结果
+    private static void benchmark(File csv, long bytes) throws IOException {
+        List<String> columns = Arrays.asList("id", "title", "author", "year", "price");
+        List<ColumnarTable.Type> types = Arrays.asList(ColumnarTable.Type.LONG, ColumnarTable.Type.STRING,
+                ColumnarTable.Type.STRING, ColumnarTable.Type.INT, ColumnarTable.Type.INT);
+        Random random = new Random(6);
+        // title 带引号和 ""，但不带逗号，split 也能切对字段个数（值里会多出引号，只比较速度）
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(csv), 1 << 16)) {
+            out.write("id,title,author,year,price\n");
+            for (long id = 0, written = 0; written < bytes; id++) {
+                String line = (1_000_000_000L + id) + ",\"The \"\"Book\"\" " + random.nextInt(100_000) + "\",author-"
+                        + random.nextInt(5000) + "," + (1850 + random.nextInt(175)) + "," + random.nextInt(10_000) + "\n";
+                out.write(line);
+                written += line.length();
+            }
+        }
+        double mb = csv.length() / (double) (1 << 20);
+        System.out.printf("%n%,.0f MB CSV, cpus=%d%n", mb, Runtime.getRuntime().availableProcessors());
+
+        long start = System.nanoTime();
+        ColumnarTable baseline = new ColumnarTable(columns, types);
+        try (BufferedReader in = new BufferedReader(new FileReader(csv), 1 << 16)) {
+            in.readLine();
+            String line;
+            while ((line = in.readLine()) != null) baseline.insert(columns, Arrays.asList(line.split(",")));
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("readLine + split + insert: %,d rows %,d ms %,.0f MB/s%n", baseline.size(), nanos / 1_000_000,
+                mb / (nanos / 1e9));
+        int rows = baseline.size();
+        int[] samples = new int[1000];
+        String[][] expected = new String[samples.length][];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextInt(rows);
+            expected[i] = new String[columns.size()];
+            for (int c = 0; c < columns.size(); c++) expected[i][c] = baseline.get(samples[i], columns.get(c));
+            String title = expected[i][1];
+            expected[i][1] = title.substring(1, title.length() - 1).replace("\"\"", "\"");
+        }
+        baseline = null;
+
+        for (int p = 1; p <= 4; p *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(p);
+            start = System.nanoTime();
+            ColumnarTable table = new ColumnarTable(columns, types);
+            int loaded = load(csv, table, true, pool);
+            nanos = System.nanoTime() - start;
+            pool.shutdown();
+            if (loaded != rows || table.size() != rows) throw new AssertionError("row count " + loaded + " vs " + rows);
+            for (int i = 0; i < samples.length; i++) {
+                for (int c = 0; c < columns.size(); c++) {
+                    if (!expected[i][c].equals(table.get(samples[i], columns.get(c)))) {
+                        throw new AssertionError("row " + samples[i] + " " + columns.get(c) + " differs");
+                    }
+                }
+            }
+            System.out.printf("CsvLoader p=%d: %,d rows %,d ms %,.0f MB/s%n", p, loaded, nanos / 1_000_000, mb / (nanos / 1e9));
+        }
+        if (!csv.delete()) throw new UncheckedIOException(new IOException("Cannot delete " + csv));
+    }
+}
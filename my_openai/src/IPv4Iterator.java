@@ -1,9 +1,13 @@
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  * IPv4 Address Iterator
@@ -12,6 +16,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * Part 2: Backward — 从起始 IP 递减到 0.0.0.0，reverse=true
  * Part 3: CIDR — 支持 "a.b.c.d/prefix"，只在 CIDR 范围内迭代
  * Part 4: Faster — step 步长、nextBatch 批量、CIDR 解析缓存
+ * Part 5: Primitive — nextInt / nextBatch(int[]) / nextBatch(IntBuffer) 不创建 String，
+ *         需要展示时再调用 format(int)；CIDR 集合运算见 CidrSet
+ * Part 6: Parallel — intSpliterator / intStream 按剩余范围对半切分，见 IPv4Spliterator
  */
 public class IPv4Iterator implements Iterator<String>, Iterable<String> {
 
@@ -106,6 +113,77 @@ public class IPv4Iterator implements Iterator<String>, Iterable<String> {
         return s;
     }
 
+    /**
+     * 返回下一个地址的 int 形式（无符号 32 位，0xFFFFFFFF 即 255.255.255.255），不分配对象。
+     */
+    public int nextInt() {
+        if (!hasNext()) {
+            throw new NoSuchElementException(reverse ? "Past range min" : "Past range max");
+        }
+        int ip = (int) current;
+        if (reverse) current -= step;
+        else current += step;
+        return ip;
+    }
+
+    /** 剩余地址个数 */
+    public long remaining() {
+        if (!hasNext()) return 0;
+        return (reverse ? current - rangeMin : rangeMax - current) / step + 1;
+    }
+
+    /**
+     * 把最多 len 个地址写入调用方提供的 dst[off..]，返回实际写入个数，0 表示已经结束。
+     * 循环里没有 hasNext 判断和对象分配，同一个数组可以反复使用。
+     * off / len 越界（包括 len < 0）时和 System.arraycopy 一样抛 IndexOutOfBoundsException，迭代器不动。
+     */
+    public int nextBatch(int[] dst, int off, int len) {
+        Objects.checkFromIndexSize(off, len, dst.length);
+        int n = (int) Math.min(len, remaining());
+        long ip = current;
+        long delta = reverse ? -step : step;
+        for (int i = 0; i < n; i++) {
+            dst[off + i] = (int) ip;
+            ip += delta;
+        }
+        current += delta * n;
+        return n;
+    }
+
+    public int nextBatch(int[] dst) {
+        return nextBatch(dst, 0, dst.length);
+    }
+
+    /** 写入 buf 的剩余空间，堆内 buffer 直接写底层数组 */
+    public int nextBatch(IntBuffer buf) {
+        if (buf.hasArray()) {
+            int n = nextBatch(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.position() + n);
+            return n;
+        }
+        int n = (int) Math.min(buf.remaining(), remaining());
+        for (int i = 0; i < n; i++) buf.put(nextInt());
+        return n;
+    }
+
+    /** 剩余地址（从当前位置开始）的 Spliterator，不会推进本迭代器 */
+    public IPv4Spliterator intSpliterator() {
+        return new IPv4Spliterator(current, remaining(), reverse ? -step : step);
+    }
+
+    public IntStream intStream(boolean parallel) {
+        return StreamSupport.intStream(intSpliterator(), parallel);
+    }
+
+    /** int 地址按需转为点分十进制 */
+    public static String format(int ip) {
+        return toStr(ip & MAX_IP);
+    }
+
+    public static int parseInt(String ip) {
+        return (int) parse(ip);
+    }
+
     /**
      * 批量返回最多 size 个 IP，减少调用次数，适合大批量处理。
      */
@@ -168,6 +246,55 @@ public class IPv4Iterator implements Iterator<String>, Iterable<String> {
         if (!b2.equals(List.of("192.168.1.2", "192.168.1.3"))) throw new AssertionError("Test 9 batch: " + b2);
         if (!it.nextBatch(5).isEmpty()) throw new AssertionError("Test 10 batch should be empty");
 
-        System.out.println("All 10 tests passed.");
+        // Part 5: primitive
+        IPv4Iterator p = new IPv4Iterator("172.16.0.7/29", true, 3);
+        int[] buf = new int[2];
+        if (p.nextBatch(buf) != 2 || !"172.16.0.4".equals(format(buf[1]))) throw new AssertionError("Test 11 int batch");
+        if (p.nextInt() != parseInt("172.16.0.1") || p.hasNext()) throw new AssertionError("Test 12 nextInt");
+        IntBuffer ib = IntBuffer.allocate(4);
+        if (new IPv4Iterator("255.255.255.254").nextBatch(ib) != 2 || !"255.255.255.255".equals(format(ib.get(1)))) {
+            throw new AssertionError("Test 13 IntBuffer");
+        }
+        IPv4Iterator bad = new IPv4Iterator("10.0.0.0/30");
+        for (int[] range : new int[][]{{0, -1}, {-1, 1}, {1, 2}}) {
+            try {
+                bad.nextBatch(buf, range[0], range[1]);
+                throw new AssertionError("Test 14 accepted off=" + range[0] + " len=" + range[1]);
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+        if (bad.nextInt() != parseInt("10.0.0.0")) throw new AssertionError("Test 14 iterator moved");
+
+        System.out.println("All 14 tests passed.");
+
+        benchmark(args.length > 0 ? args[0] : "10.0.0.0/8");
+    }
+
+    /** 同一个 CIDR 分别走 String 和 int[] 两条路径，统计每秒地址数 */
+    private static void benchmark(String cidr) {
+        long start = System.nanoTime();
+        long count = 0;
+        long checksum = 0;
+        IPv4Iterator it = new IPv4Iterator(cidr);
+        while (it.hasNext()) {
+            List<String> batch = it.nextBatch(1024);
+            for (String s : batch) checksum += s.length();
+            count += batch.size();
+        }
+        long stringNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        it = new IPv4Iterator(cidr);
+        int[] buf = new int[1024];
+        long intCount = 0;
+        int n;
+        while ((n = it.nextBatch(buf)) > 0) {
+            for (int i = 0; i < n; i++) checksum += buf[i] & 0xFF;
+            intCount += n;
+        }
+        long intNanos = System.nanoTime() - start;
+
+        System.out.printf("%s String: %,.0f addr/s, int[]: %,.0f addr/s (%d)%n",
+                cidr, count * 1e9 / stringNanos, intCount * 1e9 / intNanos, checksum & 1);
     }
 }
@@ -0,0 +1,120 @@
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * IPv4Iterator Part 6: Parallel — 把 [rangeMin, rangeMax] 按 step / reverse 表示成等差数列 first + i * delta，
+ * trySplit 直接把剩余个数对半切，O(1) 且两半大小精确，所以可以报告 SIZED | SUBSIZED，
+ * parallel IntStream / fork-join 能均匀地分到各个核上。地址用 int（无符号 32 位）表示。
+ */
+public class IPv4Spliterator implements Spliterator.OfInt {
+
+    private long first;
+    private long count;
+    private final long delta;
+
+    /** first 开始共 count 个地址，相邻地址相差 delta（reverse 时为负） */
+    public IPv4Spliterator(long first, long count, long delta) {
+        if (count < 0) throw new IllegalArgumentException("count must be >= 0");
+        this.first = first;
+        this.count = count;
+        this.delta = delta;
+    }
+
+    /** 与 new IPv4Iterator(startIp, reverse, step) 遍历相同的地址 */
+    public static IPv4Spliterator of(String startIp, boolean reverse, int step) {
+        return new IPv4Iterator(startIp, reverse, step).intSpliterator();
+    }
+
+    public static IntStream stream(String startIp, boolean reverse, int step, boolean parallel) {
+        return StreamSupport.intStream(of(startIp, reverse, step), parallel);
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+        if (count == 0) return false;
+        action.accept((int) first);
+        first += delta;
+        count--;
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(IntConsumer action) {
+        long ip = first;
+        for (long i = count; i > 0; i--) {
+            action.accept((int) ip);
+            ip += delta;
+        }
+        first = ip;
+        count = 0;
+    }
+
+    /** 前一半交给新的 spliterator，自己保留后一半，保持 ORDERED 语义 */
+    @Override
+    public IPv4Spliterator trySplit() {
+        if (count < 2) return null;
+        long half = count >>> 1;
+        IPv4Spliterator prefix = new IPv4Spliterator(first, half, delta);
+        first += half * delta;
+        count -= half;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return count;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // 与顺序迭代器结果一致
+        int[] expected = new int[256];
+        IPv4Iterator it = new IPv4Iterator("172.16.0.200/24", true, 3);
+        int n = it.nextBatch(expected);
+        int[] actual = stream("172.16.0.200/24", true, 3, true).toArray();
+        if (actual.length != n) throw new AssertionError("size " + actual.length + " != " + n);
+        for (int i = 0; i < n; i++) {
+            if (actual[i] != expected[i]) throw new AssertionError("order at " + i);
+        }
+        if (stream("255.255.255.250", false, 1, true).count() != 6) throw new AssertionError("tail of range");
+
+        IPv4Spliterator s = of("10.0.0.0/8", false, 1);
+        IPv4Spliterator prefix = s.trySplit();
+        if (prefix.estimateSize() != 1 << 23 || s.estimateSize() != 1 << 23) throw new AssertionError("even split");
+        System.out.println("IPv4Spliterator tests passed.");
+
+        String cidr = args.length > 0 ? args[0] : "10.0.0.0/8";
+        // CPU 密集的逐地址判断：几轮整数混洗
+        IntPredicate predicate = ip -> {
+            int h = ip;
+            for (int i = 0; i < 16; i++) {
+                h ^= h >>> 16;
+                h *= 0x7feb352d;
+                h ^= h >>> 15;
+            }
+            return (h & 1023) == 0;
+        };
+        long start = System.nanoTime();
+        long base = stream(cidr, false, 1, false).filter(predicate).count();
+        long seqNanos = System.nanoTime() - start;
+        System.out.printf("%s sequential: %d matches, %.0f ms%n", cidr, base, seqNanos / 1e6);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int p = 1; p <= Math.max(cores, 2); p *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(p);
+            start = System.nanoTime();
+            long matches = pool.submit(() -> stream(cidr, false, 1, true).filter(predicate).count()).get();
+            long nanos = System.nanoTime() - start;
+            pool.shutdown();
+            if (matches != base) throw new AssertionError("parallel count " + matches + " != " + base);
+            System.out.printf("%s parallel=%d: %.0f ms, speedup %.2fx%n", cidr, p, nanos / 1e6, (double) seqNanos / nanos);
+        }
+    }
+}
@@ -1,8 +1,19 @@
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 public class InMemDB {
 
@@ -40,15 +51,278 @@ public class InMemDB {
                 put("condition", "author,=,J.R.R. Tolkien#price,>,20");
             }
         }, Arrays.asList("price"), Arrays.asList("price:desc")).toArray()));
+
+        checkLiterals();
+        checkConcurrentRows();
+        benchmarkColumnar(args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000);
+        benchmarkTopK(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+        benchmarkCursor(args.length > 2 ? Integer.parseInt(args[2]) : 5_000_000);
+    }
+
+    // 整个表都命中、投影两列：select 物化 vs cursor 流式。第一行的延迟、总时间、消费期间堆上多出来的字节
+    private static void benchmarkCursor(int n) {
+        InMemDB db = new InMemDB();
+        List<String> columns = Arrays.asList("title", "author", "price");
+        String[] authors = new String[1000];
+        for (int i = 0; i < authors.length; i++)
+            authors[i] = "author-" + i;
+        String[] prices = new String[100];
+        for (int i = 0; i < prices.length; i++)
+            prices[i] = String.valueOf(i);
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++)
+            db.insert("book", columns, Arrays.asList("book-" + i, authors[random.nextInt(authors.length)],
+                    prices[random.nextInt(prices.length)]));
+        Map<String, String> conditions = new HashMap<>();
+        conditions.put("logic", "AND");
+        conditions.put("condition", "price,>,-1");
+        List<String> projection = Arrays.asList("title", "price");
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            List<Row> result = db.select("book", conditions, projection, null);
+            long firstRow = System.nanoTime() - start;
+            long sum = 0;
+            for (Row row : result)
+                sum += row.columnValue.size();
+            long selectNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Cursor cursor = db.cursor("book", conditions, projection, null);
+            cursor.hasNext();
+            long cursorFirst = System.nanoTime() - start;
+            for (Row row : cursor)
+                sum -= row.columnValue.size();
+            long cursorNanos = System.nanoTime() - start;
+            if (sum != 0)
+                throw new AssertionError("cursor and select disagree");
+            if (round == 1)
+                System.out.printf("%n%,d-row result: select first row %,.1f ms, all rows %,d ms; cursor first row %.3f ms, all rows %,d ms%n",
+                        result.size(), firstRow / 1e6, selectNanos / 1_000_000, cursorFirst / 1e6, cursorNanos / 1_000_000);
+        }
+
+        // 消费到一半时量一次堆：select 的结果还整个挂着，cursor 只有当前行
+        long base = usedHeap();
+        List<Row> result = db.select("book", conditions, projection, null);
+        long selectBytes = 0;
+        for (int i = 0; i < result.size(); i++) {
+            if (i == result.size() / 2)
+                selectBytes = usedHeap() - base;
+        }
+        result = null;
+        base = usedHeap();
+        long cursorBytes = 0;
+        int i = 0;
+        for (Row row : db.cursor("book", conditions, projection, null)) {
+            if (i++ == n / 2)
+                cursorBytes = usedHeap() - base;
+        }
+        System.out.printf("extra heap while consuming: select %,d MB, cursor %,d KB%n", selectBytes >> 20,
+                Math.max(0, cursorBytes) >> 10);
+    }
+
+    // 行存和列存各自：整个排序再取前 k vs LIMIT k，结果必须一样；各取 3 次里最快的
+    private static void benchmarkTopK(int n) {
+        List<String> columns = Arrays.asList("title", "author", "price");
+        InMemDB rowStore = new InMemDB();
+        InMemDB columnStore = new InMemDB();
+        columnStore.createTable("book", columns,
+                Arrays.asList(ColumnarTable.Type.STRING, ColumnarTable.Type.STRING, ColumnarTable.Type.INT));
+        Random random = new Random(3);
+        for (int i = 0; i < n; i++) {
+            List<String> values = Arrays.asList("book-" + random.nextInt(n), "author-" + random.nextInt(1000),
+                    String.valueOf(random.nextInt(100)));
+            rowStore.insert("book", columns, values);
+            columnStore.insert("book", columns, values);
+        }
+        Map<String, String> conditions = new HashMap<>();
+        conditions.put("logic", "AND");
+        conditions.put("condition", "price,>,20");
+        System.out.printf("%n%,d rows%n", n);
+        for (List<String> order : Arrays.asList(Arrays.asList("price:desc"), Arrays.asList("title:asc"))) {
+            for (InMemDB db : Arrays.asList(rowStore, columnStore)) {
+                String layout = db == rowStore ? "row-of-maps" : "columnar";
+                long sortNanos = Long.MAX_VALUE;
+                List<Row> sorted = null;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    sorted = db.select("book", conditions, null, order);
+                    sortNanos = Math.min(sortNanos, System.nanoTime() - start);
+                }
+                System.out.printf("%-11s WHERE %s ORDER BY %s (%,d rows): full sort %,d ms", layout,
+                        conditions.get("condition"), order, sorted.size(), sortNanos / 1_000_000);
+                for (int k : new int[]{10, 100, 1000}) {
+                    long heapNanos = Long.MAX_VALUE;
+                    for (int round = 0; round < 3; round++) {
+                        long start = System.nanoTime();
+                        List<Row> top = db.select("book", conditions, null, order, k);
+                        heapNanos = Math.min(heapNanos, System.nanoTime() - start);
+                        for (int i = 0; i < k; i++) {
+                            if (!top.get(i).columnValue.equals(sorted.get(i).columnValue))
+                                throw new AssertionError("LIMIT " + k + " differs from full sort");
+                        }
+                    }
+                    System.out.printf(", LIMIT %d %,d ms", k, heapNanos / 1_000_000);
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    // "+5"、"05"、"-0" 这种不规范的整数写法在 INT / LONG / STRING 列上和行存一样按字符串比较
+    private static void checkLiterals() {
+        List<String> columns = Arrays.asList("x");
+        InMemDB rowStore = new InMemDB();
+        List<ColumnarTable> tables = new ArrayList<>();
+        for (ColumnarTable.Type type : ColumnarTable.Type.values()) {
+            ColumnarTable table = new ColumnarTable(columns, Arrays.asList(type));
+            for (String v : new String[]{"-7", "0", "4", "5", "6", "40"}) {
+                table.insert(columns, Arrays.asList(v));
+                if (type == ColumnarTable.Type.INT) rowStore.insert("t", columns, Arrays.asList(v));
+            }
+            tables.add(table);
+        }
+        for (String literal : new String[]{"+5", "05", "-0", "5", "-7"}) {
+            for (String op : new String[]{"=", ">", "<"}) {
+                String condition = "x," + op + "," + literal;
+                int expected = 0;
+                for (Row row : rowStore.tables.get("t").rows)
+                    if (rowStore.where(row, "AND", condition))
+                        expected++;
+                for (ColumnarTable table : tables) {
+                    int got = table.where("AND", condition).length;
+                    if (got != expected)
+                        throw new AssertionError(condition + " on " + table.columnTypes() + ": " + got + " vs " + expected);
+                }
+            }
+        }
+        // 末尾是 null 行：第 17 行缺 x，正好落在值数组初始容量之外
+        for (ColumnarTable.Type type : ColumnarTable.Type.values()) {
+            ColumnarTable table = new ColumnarTable(columns, Arrays.asList(type));
+            for (int i = 0; i < 16; i++) table.insert(columns, Arrays.asList("1"));
+            table.insert(Arrays.asList(), Arrays.asList());
+            for (String condition : new String[]{"x,>,0", "x,=,1", "x,<,2"}) {
+                int got = table.where("AND", condition).length;
+                if (got != 16)
+                    throw new AssertionError(condition + " with trailing null on " + type + ": " + got + " vs 16");
+            }
+        }
+    }
+
+    // 两个写线程往行存表 insert，读线程同时 select / cursor：看到的行数只增不减，每一行三列都在
+    private static void checkConcurrentRows() {
+        InMemDB db = new InMemDB();
+        List<String> columns = Arrays.asList("title", "author", "price");
+        db.insert("book", columns, Arrays.asList("book-0", "author-0", "0"));
+        int perWriter = 50_000;
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            int id = w;
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < perWriter; i++)
+                    db.insert("book", columns, Arrays.asList("book-" + id + "-" + i, "author-" + id, String.valueOf(i % 100)));
+            }));
+        }
+        writers.forEach(Thread::start);
+        Map<String, String> conditions = new HashMap<>();
+        conditions.put("logic", "AND");
+        conditions.put("condition", "price,>,-1");
+        int last = 0;
+        while (writers.stream().anyMatch(Thread::isAlive) || last < 2 * perWriter + 1) {
+            List<Row> rows = db.select("book", conditions, null, null);
+            int streamed = 0;
+            for (Row row : db.cursor("book", conditions, null, null)) {
+                if (row.columnValue.size() != 3)
+                    throw new AssertionError("partially published row " + row);
+                streamed++;
+            }
+            if (rows.size() < last || streamed < rows.size())
+                throw new AssertionError("row count went back: " + last + " -> " + rows.size() + " / " + streamed);
+            last = rows.size();
+        }
+        for (Thread writer : writers) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // 同样的数据分别放进行存和列存：GC 之后的堆增量 / 行，以及纯过滤吞吐
+    private static void benchmarkColumnar(int n) {
+        List<String> columns = Arrays.asList("title", "author", "price");
+        String[] authors = new String[1000];
+        for (int i = 0; i < authors.length; i++)
+            authors[i] = "author-" + i;
+        Random random = new Random(1);
+        List<List<String>> data = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            data.add(Arrays.asList("book-" + i, authors[random.nextInt(authors.length)],
+                    String.valueOf(random.nextInt(100))));
+
+        long base = usedHeap();
+        InMemDB rowStore = new InMemDB();
+        for (List<String> values : data)
+            rowStore.insert("book", columns, values);
+        long rowBytes = usedHeap() - base;
+
+        base = usedHeap();
+        InMemDB columnStore = new InMemDB();
+        columnStore.createTable("book", columns,
+                Arrays.asList(ColumnarTable.Type.STRING, ColumnarTable.Type.STRING, ColumnarTable.Type.INT));
+        for (List<String> values : data)
+            columnStore.insert("book", columns, values);
+        long columnBytes = usedHeap() - base;
+        // 标题字符串两边共享 data 里的同一批对象，两边的增量里都没有，各自加上
+        long titleBytes = 0;
+        for (List<String> values : data)
+            titleBytes += 40 + values.get(0).length();
+        System.out.printf("%n%,d rows: row-of-maps %.0f bytes/row, columnar %.0f bytes/row%n", n,
+                (double) (rowBytes + titleBytes) / n, (double) (columnBytes + titleBytes) / n);
+
+        List<Row> rows = rowStore.tables.get("book").rows;
+        ColumnarTable table = columnStore.columnarTables.get("book");
+        String[][] queries = {{"AND", "author,=,author-7#price,>,20"}, {"AND", "price,>,50"},
+                {"OR", "price,<,5#author,=,author-3"}, {"AND", "price,>,20#price,<,40#title,>,book-5"}};
+        for (String[] q : queries) {
+            long rowNanos = Long.MAX_VALUE;
+            long columnNanos = Long.MAX_VALUE;
+            int rowCount = 0;
+            int columnCount = 0;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                rowCount = 0;
+                for (Row row : rows)
+                    if (rowStore.where(row, q[0], q[1]))
+                        rowCount++;
+                rowNanos = Math.min(rowNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                columnCount = table.where(q[0], q[1]).length;
+                columnNanos = Math.min(columnNanos, System.nanoTime() - start);
+            }
+            if (rowCount != columnCount)
+                throw new AssertionError(q[1] + ": " + rowCount + " vs " + columnCount);
+            System.out.printf("%-3s %-40s %,8d rows  row-of-maps %,12.0f rows/s  columnar %,14.0f rows/s%n", q[0], q[1],
+                    rowCount, n * 1e9 / rowNanos, n * 1e9 / columnNanos);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
     }
 
     class Table {
         String tableName;
-        List<Row> rows;
+        RowStore<Row> rows;
 
         public Table(String tableName) {
             this.tableName = tableName;
-            this.rows = new ArrayList<>();
+            this.rows = new RowStore<>();
         }
     }
 
@@ -66,24 +340,46 @@ public class InMemDB {
         }
     }
 
-    Map<String, Table> tables = new HashMap<>();
+    /*
+    并发：行存表写串行、读不加锁，和 openai/src/InMemoryDB 一样
+    - insert / createTable 是 synchronized 的；一行的 map 填好之后才追加进 RowStore 发布
+    - select / cursor 开始时取一次 rows.snapshot()，只看那一刻已经发布的行，查询中途插入的行不可见
+    - 列存表（ColumnarTable）只支持单线程：写入（insert / loadCsv）的时候不能有别的线程在查这张表
+    */
+    Map<String, Table> tables = new ConcurrentHashMap<>();
+    // 条件文本 -> 编译好的 Predicate
+    CompiledCondition prepared = new CompiledCondition();
+    // 用 createTable 声明了类型的表走列存
+    Map<String, ColumnarTable> columnarTables = new ConcurrentHashMap<>();
+
+    public synchronized void createTable(String tableName, List<String> columns, List<ColumnarTable.Type> types) {
+        columnarTables.putIfAbsent(tableName, new ColumnarTable(columns, types));
+    }
+
+    // CSV 追加到 createTable 建好的列存表，列的顺序和表一样；返回读到的行数，见 CsvLoader
+    public int loadCsv(String tableName, File file, boolean header, ForkJoinPool pool) throws IOException {
+        ColumnarTable table = columnarTables.get(tableName);
+        if (table == null) throw new IllegalArgumentException("No columnar table " + tableName);
+        return CsvLoader.load(file, table, header, pool);
+    }
 
     public List<Row> select(String tableName, Map<String, String> conditions, List<String> columns,
             List<String> order) {
+        if (columnarTables.containsKey(tableName))
+            return selectColumnar(columnarTables.get(tableName), conditions, columns, order);
         if (!tables.containsKey(tableName))
             return null;
-        List<Row> rows = tables.get(tableName).rows;
+        List<Row> rows = tables.get(tableName).rows.snapshot();
         List<Row> result = new ArrayList<>();
         if (conditions.size() > 0) {
-            String logic = conditions.get("logic");
-            String condition = conditions.get("condition");
+            Predicate<Map<String, String>> where = prepared.prepare(conditions.get("logic"), conditions.get("condition"));
             for (Row row : rows) {
-                if (where(row, logic, condition)) {
+                if (where.test(row.columnValue)) {
                     result.add(row);
                 }
             }
         } else {
-            result = rows;
+            result = new ArrayList<>(rows);
         }
 
         if (order != null) {
@@ -106,16 +402,49 @@ public class InMemDB {
         return result;
     }
 
+    // 列存上过滤，只把命中的行拼成 Row，之后排序、投影和行存一样
+    private List<Row> selectColumnar(ColumnarTable table, Map<String, String> conditions, List<String> columns,
+            List<String> order) {
+        int[] selected = conditions.size() > 0
+                ? table.where(conditions.get("logic"), conditions.get("condition"))
+                : table.where("AND", null);
+        List<String> names = table.columnNames();
+        List<Row> result = new ArrayList<>(selected.length);
+        for (int r : selected) {
+            Row row = new Row();
+            for (String name : names) {
+                String value = table.get(r, name);
+                if (value != null)
+                    row.columnValue.put(name, value);
+            }
+            result.add(row);
+        }
+        if (order != null) {
+            order(result, order);
+        }
+        if (columns != null) {
+            for (Row row : result) {
+                row.columnValue.keySet().retainAll(columns);
+            }
+        }
+        return result;
+    }
+
     private void order(List<Row> result, List<String> orders) {
-        result.sort((a, b) -> {
+        result.sort(comparator(orders, (row, column) -> row.columnValue.get(column)));
+    }
+
+    // value 取某一行某一列的值，行存（Row）和列存（行号）共用同一套比较
+    private <T> Comparator<T> comparator(List<String> orders, BiFunction<T, String, String> value) {
+        return (a, b) -> {
             for (String orderSpec : orders) {
                 // 支持 "column:direction" 格式 (例如: "price:asc" 或 "price:desc")
                 String[] parts = orderSpec.split(":");
                 String column = parts[0];
                 boolean asc = parts.length == 1 || parts[1].equals("asc");  // 默认升序
                 
-                String vA = a.columnValue.get(column);
-                String vB = b.columnValue.get(column);
+                String vA = value.apply(a, column);
+                String vB = value.apply(b, column);
                 
                 // 先判断类型，使用正确的比较方式
                 int res;
@@ -134,7 +463,238 @@ public class InMemDB {
                     return res;
             }
             return 0;
-        });
+        };
+    }
+
+    /*
+    LIMIT k：扫描时只留一个大小为 k 的堆，堆顶是目前留下的最差的一行
+    - 新行比堆顶好才换进去，O(n log k) 时间、O(k) 内存，只有最后的 k 行做投影
+    - 堆里存行号（行存是 rows 的下标，列存是 ColumnarTable 的行号），比较器最后按行号比，
+      和整个稳定排序再取前 k 行结果一样；列存只把最后的 k 行拼成 Row
+    - 没有 order 时就是前 k 个命中的行，行存扫到 k 行就停
+    */
+    public List<Row> select(String tableName, Map<String, String> conditions, List<String> columns,
+            List<String> order, int limit) {
+        if (limit < 0)
+            return select(tableName, conditions, columns, order);
+        if (columnarTables.containsKey(tableName))
+            return selectColumnar(columnarTables.get(tableName), conditions, columns, order, limit);
+        if (!tables.containsKey(tableName))
+            return null;
+        List<Row> rows = tables.get(tableName).rows.snapshot();
+        Predicate<Map<String, String>> where = conditions.size() > 0
+                ? prepared.prepare(conditions.get("logic"), conditions.get("condition"))
+                : row -> true;
+        List<Row> result = new ArrayList<>();
+        if (order == null) {
+            for (int i = 0; i < rows.size() && result.size() < limit; i++) {
+                if (where.test(rows.get(i).columnValue))
+                    result.add(rows.get(i));
+            }
+        } else {
+            Comparator<Integer> byRow = comparator(order, (i, column) -> rows.get(i).columnValue.get(column));
+            TopK<Integer> top = new TopK<>(limit, byRow.thenComparing(Comparator.naturalOrder()));
+            for (int i = 0; i < rows.size(); i++) {
+                if (where.test(rows.get(i).columnValue))
+                    top.offer(i);
+            }
+            for (int i : top.sorted())
+                result.add(rows.get(i));
+        }
+        if (columns != null) {
+            List<Row> newRes = new ArrayList<>();
+            for (Row row : result) {
+                Row nR = new Row();
+                for (String column : row.columnValue.keySet()) {
+                    if (columns.contains(column)) {
+                        nR.columnValue.put(column, row.columnValue.get(column));
+                    }
+                }
+                newRes.add(nR);
+            }
+            return newRes;
+        }
+        return result;
+    }
+
+    private List<Row> selectColumnar(ColumnarTable table, Map<String, String> conditions, List<String> columns,
+            List<String> order, int limit) {
+        int[] selected = conditions.size() > 0
+                ? table.where(conditions.get("logic"), conditions.get("condition"))
+                : table.where("AND", null);
+        List<Integer> ids = new ArrayList<>();
+        if (order == null) {
+            for (int i = 0; i < selected.length && i < limit; i++)
+                ids.add(selected[i]);
+        } else {
+            Comparator<Integer> byRow = comparator(order, table::get);
+            TopK<Integer> top = new TopK<>(limit, byRow.thenComparing(Comparator.naturalOrder()));
+            for (int r : selected)
+                top.offer(r);
+            ids = top.sorted();
+        }
+        List<String> names = table.columnNames();
+        List<Row> result = new ArrayList<>(ids.size());
+        for (int r : ids) {
+            Row row = new Row();
+            for (String name : names) {
+                String value = table.get(r, name);
+                if (value != null && (columns == null || columns.contains(name)))
+                    row.columnValue.put(name, value);
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    /*
+    流式 select：返回一个游标，调用方每 next() 一次才过滤到下一个命中行并投影
+    - 没有中间 List，过滤和投影在同一趟里做；第一行不用等全表扫完
+    - 不投影（columns == null）时直接返回表里的 Row，不复制；投影时每行新建一个只含这些列的小 Row，
+      用完就是垃圾，不会像 select 那样整个结果集常驻
+    - 有 order 时必须先看完所有命中行：只收集命中的行号排好序，投影照样是逐行的
+    - 列存表：where 先给出命中的行号数组，Row 在 next() 时才拼
+    - 行存表的游标建在 rows.snapshot() 上，游标期间别的线程 insert 的行看不到；列存表游标期间不要 insert
+    */
+    public Cursor cursor(String tableName, Map<String, String> conditions, List<String> columns,
+            List<String> order) {
+        if (columnarTables.containsKey(tableName)) {
+            ColumnarTable table = columnarTables.get(tableName);
+            int[] selected = conditions.size() > 0
+                    ? table.where(conditions.get("logic"), conditions.get("condition"))
+                    : table.where("AND", null);
+            if (order != null) {
+                Integer[] ids = new Integer[selected.length];
+                for (int i = 0; i < ids.length; i++)
+                    ids[i] = selected[i];
+                Arrays.sort(ids, comparator(order, table::get));
+                for (int i = 0; i < ids.length; i++)
+                    selected[i] = ids[i];
+            }
+            return new Cursor(null, null, table, selected, columns);
+        }
+        if (!tables.containsKey(tableName))
+            return null;
+        List<Row> rows = tables.get(tableName).rows.snapshot();
+        Predicate<Map<String, String>> where = conditions.size() > 0
+                ? prepared.prepare(conditions.get("logic"), conditions.get("condition"))
+                : row -> true;
+        if (order == null)
+            return new Cursor(rows, where, null, null, columns);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (where.test(rows.get(i).columnValue))
+                ids.add(i);
+        }
+        ids.sort(comparator(order, (i, column) -> rows.get(i).columnValue.get(column)));
+        int[] selected = new int[ids.size()];
+        for (int i = 0; i < selected.length; i++)
+            selected[i] = ids.get(i);
+        return new Cursor(rows, null, null, selected, columns);
+    }
+
+    class Cursor implements Iterator<Row>, Iterable<Row> {
+        private final List<Row> rows;
+        private final Predicate<Map<String, String>> where;  // 非 null 时边扫边过滤
+        private final ColumnarTable table;
+        private final int[] selected;  // 已经确定的行号（有 order 或者列存）
+        private final List<String> columns;
+        private int position;
+        private Row next;
+
+        Cursor(List<Row> rows, Predicate<Map<String, String>> where, ColumnarTable table, int[] selected,
+                List<String> columns) {
+            this.rows = rows;
+            this.where = where;
+            this.table = table;
+            this.selected = selected;
+            this.columns = columns;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null)
+                return true;
+            if (where != null) {
+                while (position < rows.size()) {
+                    Row row = rows.get(position++);
+                    if (where.test(row.columnValue)) {
+                        next = project(row);
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (position == selected.length)
+                return false;
+            int id = selected[position++];
+            next = table != null ? materialize(id) : project(rows.get(id));
+            return true;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Row row = next;
+            next = null;
+            return row;
+        }
+
+        @Override
+        public Iterator<Row> iterator() {
+            return this;
+        }
+
+        private Row project(Row row) {
+            if (columns == null)
+                return row;
+            Row nR = new Row();
+            for (String column : columns) {
+                String value = row.columnValue.get(column);
+                if (value != null)
+                    nR.columnValue.put(column, value);
+            }
+            return nR;
+        }
+
+        private Row materialize(int id) {
+            Row row = new Row();
+            for (String name : columns != null ? columns : table.columnNames()) {
+                String value = table.get(id, name);
+                if (value != null)
+                    row.columnValue.put(name, value);
+            }
+            return row;
+        }
+    }
+
+    static class TopK<T> {
+        final int k;
+        final Comparator<T> comparator;
+        final PriorityQueue<T> heap;
+
+        TopK(int k, Comparator<T> comparator) {
+            this.k = k;
+            this.comparator = comparator;
+            this.heap = new PriorityQueue<>(Math.min(Math.max(k, 1), 1 << 16), comparator.reversed());
+        }
+
+        void offer(T t) {
+            if (heap.size() < k) {
+                heap.add(t);
+            } else if (k > 0 && comparator.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+
+        // 从好到差
+        List<T> sorted() {
+            List<T> out = new ArrayList<>(heap);
+            out.sort(comparator);
+            return out;
+        }
     }
 
     private boolean isNumeric(String s) {
@@ -143,7 +703,7 @@ public class InMemDB {
         return s.matches("-?\\d+");  // FIX #5: 使用正则，可选负号+数字
     }
 
-    private boolean where(Row row, String logic, String condition) {
+    boolean where(Row row, String logic, String condition) {
         if (condition == null)
             return true;
 
@@ -162,7 +722,8 @@ public class InMemDB {
                 return true;
             }
         }
-        return true;
+        // AND 全部满足；OR 一个都没满足
+        return logic.equals("AND");
     }
 
     public boolean compare(Row row, String column, String op, String value) {
@@ -186,9 +747,13 @@ public class InMemDB {
         }
     }
 
-    public void insert(String tableName, List<String> columns, List<String> values) {
+    public synchronized void insert(String tableName, List<String> columns, List<String> values) {
+        if (columnarTables.containsKey(tableName)) {
+            columnarTables.get(tableName).insert(columns, values);
+            return;
+        }
         tables.putIfAbsent(tableName, new Table(tableName));  // FIX #1: 只在不存在时创建
-        List<Row> rows = tables.get(tableName).rows;
+        RowStore<Row> rows = tables.get(tableName).rows;
         Row row = new Row();
         for (int i = 0; i < columns.size(); i++) {
             row.columnValue.put(columns.get(i), values.get(i));
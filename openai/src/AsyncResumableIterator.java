@@ -0,0 +1,12 @@
+import java.util.concurrent.CompletableFuture;
+
+// AsyncResumableIterator 用协程方式模拟异步（使用 CompletableFuture）
+abstract class AsyncResumableIterator<T> {
+    public abstract CompletableFuture<Boolean> hasNextAsync();
+
+    public abstract CompletableFuture<T> nextAsync();
+
+    public abstract State getState();
+
+    public abstract void setState(State state);
+}
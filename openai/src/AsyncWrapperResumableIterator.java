@@ -0,0 +1,33 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// 将 ResumableIterator 封装为异步版本
+class AsyncWrapperResumableIterator<T> extends AsyncResumableIterator<T> {
+    private final ResumableIterator<T> delegate;
+    private final Executor executor;
+
+    public AsyncWrapperResumableIterator(ResumableIterator<T> delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hasNextAsync() {
+        return CompletableFuture.supplyAsync(delegate::hasNext, executor);
+    }
+
+    @Override
+    public CompletableFuture<T> nextAsync() {
+        return CompletableFuture.supplyAsync(delegate::next, executor);
+    }
+
+    @Override
+    public State getState() {
+        return delegate.getState();
+    }
+
+    @Override
+    public void setState(State state) {
+        delegate.setState(state);
+    }
+}
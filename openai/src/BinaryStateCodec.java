@@ -0,0 +1,139 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class BinaryStateCodec implements StateCodec {
+
+    interface Writer<S extends State> {
+        void write(S state, Output out);
+    }
+
+    interface Reader {
+        State read(Input in);
+    }
+
+    private final Map<Class<?>, Integer> tags = new HashMap<>();
+    private final Map<Class<?>, Writer<State>> writers = new HashMap<>();
+    private final Map<Integer, Reader> readers = new HashMap<>();
+
+    // 自带 List / Multi / TwoD 三种迭代器的状态
+    public BinaryStateCodec() {
+        register(1, ListResumableIterator.ListState.class,
+                (s, out) -> out.writeVarLong(s.getIndex()),
+                in -> new ListResumableIterator.ListState((int) in.readVarLong()));
+        register(2, MultiResumableIterator.MultiState.class,
+                (s, out) -> {
+                    out.writeVarLong(s.getIteratorIndex());
+                    writeState(s.getInnerState(), out);
+                },
+                in -> new MultiResumableIterator.MultiState((int) in.readVarLong(), readState(in)));
+        register(3, TwoDResumableIterator.TwoDState.class,
+                (s, out) -> {
+                    out.writeVarLong(s.getOuter());
+                    out.writeVarLong(s.getInner());
+                },
+                in -> new TwoDResumableIterator.TwoDState((int) in.readVarLong(), (int) in.readVarLong()));
+        register(4, ResumableFileIterator.FileState.class,
+                (s, out) -> {
+                    out.writeVarLong(s.getOffset());
+                    out.writeVarLong(s.getLineNumber());
+                },
+                in -> new ResumableFileIterator.FileState(in.readVarLong(), in.readVarLong()));
+        register(5, ParallelMultiResumableIterator.VectorState.class,
+                (s, out) -> {
+                    out.writeVarLong(s.getStates().length);
+                    for (State child : s.getStates()) writeState(child, out);
+                },
+                in -> {
+                    State[] states = new State[(int) in.readVarLong()];
+                    for (int i = 0; i < states.length; i++) states[i] = readState(in);
+                    return new ParallelMultiResumableIterator.VectorState(states);
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    public <S extends State> void register(int tag, Class<S> type, Writer<S> writer, Reader reader) {
+        if (tag <= 0) throw new IllegalArgumentException("tag 0 is reserved for null");
+        if (readers.containsKey(tag)) throw new IllegalArgumentException("Duplicate tag " + tag);
+        tags.put(type, tag);
+        writers.put(type, (Writer<State>) writer);
+        readers.put(tag, reader);
+    }
+
+    @Override
+    public byte[] encode(State state) {
+        Output out = new Output();
+        writeState(state, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public State decode(byte[] data) {
+        Input in = new Input(data);
+        State state = readState(in);
+        if (!in.atEnd()) throw new IllegalArgumentException("Trailing bytes after state");
+        return state;
+    }
+
+    void writeState(State state, Output out) {
+        if (state == null) {
+            out.writeVarLong(0);
+            return;
+        }
+        Integer tag = tags.get(state.getClass());
+        if (tag == null) throw new IllegalArgumentException("No codec for " + state.getClass().getName());
+        out.writeVarLong(tag);
+        writers.get(state.getClass()).write(state, out);
+    }
+
+    State readState(Input in) {
+        int tag = (int) in.readVarLong();
+        if (tag == 0) return null;
+        Reader reader = readers.get(tag);
+        if (reader == null) throw new IllegalArgumentException("Unknown state tag " + tag);
+        return reader.read(in);
+    }
+
+    static class Output {
+        private byte[] buf = new byte[16];
+        private int pos;
+
+        // 每字节 7 位，最高位 1 表示后面还有
+        void writeVarLong(long v) {
+            if (pos + 10 > buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= buf.length) throw new IllegalArgumentException("Truncated state");
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        boolean atEnd() {
+            return pos == buf.length;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+follow up：定期把状态存盘
+- 每 everyRecords 条或者每 everyMillis 毫秒存一次，next() 里只有一次计数比较，
+  时间每 256 条才看一次 System.nanoTime()
+- 写法：编码 -> 写临时文件并 fsync -> ATOMIC_MOVE 覆盖正式文件，崩溃时要么是旧 checkpoint 要么是新的，不会读到半个
+- 状态只在 checkpoint 时 getState() 一次，编码用 StateCodec（默认 BinaryStateCodec）
+- 传了 writer executor 时 fsync 放到后台：next() 里只编码（约 1us），写盘还没完成时只保留最新的一份，
+  旧的直接丢掉，所以磁盘慢也不会堆积
+- 后台写盘失败时记下异常，下一次 checkpoint() 或 close() 抛出来；失败的那份只在 pending 还是它时清掉，
+  期间又来了更新的一份就接着写新的，之后的 checkpoint 照样会提交
+*/
+public class CheckpointingResumableIterator<T> implements ResumableIterator<T> {
+    private final ResumableIterator<T> delegate;
+    private final StateCodec codec;
+    private final Path file;
+    private final Path tmp;
+    private final long everyRecords;
+    private final long everyNanos;
+    private final Executor writer;
+    // 等待后台写盘的最新 checkpoint，null 表示没有
+    private final AtomicReference<byte[]> pending = new AtomicReference<>();
+    // 后台写盘失败的异常，还没报给调用方
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    private long sinceCheckpoint;
+    private long deadline;
+    private long checkpoints;
+
+    public CheckpointingResumableIterator(ResumableIterator<T> delegate, StateCodec codec, Path file,
+                                          long everyRecords, long everyMillis) {
+        this(delegate, codec, file, everyRecords, everyMillis, null);
+    }
+
+    // writer 为 null 时在 next() 的线程里同步写盘
+    public CheckpointingResumableIterator(ResumableIterator<T> delegate, StateCodec codec, Path file,
+                                          long everyRecords, long everyMillis, Executor writer) {
+        this.delegate = delegate;
+        this.codec = codec;
+        this.file = file;
+        this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.everyRecords = everyRecords;
+        this.everyNanos = everyMillis * 1_000_000L;
+        this.deadline = System.nanoTime() + everyNanos;
+        this.writer = writer;
+    }
+
+    // 读上一次的 checkpoint，没有就返回 null
+    public static State load(Path file, StateCodec codec) {
+        if (!Files.exists(file)) return null;
+        try {
+            return codec.decode(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 有 checkpoint 就从那里继续，返回是否恢复了
+    public boolean resume() {
+        State state = load(file, codec);
+        if (state == null) return false;
+        delegate.setState(state);
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return delegate.hasNext();
+    }
+
+    @Override
+    public T next() {
+        T item = delegate.next();
+        long n = ++sinceCheckpoint;
+        // 用差值比较，nanoTime 或者 deadline 溢出也对
+        if (n >= everyRecords || ((n & 255) == 0 && System.nanoTime() - deadline >= 0)) {
+            checkpoint();
+        }
+        return item;
+    }
+
+    public void checkpoint() {
+        rethrowFailure();
+        byte[] data = codec.encode(delegate.getState());
+        if (writer == null) {
+            write(data);
+        } else if (pending.getAndSet(data) == null) {
+            // 没有正在进行的写盘任务才提交，否则后台任务会接着写这份最新的
+            writer.execute(this::drain);
+        }
+        sinceCheckpoint = 0;
+        deadline = System.nanoTime() + everyNanos;
+        checkpoints++;
+    }
+
+    private void drain() {
+        byte[] data = pending.get();
+        while (data != null) {
+            try {
+                write(data);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+            if (pending.compareAndSet(data, null)) return;
+            data = pending.get();
+        }
+    }
+
+    private void rethrowFailure() {
+        RuntimeException e = failure.getAndSet(null);
+        if (e != null) throw e;
+    }
+
+    // 等后台写盘做完，有失败就抛出来；不会再存一次盘
+    public void close() {
+        while (pending.get() != null) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for checkpoint", e);
+            }
+        }
+        rethrowFailure();
+    }
+
+    private void write(byte[] data) {
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+                out.write(data);
+                out.getFD().sync();
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long checkpointCount() {
+        return checkpoints;
+    }
+
+    @Override
+    public State getState() {
+        return delegate.getState();
+    }
+
+    @Override
+    public void setState(State state) {
+        delegate.setState(state);
+    }
+
+    // 3 层：MultiResumableIterator(MultiResumableIterator(ListResumableIterator))
+    private static ResumableIterator<Integer> nested(int fanout, int leafSize) {
+        List<ResumableIterator<Integer>> outer = new ArrayList<>();
+        int v = 0;
+        for (int i = 0; i < fanout; i++) {
+            List<ResumableIterator<Integer>> middle = new ArrayList<>();
+            for (int j = 0; j < fanout; j++) {
+                List<Integer> leaf = new ArrayList<>();
+                for (int k = 0; k < leafSize; k++) leaf.add(v++);
+                middle.add(new ListResumableIterator<>(leaf));
+            }
+            outer.add(new MultiResumableIterator<>(middle));
+        }
+        return new MultiResumableIterator<>(outer);
+    }
+
+    private static byte[] javaSerialize(State state) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(state);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        StateCodec codec = new BinaryStateCodec();
+        int fanout = 20;
+        int leafSize = 5_000;
+        int total = fanout * fanout * leafSize;
+
+        // 编码大小 / 速度
+        ResumableIterator<Integer> it = nested(fanout, leafSize);
+        for (int i = 0; i < total / 2 + 12_345; i++) it.next();
+        State state = it.getState();
+        byte[] binary = codec.encode(state);
+        byte[] java = javaSerialize(state);
+        int rounds = 200_000;
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < rounds; i++) bytes += codec.decode(codec.encode(state)) == null ? 0 : binary.length;
+        long binaryNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds / 10; i++) bytes += javaSerialize(state).length;
+        long javaNanos = (System.nanoTime() - start) * 10;
+        System.out.printf("3-level state: binary %d bytes (%,.0f encode+decode/s), Serializable %d bytes (%,.0f encode/s) [%d]%n",
+                binary.length, rounds * 1e9 / binaryNanos, java.length, rounds * 1e9 / javaNanos, bytes & 1);
+
+        // 恢复后继续
+        ResumableIterator<Integer> restored = nested(fanout, leafSize);
+        restored.setState(codec.decode(binary));
+        if (restored.next() != total / 2 + 12_345) throw new AssertionError("decoded state resumes elsewhere");
+
+        // 迭代开销：不存盘 vs 每 50000 条 / 100ms 存盘
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path file = dir.resolve("state.bin");
+        ExecutorService background = Executors.newSingleThreadExecutor();
+        it = nested(fanout, leafSize);
+        CheckpointingResumableIterator<Integer> cp =
+                new CheckpointingResumableIterator<>(nested(fanout, leafSize), codec, file, 50_000, 100);
+        CheckpointingResumableIterator<Integer> async =
+                new CheckpointingResumableIterator<>(nested(fanout, leafSize), codec, file, 50_000, 100, background);
+        start = System.nanoTime();
+        long sum = 0;
+        while (it.hasNext()) sum += it.next();
+        long plainNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        while (cp.hasNext()) sum -= cp.next();
+        long checkpointNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        while (async.hasNext()) sum += async.next();
+        long asyncNanos = System.nanoTime() - start;
+        background.shutdown();
+        // 后台任务写完才能拿同一个文件做下面的崩溃测试
+        if (!background.awaitTermination(1, TimeUnit.MINUTES)) throw new AssertionError("background writer still running");
+        if (sum != (long) total * (total - 1) / 2) throw new AssertionError("different elements");
+        System.out.printf("iterate plain: %,.0f rec/s, sync checkpoints: %,.0f rec/s (%d), background checkpoints: %,.0f rec/s (%d)%n",
+                total * 1e9 / plainNanos, total * 1e9 / checkpointNanos, cp.checkpointCount(),
+                total * 1e9 / asyncNanos, async.checkpointCount());
+
+        // 模拟崩溃：读到一半丢掉迭代器，新迭代器从文件恢复，最后一次 checkpoint 之后的记录会重读
+        cp = new CheckpointingResumableIterator<>(nested(fanout, leafSize), codec, file, 50_000, 100);
+        for (int i = 0; i < total / 3; i++) cp.next();
+        long resumeAt = total / 3 - cp.sinceCheckpoint;
+        cp = new CheckpointingResumableIterator<>(nested(fanout, leafSize), codec, file, 50_000, 100);
+        if (!cp.resume()) throw new AssertionError("no checkpoint written");
+        long expected = resumeAt;
+        while (cp.hasNext()) {
+            int v = cp.next();
+            if (v != expected++) throw new AssertionError("resumed at wrong position: " + v);
+        }
+        if (expected != total) throw new AssertionError("resume did not reach the end");
+        System.out.println("resume from checkpoint file ok at record " + resumeAt);
+
+        // 后台写盘失败：下一次 checkpoint() 报出来，之后的 checkpoint 还会再提交，close() 报最后一次的失败
+        ExecutorService failing = Executors.newSingleThreadExecutor();
+        cp = new CheckpointingResumableIterator<>(nested(2, 10), codec, dir.resolve("missing").resolve("state.bin"),
+                Long.MAX_VALUE, Long.MAX_VALUE / 1_000_000, failing);
+        cp.next();
+        cp.checkpoint();
+        while (cp.failure.get() == null) Thread.onSpinWait();
+        try {
+            cp.checkpoint();
+            throw new AssertionError("background write failure was not reported by checkpoint()");
+        } catch (UncheckedIOException reported) {
+        }
+        cp.checkpoint();
+        try {
+            cp.close();
+            throw new AssertionError("background write failure was not reported by close()");
+        } catch (UncheckedIOException reported) {
+        }
+        failing.shutdown();
+        if (!failing.awaitTermination(1, TimeUnit.MINUTES)) throw new AssertionError("failing writer still running");
+        System.out.println("background write failure reported");
+
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+GPUCredit follow up：很多请求线程同时扣费
+- 账户按 hash 分到 stripes 个分片，每个分片是一把锁 + 一个单线程的 TimelineGPUCredit，
+  同一账户的操作总在同一把锁下，所以 useCredit 对单个账户是原子的；不同分片互不影响，没有全局锁
+- useCredits 批量：先按分片做一次计数排序（稳定，同一账户的事件顺序不变），每个分片只加一次锁，
+  把属于它的事件一口气做完；每个事件各自成功或失败，整批不是一个事务
+- 分片数取 2 的幂，默认 64，远大于核数时两个热点账户落到同一分片的概率很小
+*/
+public class ConcurrentCreditLedger {
+
+    static final class Stripe extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        final TimelineGPUCredit credits = new TimelineGPUCredit();
+    }
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public ConcurrentCreditLedger() {
+        this(64);
+    }
+
+    public ConcurrentCreditLedger(int stripes) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a power of two: " + stripes);
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) this.stripes[i] = new Stripe();
+        this.mask = stripes - 1;
+    }
+
+    private int stripeIndex(String creditId) {
+        int h = creditId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public void addCredit(String creditId, int amount, int timestamp, int expiration) {
+        Stripe stripe = stripes[stripeIndex(creditId)];
+        stripe.lock();
+        try {
+            stripe.credits.addCredit(creditId, amount, timestamp, expiration);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    public boolean useCredit(String creditId, int timestamp, int amount) {
+        Stripe stripe = stripes[stripeIndex(creditId)];
+        stripe.lock();
+        try {
+            return stripe.credits.useCredit(creditId, timestamp, amount);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    public Integer getBalance(String creditId, int timestamp) {
+        Stripe stripe = stripes[stripeIndex(creditId)];
+        stripe.lock();
+        try {
+            return stripe.credits.getBalance(creditId, timestamp);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    // 批量扣费，返回每个事件是否成功
+    public boolean[] useCredits(String[] creditIds, int[] timestamps, int[] amounts) {
+        int n = creditIds.length;
+        if (timestamps.length != n || amounts.length != n) throw new IllegalArgumentException("length mismatch");
+        int[] stripeOf = new int[n];
+        int[] start = new int[stripes.length + 1];
+        for (int i = 0; i < n; i++) {
+            stripeOf[i] = stripeIndex(creditIds[i]);
+            start[stripeOf[i] + 1]++;
+        }
+        for (int s = 0; s < stripes.length; s++) start[s + 1] += start[s];
+        int[] order = new int[n];
+        int[] fill = Arrays.copyOf(start, stripes.length);
+        for (int i = 0; i < n; i++) order[fill[stripeOf[i]]++] = i;
+
+        boolean[] ok = new boolean[n];
+        for (int s = 0; s < stripes.length; s++) {
+            if (start[s] == start[s + 1]) continue;
+            Stripe stripe = stripes[s];
+            stripe.lock();
+            try {
+                for (int k = start[s]; k < start[s + 1]; k++) {
+                    int i = order[k];
+                    ok[i] = stripe.credits.useCredit(creditIds[i], timestamps[i], amounts[i]);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return ok;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // 多线程抢同一个账户：成功的总额正好等于 grant，不会超扣
+        ConcurrentCreditLedger ledger = new ConcurrentCreditLedger();
+        ledger.addCredit("hot", 100_000, 0, 1_000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(pool.submit(() -> {
+                int used = 0;
+                for (int i = 0; i < 20_000; i++) {
+                    if (ledger.useCredit("hot", 10, 1)) used++;
+                }
+                return used;
+            }));
+        }
+        int used = 0;
+        for (Future<Integer> f : futures) used += f.get();
+        pool.shutdown();
+        if (used != 100_000 || ledger.getBalance("hot", 10) != null) throw new AssertionError("used " + used);
+        System.out.println("concurrent useCredit on one account ok");
+
+        int accounts = 10_000;
+        int perThread = 400_000;
+        int batch = 256;
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        System.out.println("cpus=" + Runtime.getRuntime().availableProcessors() + ", zipf(0.99) over " + accounts + " accounts");
+        String[][] warmup = zipfWorkload(accounts, 1, perThread, 0.99, 0);
+        run(warmup, accounts, new GlobalLock(), 1);
+        run(warmup, accounts, new Striped(), 1);
+        run(warmup, accounts, new Striped(), batch);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            String[][] ids = zipfWorkload(accounts, threads, perThread, 0.99, threads);
+            System.out.printf("threads=%d  global lock %,12.0f ops/s  striped %,12.0f ops/s  striped batch %,12.0f ops/s%n",
+                    threads, run(ids, accounts, new GlobalLock(), 1), run(ids, accounts, new Striped(), 1),
+                    run(ids, accounts, new Striped(), batch));
+        }
+    }
+
+    // 每个线程一份账户序列，账户按 zipf 分布，排名靠前的账户特别热
+    private static String[][] zipfWorkload(int accounts, int threads, int perThread, double s, long seed) {
+        double[] cdf = new double[accounts];
+        double sum = 0;
+        for (int i = 0; i < accounts; i++) {
+            sum += 1 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        Random random = new Random(seed);
+        String[][] ids = new String[threads][perThread];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                int k = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                ids[t][i] = "tenant-" + (k < 0 ? -k - 1 : k);
+            }
+        }
+        return ids;
+    }
+
+    interface Target {
+        void addCredit(String creditId, int amount, int timestamp, int expiration);
+
+        boolean useCredit(String creditId, int timestamp, int amount);
+
+        void useCredits(String[] creditIds, int[] timestamps, int[] amounts);
+    }
+
+    // 对比：整个 TimelineGPUCredit 一把锁
+    static class GlobalLock implements Target {
+        final TimelineGPUCredit credits = new TimelineGPUCredit();
+
+        public synchronized void addCredit(String creditId, int amount, int timestamp, int expiration) {
+            credits.addCredit(creditId, amount, timestamp, expiration);
+        }
+
+        public synchronized boolean useCredit(String creditId, int timestamp, int amount) {
+            return credits.useCredit(creditId, timestamp, amount);
+        }
+
+        public synchronized void useCredits(String[] creditIds, int[] timestamps, int[] amounts) {
+            for (int i = 0; i < creditIds.length; i++) credits.useCredit(creditIds[i], timestamps[i], amounts[i]);
+        }
+    }
+
+    static class Striped implements Target {
+        final ConcurrentCreditLedger ledger = new ConcurrentCreditLedger();
+
+        public void addCredit(String creditId, int amount, int timestamp, int expiration) {
+            ledger.addCredit(creditId, amount, timestamp, expiration);
+        }
+
+        public boolean useCredit(String creditId, int timestamp, int amount) {
+            return ledger.useCredit(creditId, timestamp, amount);
+        }
+
+        public void useCredits(String[] creditIds, int[] timestamps, int[] amounts) {
+            ledger.useCredits(creditIds, timestamps, amounts);
+        }
+    }
+
+    // 所有扣费用同一个时间戳，只测并发结构本身；返回总吞吐
+    private static double run(String[][] ids, int accounts, Target target, int batch) throws Exception {
+        for (int a = 0; a < accounts; a++) target.addCredit("tenant-" + a, Integer.MAX_VALUE / 2, 0, 1_000_000);
+        int threads = ids.length;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (String[] mine : ids) {
+            futures.add(pool.submit(() -> {
+                int[] timestamps = new int[batch];
+                int[] amounts = new int[batch];
+                Arrays.fill(timestamps, 100);
+                Arrays.fill(amounts, 1);
+                barrier.await();
+                if (batch == 1) {
+                    for (String id : mine) target.useCredit(id, 100, 1);
+                } else {
+                    for (int i = 0; i < mine.length; i += batch) {
+                        int n = Math.min(batch, mine.length - i);
+                        target.useCredits(Arrays.copyOfRange(mine, i, i + n),
+                                n == batch ? timestamps : Arrays.copyOf(timestamps, n),
+                                n == batch ? amounts : Arrays.copyOf(amounts, n));
+                    }
+                }
+                barrier.await();
+                return null;
+            }));
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        barrier.await();
+        long nanos = System.nanoTime() - start;
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+        return (double) threads * ids[0].length * 1e9 / nanos;
+    }
+}
@@ -6,6 +6,8 @@ public class GPUCredit {
         int amount;
         int timestamp;
         int expiration;
+        // 已经从 list 里删掉（useCredit 用完），或者被 sweep 判定过期、等待压缩
+        boolean removed;
 
         CreditEntry(int amount, int timestamp, int expiration) {
             this.amount = amount;
@@ -14,22 +16,57 @@ public class GPUCredit {
         }
 
         boolean isValidAt(int time) {
-            return time >= timestamp && time <= timestamp + expiration;
+            return !removed && time >= timestamp && time <= timestamp + expiration;
         }
+
+        int end() {
+            return timestamp + expiration;
+        }
+    }
+
+    /*
+    过期回收：useCredit 每次拆分都会多出 entry，不回收的话 list 只增不减，后面每次 sort / 扫描都更慢
+    - 每个账户一个按 end 的小顶堆做过期索引；每次操作带着当前时间 now 摊还地 sweep：
+      end < now - retention 的 entry 从堆里弹出并标记 removed，O(log n)
+    - 标记的超过一半时压缩一次 list：真正删掉标记的 entry，顺便合并历史碎片（end < lastUse，之后按时间递增的
+      useCredit 不会再碰到）：区间相同的合并余额，首尾相接且余额相同的拼成一个区间，getBalance 结果不变
+    - retention 之前的历史查询不再准确；默认构造 retention = Integer.MAX_VALUE，不回收，行为和原来一样
+    */
+    class Sweeper {
+        final PriorityQueue<CreditEntry> byEnd = new PriorityQueue<>(Comparator.comparingInt(CreditEntry::end));
+        int marked;
+        int lastUse = Integer.MIN_VALUE;
     }
 
     public final Map<String, List<CreditEntry>> map = new HashMap<>();
+    private final Map<String, Sweeper> sweepers = new HashMap<>();
+    private final int retention;
+    private long swept;
+    private long merged;
+
+    public GPUCredit() {
+        this(Integer.MAX_VALUE);
+    }
+
+    // retention：过期多久之后回收
+    public GPUCredit(int retention) {
+        this.retention = retention;
+    }
 
     // 添加积分：指定用户、数量、生效时间和有效期（单位：时间戳）
     public void addCredit(String creditId, int amount, int timestamp, int expiration) {
         map.computeIfAbsent(creditId, k -> new ArrayList<>());
-        map.get(creditId).add(new CreditEntry(amount, timestamp, expiration));
+        CreditEntry entry = new CreditEntry(amount, timestamp, expiration);
+        map.get(creditId).add(entry);
+        index(creditId, entry);
+        sweep(creditId, timestamp);
     }
 
     public boolean useCredit(String creditId, int timestamp, int amount) {
         List<CreditEntry> list = map.get(creditId);
         if (list == null)
             return false;
+        sweep(creditId, timestamp);
 
         // 按过期时间优先用
         list.sort(Comparator.comparingInt(e -> e.timestamp + e.expiration));
@@ -47,6 +84,7 @@ public class GPUCredit {
                 // 全部用掉：影响 [timestamp, e.end]
                 remaining -= e.amount;
                 it.remove();
+                e.removed = true;
 
                 if (e.timestamp < timestamp) {
                     newEntries.add(new CreditEntry(
@@ -55,6 +93,7 @@ public class GPUCredit {
             } else {
                 // 只用一部分 → split
                 it.remove();
+                e.removed = true;
 
                 // before part
                 if (e.timestamp < timestamp) {
@@ -74,6 +113,9 @@ public class GPUCredit {
             return false;
 
         list.addAll(newEntries);
+        for (CreditEntry e : newEntries) index(creditId, e);
+        Sweeper sweeper = sweepers.get(creditId);
+        if (sweeper != null) sweeper.lastUse = Math.max(sweeper.lastUse, timestamp);
         return true;
     }
 
@@ -90,8 +132,91 @@ public class GPUCredit {
         return total == 0 ? null : total;
     }
 
+    private void index(String creditId, CreditEntry entry) {
+        if (retention == Integer.MAX_VALUE) return;
+        sweepers.computeIfAbsent(creditId, k -> new Sweeper()).byEnd.add(entry);
+    }
+
+    private void sweep(String creditId, int now) {
+        if (retention == Integer.MAX_VALUE) return;
+        Sweeper sweeper = sweepers.computeIfAbsent(creditId, k -> new Sweeper());
+        long horizon = (long) now - retention;
+        while (!sweeper.byEnd.isEmpty() && sweeper.byEnd.peek().end() < horizon) {
+            CreditEntry e = sweeper.byEnd.poll();
+            if (!e.removed) {
+                e.removed = true;
+                sweeper.marked++;
+            }
+        }
+        List<CreditEntry> list = map.get(creditId);
+        if (sweeper.marked > 0 && sweeper.marked * 2 >= list.size()) {
+            swept += sweeper.marked;
+            list.removeIf(e -> e.removed);
+            sweeper.marked = 0;
+            mergeHistory(creditId, list, sweeper);
+        }
+        // useCredit 删掉的 entry 还在堆里，要等到过期才弹出；堆比 list 大太多时按 list 重建
+        if (sweeper.byEnd.size() > 2 * list.size() + 16) {
+            sweeper.byEnd.clear();
+            for (CreditEntry e : list) {
+                if (!e.removed) sweeper.byEnd.add(e);
+            }
+        }
+    }
+
+    private void mergeHistory(String creditId, List<CreditEntry> list, Sweeper sweeper) {
+        List<CreditEntry> history = new ArrayList<>();
+        for (CreditEntry e : list) {
+            if (e.end() < sweeper.lastUse) history.add(e);
+        }
+        if (history.size() < 2) return;
+        history.sort(Comparator.comparingInt((CreditEntry e) -> e.timestamp).thenComparingInt(CreditEntry::end));
+        // 按 start 排序后，同区间的相邻；首尾相接的要找 start == end + 1 的那个
+        Map<Long, CreditEntry> byStartAmount = new HashMap<>();
+        List<CreditEntry> out = new ArrayList<>();
+        for (CreditEntry e : history) {
+            CreditEntry last = out.isEmpty() ? null : out.get(out.size() - 1);
+            if (last != null && last.timestamp == e.timestamp && last.expiration == e.expiration) {
+                last.amount += e.amount;
+                continue;
+            }
+            out.add(new CreditEntry(e.amount, e.timestamp, e.expiration));
+        }
+        // 从后往前，把 [s, e] 接到以 e + 1 开头、余额相同的片段上
+        for (int i = out.size() - 1; i >= 0; i--) {
+            CreditEntry e = out.get(i);
+            CreditEntry next = byStartAmount.remove(key(e.end() + 1, e.amount));
+            if (next != null) {
+                e.expiration = next.end() - e.timestamp;
+                next.removed = true;
+            }
+            byStartAmount.put(key(e.timestamp, e.amount), e);
+        }
+        int before = history.size();
+        for (CreditEntry e : history) e.removed = true;
+        list.removeIf(e -> e.removed);
+        for (CreditEntry e : out) {
+            if (e.removed) continue;
+            list.add(e);
+            index(creditId, e);
+            before--;
+        }
+        merged += before;
+    }
+
+    private static long key(int start, int amount) {
+        return ((long) start << 32) | (amount & 0xFFFFFFFFL);
+    }
+
+    // 所有账户当前 list 里的 entry 数
+    public long entryCount() {
+        long n = 0;
+        for (List<CreditEntry> list : map.values()) n += list.size();
+        return n;
+    }
+
     public static void main(String[] args) {
-        GPUCredit2 gpu = new GPUCredit2();
+        GPUCredit gpu = new GPUCredit();
 
         // Test 1
         gpu.addCredit("microsoft", 10, 10, 30);
@@ -101,10 +226,10 @@ public class GPUCredit {
         System.out.println(gpu.getBalance("microsoft", 41)); // null
 
         // Test 2
-        gpu = new GPUCredit2();
+        gpu = new GPUCredit();
         gpu.addCredit("amazon", 40, 10, 50);
         gpu.useCredit("amazon", 30, 30);
-        System.out.println(gpu.getBalance("amazon", 12)); // 10
+        System.out.println(gpu.getBalance("amazon", 12)); // 40，useCredit 只影响 30 之后
         gpu.addCredit("amazon", 20, 60, 10);
         System.out.println(gpu.getBalance("amazon", 60)); // 30
         System.out.println(gpu.getBalance("amazon", 61)); // 20
@@ -112,12 +237,75 @@ public class GPUCredit {
         System.out.println(gpu.getBalance("amazon", 71)); // null
 
         // Edge case
-        gpu = new GPUCredit2();
+        gpu = new GPUCredit();
         gpu.addCredit("openai", 10, 10, 30);
         gpu.useCredit("openai", 10, 100000000); // overuse
         System.out.println(gpu.getBalance("openai", 10)); // null
         gpu.addCredit("openai", 10, 20, 10);
         System.out.println(gpu.getBalance("openai", 20)); // 10
+
+        checkMerge();
+        simulateMonth(args.length > 0 ? Integer.parseInt(args[0]) : 300);
+    }
+
+    // 历史碎片合并：[0, 49] 10 和两个 [50, 100] 5 先按区间合成 [50, 100] 10，再首尾相接拼成 [0, 100] 10；
+    // 4 个很早就过期的 grant 被回收，触发压缩。retention 以内的历史余额在合并前后一样
+    private static void checkMerge() {
+        GPUCredit gpu = new GPUCredit(150);
+        for (int i = 0; i < 4; i++) gpu.addCredit("a", 1, 0, 1);
+        gpu.addCredit("a", 10, 0, 100);
+        gpu.useCredit("a", 50, 5);
+        gpu.addCredit("a", 5, 50, 50);
+        gpu.addCredit("a", 1, 120, 10);
+        gpu.useCredit("a", 120, 1);
+        List<Integer> before = new ArrayList<>();
+        for (int t = 2; t <= 130; t++) before.add(gpu.getBalance("a", t));
+        gpu.addCredit("a", 1, 160, 1000);
+        List<Integer> after = new ArrayList<>();
+        for (int t = 2; t <= 130; t++) after.add(gpu.getBalance("a", t));
+        if (gpu.swept != 4 || gpu.merged != 2 || gpu.entryCount() != 2) {
+            throw new AssertionError("swept " + gpu.swept + ", merged " + gpu.merged + ", entries " + gpu.entryCount());
+        }
+        if (!before.equals(after)) throw new AssertionError("merge changed balances: " + before + " -> " + after);
+        if (gpu.getBalance("a", 75) != 10) throw new AssertionError("merged balance " + gpu.getBalance("a", 75));
+        System.out.println("merge ok: merged " + gpu.merged + ", " + gpu.entryCount() + " entries left");
+    }
+
+    // 模拟一个月（时间单位：分钟）：每个账户每天一笔 7 天有效的 grant，每 30 分钟用一次；
+    // 不回收 vs 过期一天后回收分两次跑，每周打印 entry 数、GC 之后的堆占用和这一周的耗时
+    private static void simulateMonth(int accounts) {
+        System.out.println("keep all:");
+        List<Integer> expected = simulateMonth(new GPUCredit(), accounts);
+        System.out.println("sweep expired after 1 day:");
+        if (!expected.equals(simulateMonth(new GPUCredit(24 * 60), accounts))) {
+            throw new AssertionError("sweeping changed current balances");
+        }
+    }
+
+    // 返回每周末若干账户的当前余额，用来对比两种配置
+    private static List<Integer> simulateMonth(GPUCredit gpu, int accounts) {
+        int day = 24 * 60;
+        Random random = new Random(1);
+        List<Integer> balances = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int now = 0; now < 30 * day; now += 30) {
+            for (int a = 0; a < accounts; a++) {
+                String id = "tenant-" + a;
+                if (now % day == 0) gpu.addCredit(id, 1_000, now, 7 * day);
+                gpu.useCredit(id, now, 1 + random.nextInt(10));
+            }
+            if ((now + 30) % (7 * day) == 0 || now + 30 == 30 * day) {
+                long nanos = System.nanoTime() - start;
+                for (int a = 0; a < accounts; a += 7) balances.add(gpu.getBalance("tenant-" + a, now));
+                System.gc();
+                Runtime rt = Runtime.getRuntime();
+                System.out.printf("  day %2d: %,9d entries, heap %7.1f MB, %,6d ms (swept %,d, merged %,d)%n",
+                        (now + 30) / day, gpu.entryCount(), (rt.totalMemory() - rt.freeMemory()) / 1e6,
+                        nanos / 1_000_000, gpu.swept, gpu.merged);
+                start = System.nanoTime();
+            }
+        }
+        return balances;
     }
 
     // 在指定时间消费指定数量的积分，若成功返回 true，余额不足返回 false
@@ -1,4 +1,11 @@
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /*
 # - Support Query
@@ -36,13 +43,405 @@ public class InMemoryDB {
             put("logic", "AND");
             put("condition", "author,=,J.R.R. Tolkien#price,>,20");
         }}, Arrays.asList("price", "decrease"), Arrays.asList("price")).toArray()));
+
+        benchmarkParallel(args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000);
+        benchmarkTopK(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+        benchmarkJoin(args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000);
+        try {
+            benchmarkRecovery(args.length > 3 ? Integer.parseInt(args[3]) : 2_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        benchmarkConcurrent(args.length > 4 ? Integer.parseInt(args[4]) : 500_000);
+    }
+
+    /*
+    2 个写线程一共插 n 行，同时 2 个读线程反复跑 select（price < 200）和 groupBy author；和只读 / 只写时比
+    每个结果都要是某个前缀的完整结果：select 的行按表里的顺序、中间不能漏，groupBy 的 COUNT 和 SUM 要对得上前 COUNT 行
+    */
+    private static void benchmarkConcurrent(int n) {
+        InMemoryDB sql = new InMemoryDB();
+        List<String> columns = Arrays.asList("title", "author", "price");
+        Random random = new Random(9);
+        for (int i = 0; i < n; i++) {
+            sql.insert("book", columns, Arrays.asList("book-" + i, "author-" + random.nextInt(1000),
+                    String.valueOf(100 + random.nextInt(900))));
+        }
+        System.out.printf("%n%,d rows, cpus=%d%n", n, Runtime.getRuntime().availableProcessors());
+        long[][] alone = concurrentReaders(sql, () -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long start = System.nanoTime();
+        long[][] mixed = concurrentReaders(sql, () -> concurrentWriters(sql, n));
+        long mixedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        concurrentWriters(sql, n);
+        long aloneNanos = System.nanoTime() - start;
+        String[] names = {"select price < 200", "groupBy author"};
+        for (int q = 0; q < 2; q++) {
+            System.out.printf("%-20s readers only: %3d queries p50 %,6.1f ms | with 2 writers: %3d queries p50 %,6.1f ms%n",
+                    names[q], alone[q].length, median(alone[q]) / 1e6, mixed[q].length, median(mixed[q]) / 1e6);
+        }
+        System.out.printf("insert throughput: writers only %,.0f rows/s, with 2 readers %,.0f rows/s%n",
+                n / (aloneNanos / 1e9), n / (mixedNanos / 1e9));
+        if (sql.tables.get("book").rows.size() != 3 * n) throw new AssertionError("lost inserts");
+    }
+
+    // 2 个读线程一直查到 work 跑完，返回两种查询各自的延迟（纳秒）
+    private static long[][] concurrentReaders(InMemoryDB sql, Runnable work) {
+        Map<String, String> conditions = new HashMap<>();
+        conditions.put("logic", "AND");
+        conditions.put("condition", "price,<,200");
+        List<List<Long>> latencies = Arrays.asList(Collections.synchronizedList(new ArrayList<>()),
+                Collections.synchronizedList(new ArrayList<>()));
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            int first = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = first; !stop.get(); i++) {
+                        long begin = System.nanoTime();
+                        if (i % 2 == 0) {
+                            List<Row> result = sql.select("book", conditions, null, null);
+                            latencies.get(0).add(System.nanoTime() - begin);
+                            checkPrefix(sql, conditions, result);
+                        } else {
+                            List<Row> groups = sql.groupBy("book", null, "author", Arrays.asList("COUNT", "SUM(price)"), null);
+                            latencies.get(1).add(System.nanoTime() - begin);
+                            checkPrefix(sql, groups);
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        work.run();
+        stop.set(true);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (!errors.isEmpty()) throw new AssertionError("reader failed", errors.get(0));
+        long[][] out = new long[2][];
+        for (int q = 0; q < 2; q++) out[q] = latencies.get(q).stream().mapToLong(Long::longValue).sorted().toArray();
+        return out;
+    }
+
+    // select 的结果必须是表里从头开始、到结果最后一行为止所有满足条件的行（按表里的顺序，同一个对象）
+    private static void checkPrefix(InMemoryDB sql, Map<String, String> conditions, List<Row> result) {
+        List<Row> rows = sql.tables.get("book").rows;
+        int k = 0;
+        for (int i = 0; k < result.size(); i++) {
+            if (!sql.where(rows.get(i), conditions.get("condition"), conditions.get("logic"))) continue;
+            if (rows.get(i) != result.get(k)) throw new AssertionError("select missed row " + i);
+            k++;
+        }
+    }
+
+    private static void checkPrefix(InMemoryDB sql, List<Row> groups) {
+        long count = 0;
+        long sum = 0;
+        for (Row group : groups) {
+            count += Long.parseLong(group.map.get("COUNT"));
+            sum += Long.parseLong(group.map.get("SUM(price)"));
+        }
+        List<Row> rows = sql.tables.get("book").rows;
+        for (int i = 0; i < count; i++) sum -= Long.parseLong(rows.get(i).map.get("price"));
+        if (sum != 0) throw new AssertionError("groupBy saw " + count + " rows but not a prefix");
+    }
+
+    private static void concurrentWriters(InMemoryDB sql, int n) {
+        List<String> columns = Arrays.asList("title", "author", "price");
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(100 + id);
+                for (int i = id; i < n; i += 2) {
+                    sql.insert("book", columns, Arrays.asList("new-" + i, "author-" + random.nextInt(1000),
+                            String.valueOf(100 + random.nextInt(900))));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static long median(long[] sorted) {
+        return sorted.length == 0 ? 0 : sorted[sorted.length / 2];
     }
 
-    Map<String, Table> tables = new HashMap<>();
+    // 同样 n 行：写 CSV 再逐行 split 导入 vs 带 WAL 写入之后从快照 + WAL 恢复；每行一个 HashMap，默认行数比 SQLManager 少
+    private static void benchmarkRecovery(int n) throws IOException {
+        File dir = java.nio.file.Files.createTempDirectory("inmemorydb").toFile();
+        File csv = new File(dir, "books.csv");
+        File db = new File(dir, "db");
+        List<String> columns = Arrays.asList("title", "author", "price");
+        Random random = new Random(5);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(csv))) {
+            for (int i = 0; i < n; i++) {
+                out.write("book-" + i + ",author-" + random.nextInt(1000) + "," + (100 + random.nextInt(900)));
+                out.newLine();
+            }
+        }
+
+        // 带 WAL 写入，每 40% 做一次快照，最后剩一段 WAL 没进快照
+        long start = System.nanoTime();
+        InMemoryDB durable = open(db.getPath());
+        durable.setSnapshotInterval(n * 2L / 5);
+        try (BufferedReader in = new BufferedReader(new FileReader(csv))) {
+            String line;
+            while ((line = in.readLine()) != null) durable.insert("book", columns, Arrays.asList(line.split(",")));
+        }
+        durable.sync();
+        durable.close();
+        long durableNanos = System.nanoTime() - start;
+        durable = null;
+
+        start = System.nanoTime();
+        InMemoryDB imported = new InMemoryDB();
+        try (BufferedReader in = new BufferedReader(new FileReader(csv))) {
+            String line;
+            while ((line = in.readLine()) != null) imported.insert("book", columns, Arrays.asList(line.split(",")));
+        }
+        long csvNanos = System.nanoTime() - start;
+        long expected = checksum(imported.tables.get("book"));
+        imported = null;
+
+        start = System.nanoTime();
+        InMemoryDB recovered = open(db.getPath());
+        long recoverNanos = System.nanoTime() - start;
+        if (checksum(recovered.tables.get("book")) != expected) throw new AssertionError("recovered rows differ from CSV");
+        recovered.close();
+
+        long dbBytes = 0;
+        StringBuilder files = new StringBuilder();
+        for (File f : db.listFiles()) {
+            dbBytes += f.length();
+            files.append(' ').append(f.getName()).append('=').append(f.length() >> 20).append("MB");
+        }
+        System.out.printf("%n%,d rows: CSV %,d MB, snapshot + WAL %,d MB (%s)%n", n, csv.length() >> 20, dbBytes >> 20,
+                files.toString().trim());
+        System.out.printf("load with WAL + 2 snapshots %,d ms; CSV re-import %,d ms; recovery from snapshot + WAL %,d ms%n",
+                durableNanos / 1_000_000, csvNanos / 1_000_000, recoverNanos / 1_000_000);
+        for (File f : db.listFiles()) f.delete();
+        db.delete();
+        csv.delete();
+        dir.delete();
+    }
+
+    private static long checksum(Table table) {
+        long sum = table.rows.size();
+        for (Row row : table.rows) sum = sum * 31 + row.map.hashCode();
+        return sum;
+    }
+
+    // orders(n) JOIN customers(n)：哈希 join vs 嵌套循环；GROUP BY：HashMap<String, long[]> 手写聚合 vs groupBy
+    private static void benchmarkJoin(int n) {
+        InMemoryDB sql = new InMemoryDB();
+        Random random = new Random(4);
+        for (int i = 0; i < n; i++) {
+            sql.insert("customers", Arrays.asList("customerId", "region", "age"),
+                    Arrays.asList("c-" + i, "region-" + random.nextInt(50), String.valueOf(18 + random.nextInt(70))));
+        }
+        for (int i = 0; i < n; i++) {
+            sql.insert("orders", Arrays.asList("orderId", "customerId", "amount"),
+                    Arrays.asList("o-" + i, "c-" + random.nextInt(n * 2), String.valueOf(1 + random.nextInt(500))));
+        }
+        System.out.printf("%n%,d orders x %,d customers, cpus=%d%n", n, n, Runtime.getRuntime().availableProcessors());
+
+        long start = System.nanoTime();
+        List<Row[]> joined = sql.join("orders", "customerId", "customers", "customerId");
+        long hashNanos = System.nanoTime() - start;
+        // 嵌套循环 n x n 跑不完，只跑前 probe 个订单，按比例外推
+        List<Row> orders = sql.tables.get("orders").rows;
+        List<Row> customers = sql.tables.get("customers").rows;
+        int probe = Math.min(n, 50);
+        List<Row[]> nested = new ArrayList<>();
+        start = System.nanoTime();
+        for (int i = 0; i < probe; i++) {
+            Row order = orders.get(i);
+            for (Row customer : customers) {
+                if (sql.compare(customer, "customerId", "=", order.map.get("customerId"))) {
+                    nested.add(new Row[]{order, customer});
+                }
+            }
+        }
+        long nestedNanos = System.nanoTime() - start;
+        for (int k = 0; k < nested.size(); k++) {
+            if (!Arrays.equals(nested.get(k), joined.get(k))) throw new AssertionError("join differs from nested loop");
+        }
+        System.out.printf("JOIN ON customerId (%,d pairs): hash join %,d ms, nested loop %,d ms for %d probe rows -> ~%,.0f s for all%n",
+                joined.size(), hashNanos / 1_000_000, nestedNanos / 1_000_000, probe, nestedNanos / 1e9 * n / probe);
 
-    public void insert(String tableName, List<String> columns, List<String> values) {
-        tables.putIfAbsent(tableName, new Table());
+        for (String[] group : new String[][]{{"customers", "region", "age"}, {"orders", "customerId", "amount"}}) {
+            List<Row> rows = sql.tables.get(group[0]).rows;
+            List<String> aggregates = Arrays.asList("COUNT", "SUM(" + group[2] + ")", "MAX(" + group[2] + ")");
+            long handNanos = Long.MAX_VALUE;
+            long groupNanos = Long.MAX_VALUE;
+            List<Row> expected = null;
+            for (int round = 0; round < 3; round++) {
+                start = System.nanoTime();
+                Map<String, long[]> byKey = new LinkedHashMap<>();
+                for (Row row : rows) {
+                    long[] acc = byKey.computeIfAbsent(row.map.get(group[1]), k -> new long[]{0, 0, Long.MIN_VALUE});
+                    long value = Long.parseLong(row.map.get(group[2]));
+                    acc[0]++;
+                    acc[1] += value;
+                    acc[2] = Math.max(acc[2], value);
+                }
+                handNanos = Math.min(handNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                expected = sql.groupBy(group[0], null, group[1], aggregates, null);
+                groupNanos = Math.min(groupNanos, System.nanoTime() - start);
+                if (expected.size() != byKey.size()) throw new AssertionError("group count differs");
+            }
+            System.out.printf("GROUP BY %s.%s (%,d groups): HashMap %,d ms, groupBy %,d ms", group[0], group[1],
+                    expected.size(), handNanos / 1_000_000, groupNanos / 1_000_000);
+            for (int p = 1; p <= 8; p *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(p);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 2; round++) {
+                    start = System.nanoTime();
+                    List<Row> actual = sql.groupBy(group[0], null, group[1], aggregates, pool);
+                    best = Math.min(best, System.nanoTime() - start);
+                    for (int k = 0; k < actual.size(); k++) {
+                        if (!actual.get(k).map.equals(expected.get(k).map)) {
+                            throw new AssertionError("partitioned groupBy differs, p=" + p);
+                        }
+                    }
+                }
+                pool.shutdown();
+                System.out.printf(", p=%d %,d ms", p, best / 1_000_000);
+            }
+            System.out.println();
+        }
+    }
+
+    // 整个排序再取前 k vs LIMIT k（顺序 / 4 路并行），结果必须一样；各取 3 次里最快的
+    private static void benchmarkTopK(int n) {
+        InMemoryDB sql = new InMemoryDB();
+        List<String> columns = Arrays.asList("title", "author", "price");
+        Random random = new Random(3);
+        for (int i = 0; i < n; i++) {
+            sql.insert("book", columns, Arrays.asList("book-" + random.nextInt(n), "author-" + random.nextInt(1000),
+                    String.valueOf(100 + random.nextInt(900))));
+        }
+        Map<String, String> conditions = new HashMap<>();
+        conditions.put("logic", "AND");
+        conditions.put("condition", "price,>,300");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        System.out.printf("%n%,d rows, cpus=%d%n", n, Runtime.getRuntime().availableProcessors());
+        for (List<String> order : Arrays.asList(Arrays.asList("price", "decrease"), Arrays.asList("title", "increase"))) {
+            long sortNanos = Long.MAX_VALUE;
+            List<Row> sorted = null;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                sorted = sql.select("book", conditions, order, null);
+                sortNanos = Math.min(sortNanos, System.nanoTime() - start);
+            }
+            System.out.printf("WHERE %s ORDER BY %s (%,d rows): full sort %,d ms%n", conditions.get("condition"), order,
+                    sorted.size(), sortNanos / 1_000_000);
+            for (int k : new int[]{10, 100, 1000}) {
+                long heapNanos = Long.MAX_VALUE;
+                long parallelNanos = Long.MAX_VALUE;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    List<Row> top = sql.select("book", conditions, order, null, k);
+                    heapNanos = Math.min(heapNanos, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    List<Row> parallel = sql.selectParallel("book", conditions, order, null, k, pool);
+                    parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+                    if (!top.equals(sorted.subList(0, k)) || !parallel.equals(top)) {
+                        throw new AssertionError("LIMIT " + k + " differs from full sort");
+                    }
+                }
+                System.out.printf("  LIMIT %4d: heap %,6d ms, parallel heap (p=4) %,6d ms%n", k,
+                        heapNanos / 1_000_000, parallelNanos / 1_000_000);
+            }
+        }
+        pool.shutdown();
+    }
+
+    // select vs selectParallel，pool 的并行度 1 到 16；结果必须一样
+    private static void benchmarkParallel(int n) {
+        InMemoryDB sql = new InMemoryDB();
+        List<String> columns = Arrays.asList("title", "author", "price");
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            sql.insert("book", columns, Arrays.asList("book-" + random.nextInt(n), "author-" + random.nextInt(1000),
+                    String.valueOf(100 + random.nextInt(900))));
+        }
+        Map<String, String> conditions = new HashMap<>();
+        conditions.put("logic", "AND");
+        conditions.put("condition", "price,>,300#author,<,author-8");
+        System.out.printf("%n%,d rows, cpus=%d%n", n, Runtime.getRuntime().availableProcessors());
+        for (List<String> order : Arrays.asList(Arrays.asList("price", "increase"), Arrays.asList("title", "decrease"))) {
+            long start = System.nanoTime();
+            List<Row> expected = sql.select("book", conditions, order, null);
+            System.out.printf("WHERE %s ORDER BY %s (%,d rows): select %,d ms", conditions.get("condition"), order,
+                    expected.size(), (System.nanoTime() - start) / 1_000_000);
+            for (int p = 1; p <= 16; p *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(p);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 2; round++) {
+                    start = System.nanoTime();
+                    List<Row> actual = sql.selectParallel("book", conditions, order, null, pool);
+                    best = Math.min(best, System.nanoTime() - start);
+                    if (!actual.equals(expected)) throw new AssertionError("parallel result differs, p=" + p);
+                }
+                pool.shutdown();
+                System.out.printf(", p=%d %,d ms", p, best / 1_000_000);
+            }
+            System.out.println();
+        }
+    }
+
+    /*
+    并发：写串行、读不加锁，和 SQLManager 一样
+    - insert / snapshot / sync / close 是 synchronized 的；一行的 map 填好之后才追加进 RowStore 发布
+    - 每个查询开始时取一次 rows.snapshot()，只看那一刻已经发布的行，查询中途插入的行不可见
+    */
+    Map<String, Table> tables = new ConcurrentHashMap<>();
+
+    public synchronized void insert(String tableName, List<String> columns, List<String> values) {
+        if (wal != null) {
+            String[] fields = new String[values.size() + 2];
+            fields[0] = tableName;
+            fields[1] = schemaId(columns);
+            for (int i = 0; i < values.size(); i++) fields[i + 2] = values.get(i);
+            log(INSERT, fields);
+        }
+        add(tableName, columns, values);
+        maybeSnapshot();
+    }
+
+    private void add(String tableName, List<String> columns, List<String> values) {
         Table table = tables.get(tableName);
+        if (table == null) {
+            table = new Table();
+            table.name = tableName;
+            tables.put(tableName, table);
+        }
         Row row = new Row();
         for (int i = 0 ; i < columns.size(); i ++) {
             row.map.put(columns.get(i), values.get(i));
@@ -50,6 +449,134 @@ public class InMemoryDB {
         table.rows.add(row);
     }
 
+    /*
+    持久化：open(dir) 之后 insert 先写 WAL 再改内存，格式见 WriteAheadLog
+    - 每行自己带列名，同一组列名第一次出现时写一条 SCHEMA 记录 [id, 列名...]，之后的 INSERT 是 [表名, schema id, 各列的值]
+    - 快照按表写所有行，每行的列名也换成 schema id；快照里的 schema 重新编号，和之后新 WAL 里的编号接着用同一套
+    - snapshotInterval > 0 时 WAL 每攒够这么多条记录自动做一次快照；insert 之后不保证落盘，sync() 之后才保证
+    - 没有 open 的 InMemoryDB 和原来一样只在内存里
+    */
+    static final int SCHEMA = 1, INSERT = 2;
+
+    WriteAheadLog wal;
+    Map<List<String>, String> schemaIds = new HashMap<>();
+    List<List<String>> schemas = new ArrayList<>();
+    long snapshotInterval;
+
+    public static InMemoryDB open(String dir) throws IOException {
+        InMemoryDB sql = new InMemoryDB();
+        WriteAheadLog log = new WriteAheadLog(new File(dir));
+        log.recover((type, fields) -> {
+            if (type == INSERT) {
+                List<String> values = Arrays.asList(Arrays.copyOfRange(fields, 2, fields.length));
+                sql.add(fields[0], sql.schemas.get(Integer.parseInt(fields[1])), values);
+            } else if (type == SCHEMA) {
+                List<String> columns = Arrays.asList(Arrays.copyOfRange(fields, 1, fields.length));
+                sql.defineSchema(Integer.parseInt(fields[0]), columns);
+            } else {
+                throw new IOException("Unknown record type " + type);
+            }
+        });
+        sql.wal = log;
+        return sql;
+    }
+
+    public void setSnapshotInterval(long records) {
+        this.snapshotInterval = records;
+    }
+
+    public synchronized void sync() throws IOException {
+        wal.sync();
+    }
+
+    public synchronized void snapshot() throws IOException {
+        Map<List<String>, String> oldIds = new HashMap<>(schemaIds);
+        List<List<String>> old = new ArrayList<>(schemas);
+        schemaIds.clear();
+        schemas.clear();
+        boolean done = false;
+        try {
+            wal.snapshot(out -> writeSnapshot(out));
+            done = true;
+        } finally {
+            // 快照没写成时恢复用的还是旧快照 + 旧 WAL，之后的记录也要接着用旧编号
+            if (!done) {
+                schemaIds = oldIds;
+                schemas = old;
+            }
+        }
+    }
+
+    private void writeSnapshot(WriteAheadLog.RecordWriter out) throws IOException {
+        for (Table table : tables.values()) {
+            for (Row row : table.rows) {
+                List<String> columns = new ArrayList<>(row.map.keySet());
+                String id = schemaIds.get(columns);
+                if (id == null) id = writeSchema(out::append, columns);
+                String[] fields = new String[columns.size() + 2];
+                fields[0] = table.name;
+                fields[1] = id;
+                for (int i = 0; i < columns.size(); i++) fields[i + 2] = row.map.get(columns.get(i));
+                out.append(INSERT, fields);
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        wal.close();
+        wal = null;
+    }
+
+    // 这组列名的 schema id，第一次出现时先写一条 SCHEMA 记录
+    private String schemaId(List<String> columns) {
+        String id = schemaIds.get(columns);
+        if (id != null) return id;
+        try {
+            return writeSchema(wal::append, columns);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Appender {
+        void append(int type, String... fields) throws IOException;
+    }
+
+    private String writeSchema(Appender out, List<String> columns) throws IOException {
+        List<String> copy = new ArrayList<>(columns);
+        String[] fields = new String[copy.size() + 1];
+        fields[0] = String.valueOf(schemas.size());
+        for (int i = 0; i < copy.size(); i++) fields[i + 1] = copy.get(i);
+        out.append(SCHEMA, fields);
+        return defineSchema(schemas.size(), copy);
+    }
+
+    private String defineSchema(int id, List<String> columns) throws IOException {
+        if (id != schemas.size()) throw new IOException("Schema " + id + " out of order, expected " + schemas.size());
+        schemas.add(columns);
+        String key = String.valueOf(id);
+        schemaIds.put(columns, key);
+        return key;
+    }
+
+    private void log(int type, String... fields) {
+        try {
+            wal.append(type, fields);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 内存已经改完之后才能做快照，不然快照里少了刚写进旧 WAL 的这一条
+    private void maybeSnapshot() {
+        if (wal == null || snapshotInterval <= 0 || wal.appendedSinceSnapshot() < snapshotInterval) return;
+        try {
+            snapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public boolean where(Row row, String condition, String logic) {
         if (condition == null) return true;
 
@@ -82,12 +609,12 @@ public class InMemoryDB {
     }
 
     public List<Row> select(String tableName, Map<String, String> conditions, List<String> order, List<String> columns) {
-        Table table = tables.get(tableName);
+        List<Row> rows = tables.get(tableName).rows.snapshot();
         List<Row> result = new ArrayList<>();
         if (conditions.size() > 0) {
             String logic = conditions.get("logic");
             String condition = conditions.get("condition");
-            for (Row row : table.rows) {
+            for (Row row : rows) {
                 if (where(row, condition, logic)) {
                     result.add(row);
                 }
@@ -97,6 +624,10 @@ public class InMemoryDB {
             order(result, order.get(0), order.get(1));
         }
 
+        return project(result, columns);
+    }
+
+    private List<Row> project(List<Row> result, List<String> columns) {
         if (columns!= null ) {
             List<Row> newRes = new ArrayList<>();
             for (Row row: result) {
@@ -113,6 +644,479 @@ public class InMemoryDB {
         return result;
     }
 
+    /*
+    LIMIT k：扫描时只留一个大小为 k 的堆（存行下标），堆顶是目前留下的最差的一行
+    - 新行比堆顶好才换进去，O(n log k) 时间、O(k) 内存，只有最后的 k 行做投影
+    - 比较器最后按行下标比，和 order 的稳定排序再取前 k 行结果一样
+    - 没有 order 时就是前 k 个命中的行，扫到 k 行就停
+    - 并行时每个叶子任务一个堆，叶子大约是每个线程 4 段，两边排好序的前 k 归并后再取前 k
+    */
+    public List<Row> select(String tableName, Map<String, String> conditions, List<String> order,
+                            List<String> columns, int limit) {
+        if (limit < 0) return select(tableName, conditions, order, columns);
+        List<Row> rows = tables.get(tableName).rows.snapshot();
+        List<Row> result = new ArrayList<>();
+        if (conditions.size() > 0) {
+            String logic = conditions.get("logic");
+            String condition = conditions.get("condition");
+            if (order == null) {
+                for (int i = 0; i < rows.size() && result.size() < limit; i++) {
+                    if (where(rows.get(i), condition, logic)) result.add(rows.get(i));
+                }
+            } else {
+                TopK top = new TopK(limit, comparator(rows, order));
+                for (int i = 0; i < rows.size(); i++) {
+                    if (where(rows.get(i), condition, logic)) top.offer(i);
+                }
+                for (int i : top.sorted()) result.add(rows.get(i));
+            }
+        }
+        return project(result, columns);
+    }
+
+    public List<Row> selectParallel(String tableName, Map<String, String> conditions, List<String> order,
+                                    List<String> columns, int limit, ForkJoinPool pool) {
+        if (limit < 0) return selectParallel(tableName, conditions, order, columns, pool);
+        List<Row> rows = tables.get(tableName).rows.snapshot();
+        List<Row> result = new ArrayList<>();
+        if (conditions.size() > 0) {
+            Comparator<Integer> comparator = order == null ? Comparator.naturalOrder() : comparator(rows, order);
+            int leaf = Math.max(FilterTask.THRESHOLD, rows.size() / (4 * pool.getParallelism()));
+            List<Integer> top = pool.invoke(new TopKTask(rows, conditions.get("condition"), conditions.get("logic"),
+                    comparator, limit, leaf, 0, rows.size()));
+            for (int i : top) result.add(rows.get(i));
+        }
+        return project(result, columns);
+    }
+
+    // 行下标上的比较器：先按 order 列，相等时按下标
+    private static Comparator<Integer> comparator(List<Row> rows, List<String> order) {
+        String column = order.get(0);
+        boolean increase = order.get(1).equals("increase");
+        return (a, b) -> {
+            int cmp = rows.get(a).map.get(column).compareTo(rows.get(b).map.get(column));
+            if (cmp != 0) return increase ? cmp : -cmp;
+            return Integer.compare(a, b);
+        };
+    }
+
+    static class TopK {
+        final int k;
+        final Comparator<Integer> comparator;
+        final PriorityQueue<Integer> heap;
+
+        TopK(int k, Comparator<Integer> comparator) {
+            this.k = k;
+            this.comparator = comparator;
+            this.heap = new PriorityQueue<>(Math.min(Math.max(k, 1), 1 << 16), comparator.reversed());
+        }
+
+        void offer(int row) {
+            if (heap.size() < k) {
+                heap.add(row);
+            } else if (k > 0 && comparator.compare(row, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(row);
+            }
+        }
+
+        // 从好到差
+        List<Integer> sorted() {
+            List<Integer> out = new ArrayList<>(heap);
+            out.sort(comparator);
+            return out;
+        }
+
+        static List<Integer> merge(List<Integer> a, List<Integer> b, int k, Comparator<Integer> comparator) {
+            List<Integer> out = new ArrayList<>(Math.min(k, a.size() + b.size()));
+            int i = 0;
+            int j = 0;
+            while (out.size() < k && (i < a.size() || j < b.size())) {
+                if (j == b.size() || (i < a.size() && comparator.compare(a.get(i), b.get(j)) <= 0)) {
+                    out.add(a.get(i++));
+                } else {
+                    out.add(b.get(j++));
+                }
+            }
+            return out;
+        }
+    }
+
+    class TopKTask extends RecursiveTask<List<Integer>> {
+        private static final long serialVersionUID = 1L;
+
+        final List<Row> rows;
+        final String condition;
+        final String logic;
+        final Comparator<Integer> comparator;
+        final int k;
+        final int leaf;
+        final int lo;
+        final int hi;
+
+        TopKTask(List<Row> rows, String condition, String logic, Comparator<Integer> comparator, int k, int leaf,
+                 int lo, int hi) {
+            this.rows = rows;
+            this.condition = condition;
+            this.logic = logic;
+            this.comparator = comparator;
+            this.k = k;
+            this.leaf = leaf;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected List<Integer> compute() {
+            if (hi - lo <= leaf) {
+                TopK top = new TopK(k, comparator);
+                for (int i = lo; i < hi; i++) {
+                    if (where(rows.get(i), condition, logic)) top.offer(i);
+                }
+                return top.sorted();
+            }
+            int mid = (lo + hi) >>> 1;
+            TopKTask left = new TopKTask(rows, condition, logic, comparator, k, leaf, lo, mid);
+            left.fork();
+            List<Integer> right = new TopKTask(rows, condition, logic, comparator, k, leaf, mid, hi).compute();
+            return TopK.merge(left.join(), right, k, comparator);
+        }
+    }
+
+    /*
+    并行版 select，结果和 select 一样
+    - 过滤：rows 按区间拆成 fork-join 任务，每段返回命中的下标，按顺序拼回去
+    - 排序：排序列先解码成字典序的稠密 rank，rank 放 long 的高 32 位、结果里的位置放低 32 位（保证稳定），
+      ParallelSort 在同一个 pool 上排 long[]，比较器里不再碰字符串
+    */
+    public List<Row> selectParallel(String tableName, Map<String, String> conditions, List<String> order,
+                                    List<String> columns, ForkJoinPool pool) {
+        List<Row> rows = tables.get(tableName).rows.snapshot();
+        List<Row> result = new ArrayList<>();
+        if (conditions.size() > 0) {
+            int[] ids = pool.invoke(new FilterTask(rows, conditions.get("condition"), conditions.get("logic"),
+                    0, rows.size()));
+            if (order != null) {
+                ids = orderParallel(rows, ids, order.get(0), order.get(1).equals("increase"), pool);
+            }
+            for (int id : ids) result.add(rows.get(id));
+        }
+        return project(result, columns);
+    }
+
+    class FilterTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        static final int THRESHOLD = 1 << 14;
+        final List<Row> rows;
+        final String condition;
+        final String logic;
+        final int lo;
+        final int hi;
+
+        FilterTask(List<Row> rows, String condition, String logic, int lo, int hi) {
+            this.rows = rows;
+            this.condition = condition;
+            this.logic = logic;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (hi - lo <= THRESHOLD) {
+                int[] out = new int[hi - lo];
+                int n = 0;
+                for (int i = lo; i < hi; i++) {
+                    if (where(rows.get(i), condition, logic)) out[n++] = i;
+                }
+                return Arrays.copyOf(out, n);
+            }
+            int mid = (lo + hi) >>> 1;
+            FilterTask left = new FilterTask(rows, condition, logic, lo, mid);
+            left.fork();
+            int[] right = new FilterTask(rows, condition, logic, mid, hi).compute();
+            int[] l = left.join();
+            int[] out = Arrays.copyOf(l, l.length + right.length);
+            System.arraycopy(right, 0, out, l.length, right.length);
+            return out;
+        }
+    }
+
+    private int[] orderParallel(List<Row> rows, int[] ids, String column, boolean increase, ForkJoinPool pool) {
+        int m = ids.length;
+        String[] values = new String[m];
+        Map<String, Integer> rankOf = new HashMap<>();
+        for (int i = 0; i < m; i++) {
+            values[i] = rows.get(ids[i]).map.get(column);
+            rankOf.put(values[i], 0);
+        }
+        String[] distinct = rankOf.keySet().toArray(new String[0]);
+        Arrays.sort(distinct);
+        for (int i = 0; i < distinct.length; i++) rankOf.put(distinct[i], increase ? i : distinct.length - 1 - i);
+        long[] keys = new long[m];
+        for (int i = 0; i < m; i++) keys[i] = ((long) rankOf.get(values[i]) << 32) | i;
+        ParallelSort.sort(keys, pool);
+        int[] out = new int[m];
+        for (int i = 0; i < m; i++) out[i] = ids[(int) keys[i]];
+        return out;
+    }
+
+    /*
+    JOIN right ON left.leftColumn = right.rightColumn，build / probe 的哈希 join
+    - 右表是 build 侧：每行的值放进 KeyTable 拿到编号，同一个值的行用 head / next 数组串成下标递增的链表
+    - 左表是 probe 侧：每行查一次 KeyTable，沿链表输出 [左行, 右行]，顺序和嵌套循环（外层左表、内层右表）一样
+    - 和 compare 的 "=" 一样是字符串相等；缺这一列的行不参与 join
+    */
+    public List<Row[]> join(String leftTable, String leftColumn, String rightTable, String rightColumn) {
+        List<Row> left = tables.get(leftTable).rows.snapshot();
+        List<Row> right = tables.get(rightTable).rows.snapshot();
+        KeyTable keys = new KeyTable();
+        int[] head = new int[16];
+        int[] tail = new int[16];
+        int[] next = new int[right.size()];
+        for (int i = 0; i < right.size(); i++) {
+            String value = right.get(i).map.get(rightColumn);
+            if (value == null) continue;
+            int size = keys.size();
+            int g = keys.getOrAdd(value, false, 0);
+            next[i] = -1;
+            if (g == size) {
+                if (g == head.length) {
+                    head = Arrays.copyOf(head, g * 2);
+                    tail = Arrays.copyOf(tail, g * 2);
+                }
+                head[g] = i;
+            } else {
+                next[tail[g]] = i;
+            }
+            tail[g] = i;
+        }
+        List<Row[]> result = new ArrayList<>();
+        for (Row row : left) {
+            String value = row.map.get(leftColumn);
+            int g = value == null ? -1 : keys.find(value, false, 0);
+            if (g < 0) continue;
+            for (int r = head[g]; r != -1; r = next[r]) result.add(new Row[]{row, right.get(r)});
+        }
+        return result;
+    }
+
+    /*
+    GROUP BY groupColumn，aggregates 是 "COUNT"、"SUM(col)"、"MIN(col)"、"MAX(col)"、"AVG(col)"
+    - 每个组一个 KeyTable 编号，聚合状态是按编号索引的 long[]，不为每个组建对象
+    - 组按字符串值分；缺 groupColumn 的行归到值为 null 的一组
+    - SUM / MIN / MAX / AVG 只算能 parse 成 long 的值，组里没有数字时 MIN / MAX / AVG 是 null；COUNT 是行数
+    - conditions 为 null 或者空时不过滤（select 里空的 conditions 什么都不返回，这里不跟）
+    - 结果每组一个 Row：groupColumn 和每个聚合（key 就是聚合的写法，比如 "SUM(price)"），按组第一次出现的行排
+    - pool 不为 null 时分两步：表按连续区间切成每个线程约 4 段，各段局部聚合；
+      再把各段的组按 key 的 hash 分区，每个分区一个任务合并，分区之间没有相同的 key
+    */
+    public List<Row> groupBy(String tableName, Map<String, String> conditions, String groupColumn,
+                             List<String> aggregates, ForkJoinPool pool) {
+        List<Row> rows = tables.get(tableName).rows.snapshot();
+        String condition = conditions == null ? null : conditions.get("condition");
+        String logic = conditions == null ? null : conditions.get("logic");
+        int[] funcs = new int[aggregates.size()];
+        String[] columns = new String[aggregates.size()];
+        for (int a = 0; a < funcs.length; a++) {
+            String spec = aggregates.get(a);
+            int open = spec.indexOf('(');
+            funcs[a] = Arrays.asList("COUNT", "SUM", "MIN", "MAX", "AVG").indexOf(open < 0 ? spec : spec.substring(0, open));
+            if (funcs[a] < 0) throw new IllegalArgumentException("Unknown aggregate " + spec);
+            columns[a] = open < 0 ? null : spec.substring(open + 1, spec.length() - 1);
+        }
+        List<Aggregation> parts;
+        if (pool == null) {
+            Aggregation all = new Aggregation(groupColumn, funcs, columns);
+            for (int i = 0; i < rows.size(); i++) {
+                if (where(rows.get(i), condition, logic)) all.add(rows.get(i), i);
+            }
+            parts = Collections.singletonList(all);
+        } else {
+            int n = rows.size();
+            int ranges = Math.max(1, Math.min(pool.getParallelism() * 4, n / (1 << 14)));
+            List<Callable<Aggregation>> scans = new ArrayList<>();
+            for (int r = 0; r < ranges; r++) {
+                int lo = (int) ((long) n * r / ranges);
+                int hi = (int) ((long) n * (r + 1) / ranges);
+                scans.add(() -> {
+                    Aggregation local = new Aggregation(groupColumn, funcs, columns);
+                    for (int i = lo; i < hi; i++) {
+                        if (where(rows.get(i), condition, logic)) local.add(rows.get(i), i);
+                    }
+                    return local;
+                });
+            }
+            List<Aggregation> locals = invokeAll(pool, scans);
+            int partitions = Integer.highestOneBit(pool.getParallelism() * 4 - 1) << 1;
+            List<Callable<Aggregation>> merges = new ArrayList<>();
+            for (int p = 0; p < partitions; p++) {
+                int mine = p;
+                merges.add(() -> {
+                    Aggregation merged = new Aggregation(groupColumn, funcs, columns);
+                    for (Aggregation local : locals) {
+                        for (int g = 0; g < local.keys.size(); g++) {
+                            if (partition(local.keys.hash(g), partitions) == mine) merged.merge(local, g);
+                        }
+                    }
+                    return merged;
+                });
+            }
+            parts = invokeAll(pool, merges);
+        }
+        List<long[]> order = new ArrayList<>();
+        for (int p = 0; p < parts.size(); p++) {
+            for (int g = 0; g < parts.get(p).keys.size(); g++) order.add(new long[]{parts.get(p).firstRow[g], p, g});
+        }
+        order.sort((a, b) -> Long.compare(a[0], b[0]));
+        List<Row> result = new ArrayList<>(order.size());
+        for (long[] o : order) {
+            Aggregation part = parts.get((int) o[1]);
+            Row row = part.output((int) o[2], aggregates);
+            row.map.put(groupColumn, rows.get(part.firstRow[(int) o[2]]).map.get(groupColumn));
+            result.add(row);
+        }
+        return result;
+    }
+
+    // KeyTable 用 hash 的低位找槽，分区用重新混过的高位，不然同一个分区里的 key 在槽里挤在一起
+    private static int partition(int hash, int partitions) {
+        return (int) (((hash * 0x9E3779B9L) & 0xFFFFFFFFL) * partitions >>> 32);
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) {
+        List<T> out = new ArrayList<>(tasks.size());
+        for (Future<T> f : pool.invokeAll(tasks)) {
+            try {
+                out.add(f.get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return out;
+    }
+
+    static final long NOT_NUMBER = Long.MIN_VALUE;
+
+    // -?\d+ 并且在 long 范围内才是数字，否则返回 NOT_NUMBER；不抛异常
+    static long number(String s) {
+        if (s == null) return NOT_NUMBER;
+        int len = s.length();
+        int i = len > 0 && s.charAt(0) == '-' ? 1 : 0;
+        if (i == len) return NOT_NUMBER;
+        long n = 0;
+        for (int k = i; k < len; k++) {
+            int d = s.charAt(k) - '0';
+            if (d < 0 || d > 9) return NOT_NUMBER;
+            n = n * 10 + d;
+        }
+        if (len - i > 18) {
+            // 19 位以上可能溢出，少见，交给 Long.parseLong 判断
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                return NOT_NUMBER;
+            }
+        }
+        return i == 1 ? -n : n;
+    }
+
+    // 一组行上的聚合；状态数组按 KeyTable 的编号索引
+    class Aggregation {
+        static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3, AVG = 4;
+        final String groupColumn;
+        final int[] funcs;
+        final String[] columns;
+        final KeyTable keys = new KeyTable();
+        int[] firstRow = new int[16];
+        long[] rows = new long[16];
+        long[][] counts;  // 每个聚合列上能 parse 的值的个数
+        long[][] values;  // SUM / AVG 是和，MIN / MAX 是当前最值
+
+        Aggregation(String groupColumn, int[] funcs, String[] columns) {
+            this.groupColumn = groupColumn;
+            this.funcs = funcs;
+            this.columns = columns;
+            this.counts = new long[funcs.length][16];
+            this.values = new long[funcs.length][16];
+        }
+
+        void add(Row row, int index) {
+            String key = row.map.get(groupColumn);
+            int size = keys.size();
+            int g = key == null ? keys.getOrAdd(null, true, 0) : keys.getOrAdd(key, false, 0);
+            if (g == size) {
+                if (g == rows.length) grow();
+                firstRow[g] = index;
+            }
+            rows[g]++;
+            String lastColumn = null;
+            long v = NOT_NUMBER;
+            for (int a = 0; a < funcs.length; a++) {
+                if (funcs[a] == COUNT) continue;
+                if (!columns[a].equals(lastColumn)) {
+                    lastColumn = columns[a];
+                    v = number(row.map.get(lastColumn));
+                }
+                if (v == NOT_NUMBER) continue;
+                if (counts[a][g]++ == 0) values[a][g] = v;
+                else combine(a, g, v);
+            }
+        }
+
+        // 把 other 的第 g 组并进来
+        void merge(Aggregation other, int g) {
+            int size = keys.size();
+            int mine = keys.getOrAdd(other.keys, g);
+            if (mine == size) {
+                if (mine == rows.length) grow();
+                firstRow[mine] = other.firstRow[g];
+            } else {
+                firstRow[mine] = Math.min(firstRow[mine], other.firstRow[g]);
+            }
+            rows[mine] += other.rows[g];
+            for (int a = 0; a < funcs.length; a++) {
+                long count = other.counts[a][g];
+                if (count == 0) continue;
+                if (counts[a][mine] == 0) values[a][mine] = other.values[a][g];
+                else combine(a, mine, other.values[a][g]);
+                counts[a][mine] += count;
+            }
+        }
+
+        private void combine(int a, int g, long v) {
+            if (funcs[a] == MIN) values[a][g] = Math.min(values[a][g], v);
+            else if (funcs[a] == MAX) values[a][g] = Math.max(values[a][g], v);
+            else values[a][g] += v;
+        }
+
+        private void grow() {
+            int cap = rows.length * 2;
+            firstRow = Arrays.copyOf(firstRow, cap);
+            rows = Arrays.copyOf(rows, cap);
+            for (int a = 0; a < funcs.length; a++) {
+                counts[a] = Arrays.copyOf(counts[a], cap);
+                values[a] = Arrays.copyOf(values[a], cap);
+            }
+        }
+
+        // 聚合部分，groupColumn 由调用方填
+        Row output(int g, List<String> names) {
+            Row out = new Row();
+            for (int a = 0; a < funcs.length; a++) {
+                String value;
+                if (funcs[a] == COUNT) value = String.valueOf(rows[g]);
+                else if (funcs[a] == SUM) value = String.valueOf(values[a][g]);
+                else if (counts[a][g] == 0) value = null;
+                else if (funcs[a] == AVG) value = String.valueOf((double) values[a][g] / counts[a][g]);
+                else value = String.valueOf(values[a][g]);
+                out.map.put(names.get(a), value);
+            }
+            return out;
+        }
+    }
+
     public void order(List<Row> rows, String column, String condition) {
         Collections.sort(rows, (a, b) -> {
             if (condition.equals("increase")) {
@@ -125,7 +1129,7 @@ public class InMemoryDB {
 
     class Table {
         String name;
-        List<Row> rows = new ArrayList<>();
+        RowStore<Row> rows = new RowStore<>();
 
     }
 
@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+class IntArrayResumableIterator implements IntResumableIterator {
+    private final int[] values;
+    private int index;
+
+    public IntArrayResumableIterator(int[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < values.length;
+    }
+
+    @Override
+    public int nextInt() {
+        if (index >= values.length) throw new NoSuchElementException();
+        return values[index++];
+    }
+
+    @Override
+    public int nextBatch(int[] dst, int off, int len) {
+        if (len <= 0) throw new IllegalArgumentException("len must be positive: " + len);
+        int n = Math.min(len, values.length - index);
+        System.arraycopy(values, index, dst, off, n);
+        index += n;
+        return n;
+    }
+
+    @Override
+    public State getState() {
+        return new ListResumableIterator.ListState(index);
+    }
+
+    @Override
+    public void setState(State state) {
+        if (!(state instanceof ListResumableIterator.ListState)) throw new IllegalArgumentException("Invalid state");
+        this.index = ((ListResumableIterator.ListState) state).getIndex();
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int[] values = new int[n];
+        List<Integer> boxed = new ArrayList<>(n);
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            values[i] = i;
+            boxed.add(i);
+            if (i % 1000 == 0) rows.add(new ArrayList<>());
+            rows.get(rows.size() - 1).add(i);
+        }
+
+        // 状态语义：批量和逐个走同样的步数，状态一样，恢复后继续的元素一样
+        IntArrayResumableIterator a = new IntArrayResumableIterator(values);
+        int[] buf = new int[7];
+        a.nextBatch(buf, 0, buf.length);
+        State s = a.getState();
+        TwoDResumableIterator<Integer> twoD = new TwoDResumableIterator<>(rows);
+        twoD.nextBatch(2000);
+        twoD.nextBatch(5);
+        if (twoD.next() != 1005 || a.nextInt() != 7) throw new AssertionError("batch state");
+        a.setState(s);
+        if (a.nextInt() != 7) throw new AssertionError("restore after batch");
+        // max <= 0 在默认实现和 subList 实现里一样被拒绝，不会和"结束"的空列表混在一起
+        List<ResumableIterator<Integer>> batchers = List.of(new ListResumableIterator<>(boxed), twoD,
+                new MultiResumableIterator<>(List.of(new ListResumableIterator<>(boxed))), new IntArrayResumableIterator(values));
+        for (ResumableIterator<Integer> it : batchers) {
+            for (int max : new int[]{0, -1}) {
+                try {
+                    it.nextBatch(max);
+                    throw new AssertionError(it.getClass().getSimpleName() + " accepted nextBatch(" + max + ")");
+                } catch (IllegalArgumentException expected) {
+                }
+            }
+        }
+        // nextBatch(dst, off, len) 同样：len <= 0 不能返回 0，0 表示结束
+        for (int len : new int[]{0, -1}) {
+            try {
+                a.nextBatch(buf, 0, len);
+                throw new AssertionError("IntArrayResumableIterator accepted nextBatch(dst, 0, " + len + ")");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+
+        long expected = (long) n * (n - 1) / 2;
+        List<List<Integer>> matrix = rows;
+        int[] values0 = values;
+        report("List next", n, expected, () -> {
+            long sum = 0;
+            ListResumableIterator<Integer> it = new ListResumableIterator<>(boxed);
+            while (it.hasNext()) sum += it.next();
+            return sum;
+        });
+        report("List nextBatch", n, expected, () -> {
+            long sum = 0;
+            ListResumableIterator<Integer> it = new ListResumableIterator<>(boxed);
+            for (List<Integer> batch = it.nextBatch(1024); !batch.isEmpty(); batch = it.nextBatch(1024)) {
+                for (int v : batch) sum += v;
+            }
+            return sum;
+        });
+        report("TwoD next", n, expected, () -> {
+            long sum = 0;
+            TwoDResumableIterator<Integer> it = new TwoDResumableIterator<>(matrix);
+            while (it.hasNext()) sum += it.next();
+            return sum;
+        });
+        report("TwoD nextBatch", n, expected, () -> {
+            long sum = 0;
+            TwoDResumableIterator<Integer> it = new TwoDResumableIterator<>(matrix);
+            for (List<Integer> batch = it.nextBatch(1024); !batch.isEmpty(); batch = it.nextBatch(1024)) {
+                for (int v : batch) sum += v;
+            }
+            return sum;
+        });
+        report("int[] nextInt", n, expected, () -> {
+            long sum = 0;
+            IntArrayResumableIterator it = new IntArrayResumableIterator(values0);
+            while (it.hasNext()) sum += it.nextInt();
+            return sum;
+        });
+        report("int[] nextBatch", n, expected, () -> {
+            long sum = 0;
+            IntArrayResumableIterator it = new IntArrayResumableIterator(values0);
+            int[] chunk = new int[1024];
+            for (int k = it.nextBatch(chunk, 0, chunk.length); k > 0; k = it.nextBatch(chunk, 0, chunk.length)) {
+                for (int i = 0; i < k; i++) sum += chunk[i];
+            }
+            return sum;
+        });
+    }
+
+    // 跑 5 轮取最快的一轮，避开 JIT 预热
+    private static void report(String name, int n, long expected, java.util.function.LongSupplier run) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long sum = run.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+            if (sum != expected) throw new AssertionError(name + " sum " + sum);
+        }
+        System.out.printf("%-16s %,.0f elements/s%n", name, n * 1e9 / best);
+    }
+}
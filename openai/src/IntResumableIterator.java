@@ -0,0 +1,17 @@
+/*
+follow up：数值流水线不要装箱
+- nextInt() 不返回 Integer；nextBatch(dst, off, len) 一次拷贝一段到调用方的 int[]
+- 状态和 ListResumableIterator 一样就是下标（复用 ListState），所以 BinaryStateCodec 可以直接编码，
+  批量读之后的状态和逐个 next() 同样次数之后完全相同
+*/
+public interface IntResumableIterator extends ResumableIterator<Integer> {
+    int nextInt();
+
+    // 最多拷贝 len 个到 dst[off..]，返回实际个数，0 表示结束；len <= 0 抛 IllegalArgumentException
+    int nextBatch(int[] dst, int off, int len);
+
+    @Override
+    default Integer next() {
+        return nextInt();
+    }
+}
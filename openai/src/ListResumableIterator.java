@@ -0,0 +1,57 @@
+import java.util.List;
+
+class ListResumableIterator<T> implements ResumableIterator<T> {
+
+    private final List<T> list;
+    private int index;
+
+    public ListResumableIterator(List<T> list) {
+        this.list = list;
+        this.index = 0;
+    }
+
+    @Override
+    public State getState() {
+        return new ListState(index);
+    }
+
+    @Override
+    public void setState(State state) {
+        this.index = ((ListState) state).index;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < list.size();
+    }
+
+    @Override
+    public T next() {
+        if (hasNext()) {
+            return list.get(index++);
+        }
+        return null;
+    }
+
+    // 直接返回 subList 视图，不拷贝
+    @Override
+    public List<T> nextBatch(int max) {
+        if (max <= 0) throw new IllegalArgumentException("max must be positive: " + max);
+        int end = (int) Math.min((long) index + max, list.size());
+        List<T> batch = list.subList(index, end);
+        index = end;
+        return batch;
+    }
+
+    static class ListState implements State {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+
+        public ListState(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() { return index; }
+    }
+}
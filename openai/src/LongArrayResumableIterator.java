@@ -0,0 +1,87 @@
+import java.util.NoSuchElementException;
+
+class LongArrayResumableIterator implements LongResumableIterator {
+    private final long[] values;
+    private int index;
+
+    public LongArrayResumableIterator(long[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < values.length;
+    }
+
+    @Override
+    public long nextLong() {
+        if (index >= values.length) throw new NoSuchElementException();
+        return values[index++];
+    }
+
+    @Override
+    public int nextBatch(long[] dst, int off, int len) {
+        if (len <= 0) throw new IllegalArgumentException("len must be positive: " + len);
+        int n = Math.min(len, values.length - index);
+        System.arraycopy(values, index, dst, off, n);
+        index += n;
+        return n;
+    }
+
+    @Override
+    public State getState() {
+        return new ListResumableIterator.ListState(index);
+    }
+
+    @Override
+    public void setState(State state) {
+        if (!(state instanceof ListResumableIterator.ListState)) throw new IllegalArgumentException("Invalid state");
+        this.index = ((ListResumableIterator.ListState) state).getIndex();
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) values[i] = (long) i << 20;
+
+        // 批量和逐个走同样的步数，状态一样；状态经过 BinaryStateCodec 编码后恢复也一样
+        LongArrayResumableIterator batched = new LongArrayResumableIterator(values);
+        LongArrayResumableIterator single = new LongArrayResumableIterator(values);
+        long[] buf = new long[7];
+        if (batched.nextBatch(buf, 0, buf.length) != 7 || buf[6] != 6L << 20) throw new AssertionError("batch content");
+        for (int i = 0; i < 7; i++) single.nextLong();
+        StateCodec codec = new BinaryStateCodec();
+        State s = codec.decode(codec.encode(batched.getState()));
+        if (batched.nextLong() != single.nextLong()) throw new AssertionError("batch state");
+        batched.setState(s);
+        if (batched.nextLong() != 7L << 20) throw new AssertionError("restore after batch");
+        LongArrayResumableIterator tail = new LongArrayResumableIterator(new long[]{1, 2, 3});
+        if (tail.nextBatch(buf, 5, 2) != 2 || tail.nextBatch(buf, 0, 7) != 1 || tail.nextBatch(buf, 0, 7) != 0 || tail.hasNext()) {
+            throw new AssertionError("batch at the end");
+        }
+        for (int len : new int[]{0, -1}) {
+            try {
+                batched.nextBatch(buf, 0, len);
+                throw new AssertionError("LongArrayResumableIterator accepted nextBatch(dst, 0, " + len + ")");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            LongArrayResumableIterator it = new LongArrayResumableIterator(values);
+            while (it.hasNext()) sum += it.next();
+            long boxedNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            it = new LongArrayResumableIterator(values);
+            long[] chunk = new long[1024];
+            for (int k = it.nextBatch(chunk, 0, chunk.length); k > 0; k = it.nextBatch(chunk, 0, chunk.length)) {
+                for (int i = 0; i < k; i++) sum -= chunk[i];
+            }
+            long batchNanos = System.nanoTime() - start;
+            if (sum != 0) throw new AssertionError("different elements");
+            System.out.printf("long[] %,d: next() %,.0f /s, nextBatch %,.0f /s%n", n, n * 1e9 / boxedNanos, n * 1e9 / batchNanos);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+// IntResumableIterator 的 long 版本
+public interface LongResumableIterator extends ResumableIterator<Long> {
+    long nextLong();
+
+    // 最多拷贝 len 个到 dst[off..]，返回实际个数，0 表示结束；len <= 0 抛 IllegalArgumentException
+    int nextBatch(long[] dst, int off, int len);
+
+    @Override
+    default Long next() {
+        return nextLong();
+    }
+}
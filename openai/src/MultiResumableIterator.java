@@ -0,0 +1,75 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// MultiResumableIterator 实现
+class MultiResumableIterator<T> implements ResumableIterator<T> {
+    private final List<ResumableIterator<T>> iterators;
+    private int currentIdx;
+
+    public MultiResumableIterator(List<ResumableIterator<T>> iterators) {
+        this.iterators = iterators;
+        this.currentIdx = 0;
+        skipEmpty();
+    }
+
+    private void skipEmpty() {
+        while (currentIdx < iterators.size() && !iterators.get(currentIdx).hasNext()) {
+            currentIdx++;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        skipEmpty();
+        return currentIdx < iterators.size();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return iterators.get(currentIdx).next();
+    }
+
+    // 只从当前子迭代器取，状态仍然是 (currentIdx, 子状态)
+    @Override
+    public List<T> nextBatch(int max) {
+        if (max <= 0) throw new IllegalArgumentException("max must be positive: " + max);
+        if (!hasNext())
+            return Collections.emptyList();
+        return iterators.get(currentIdx).nextBatch(max);
+    }
+
+    @Override
+    public State getState() {
+        return new MultiState(
+                currentIdx,
+                currentIdx < iterators.size() ? iterators.get(currentIdx).getState() : null);
+    }
+
+    @Override
+    public void setState(State state) {
+        if (!(state instanceof MultiState))
+            throw new IllegalArgumentException("Invalid state");
+        MultiState ms = (MultiState) state;
+        this.currentIdx = ms.iteratorIndex;
+        if (this.currentIdx < iterators.size() && ms.innerState != null) {
+            iterators.get(this.currentIdx).setState(ms.innerState);
+        }
+    }
+
+    public static class MultiState implements State {
+        private static final long serialVersionUID = 1L;
+        private final int iteratorIndex;
+        private final State innerState;
+
+        public MultiState(int iteratorIndex, State innerState) {
+            this.iteratorIndex = iteratorIndex;
+            this.innerState = innerState;
+        }
+
+        public int getIteratorIndex() { return iteratorIndex; }
+        public State getInnerState() { return innerState; }
+    }
+}
@@ -0,0 +1,324 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+第三问 follow up：同时消费很多个日志分片
+MultiResumableIterator 一个一个读子迭代器，状态里只有一个 iteratorIndex。
+
+- 每个子迭代器一个 worker（executor 要能同时跑 children.size() 个任务），
+  批量读出 (元素, 读完后的子状态) 放进共享的有界队列，消费者从队列里取
+- 状态是一个向量：每个子迭代器“已经交给调用方的最后一个元素之后”的状态。
+  向量只在消费者线程 next() 时更新，getState() 拷贝一份就是一个一致的快照
+- setState：停掉所有 worker、清空队列，逐个子迭代器 setState，再重启 worker
+- 可选按 comparator（比如时间戳）归并：每个子迭代器包一层 PrefetchingResumableIterator，
+  用小顶堆做 k 路归并（要求每个分片内部已经有序）。堆里的队头元素还没交出去，
+  所以它对应分片的状态仍然停在队头之前
+*/
+public class ParallelMultiResumableIterator<T> implements ResumableIterator<T> {
+    private static final Object[] NO_ITEMS = new Object[0];
+
+    private final List<ResumableIterator<T>> children;
+    private final Executor executor;
+    private final Comparator<? super T> order;
+    private final State[] consumed;
+
+    // 无序模式
+    private final int batchSize;
+    private final ArrayBlockingQueue<Batch> queue;
+    private Batch current;
+    private int currentPos;
+    private int finished;
+    private volatile boolean stopped;
+    private CountDownLatch workersDone;
+
+    // 有序模式
+    private List<PrefetchingResumableIterator<T>> prefetchers;
+    private PriorityQueue<Head<T>> heads;
+
+    public ParallelMultiResumableIterator(List<ResumableIterator<T>> children, Executor executor) {
+        this(children, executor, null);
+    }
+
+    // order 不为 null 时按 order 归并输出
+    public ParallelMultiResumableIterator(List<ResumableIterator<T>> children, Executor executor,
+                                          Comparator<? super T> order) {
+        this.children = children;
+        this.executor = executor;
+        this.order = order;
+        this.consumed = new State[children.size()];
+        for (int i = 0; i < consumed.length; i++) consumed[i] = children.get(i).getState();
+        this.batchSize = 256;
+        this.queue = new ArrayBlockingQueue<>(Math.max(4, 2 * children.size()));
+        if (order == null) {
+            startWorkers();
+        } else {
+            prefetchers = new ArrayList<>();
+            for (ResumableIterator<T> child : children) {
+                prefetchers.add(new PrefetchingResumableIterator<>(child, executor));
+            }
+            fillHeads();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (order != null) return !heads.isEmpty();
+        return fill();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (order != null) {
+            Head<T> h = heads.poll();
+            if (h == null) throw new NoSuchElementException();
+            consumed[h.child] = h.after;
+            pullHead(h.child);
+            return h.item;
+        }
+        if (!fill()) throw new NoSuchElementException();
+        T item = (T) current.items[currentPos];
+        consumed[current.child] = current.states[currentPos];
+        current.items[currentPos++] = null;
+        return item;
+    }
+
+    @Override
+    public State getState() {
+        return new VectorState(consumed.clone());
+    }
+
+    @Override
+    public void setState(State state) {
+        if (!(state instanceof VectorState)) throw new IllegalArgumentException("Invalid state");
+        State[] states = ((VectorState) state).getStates();
+        if (states.length != children.size()) throw new IllegalArgumentException("State has " + states.length
+                + " children, iterator has " + children.size());
+        if (order != null) {
+            for (int i = 0; i < states.length; i++) prefetchers.get(i).setState(states[i]);
+            System.arraycopy(states, 0, consumed, 0, states.length);
+            fillHeads();
+            return;
+        }
+        stopWorkers();
+        for (int i = 0; i < states.length; i++) children.get(i).setState(states[i]);
+        System.arraycopy(states, 0, consumed, 0, states.length);
+        startWorkers();
+    }
+
+    public void close() {
+        if (order != null) {
+            for (PrefetchingResumableIterator<T> p : prefetchers) p.close();
+        } else {
+            stopWorkers();
+        }
+    }
+
+    private void fillHeads() {
+        heads = new PriorityQueue<>(Math.max(1, children.size()), (a, b) -> {
+            int c = order.compare(a.item, b.item);
+            return c != 0 ? c : Integer.compare(a.child, b.child);
+        });
+        for (int i = 0; i < prefetchers.size(); i++) pullHead(i);
+    }
+
+    private void pullHead(int child) {
+        PrefetchingResumableIterator<T> p = prefetchers.get(child);
+        if (p.hasNext()) {
+            T item = p.next();
+            heads.add(new Head<>(item, child, p.getState()));
+        }
+    }
+
+    private void startWorkers() {
+        stopped = false;
+        current = new Batch(-1, NO_ITEMS, null, 0);
+        currentPos = 0;
+        finished = 0;
+        CountDownLatch done = new CountDownLatch(children.size());
+        workersDone = done;
+        for (int i = 0; i < children.size(); i++) {
+            int child = i;
+            executor.execute(() -> {
+                try {
+                    produce(child);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+    }
+
+    private void produce(int child) {
+        ResumableIterator<T> it = children.get(child);
+        try {
+            while (!stopped && it.hasNext()) {
+                Object[] items = new Object[batchSize];
+                State[] states = new State[batchSize];
+                int n = 0;
+                while (n < batchSize && it.hasNext()) {
+                    items[n] = it.next();
+                    states[n] = it.getState();
+                    n++;
+                }
+                if (!offer(new Batch(child, items, states, n))) return;
+            }
+            // size = -1 表示这个子迭代器读完了
+            offer(new Batch(child, NO_ITEMS, null, -1));
+        } catch (RuntimeException e) {
+            Batch failed = new Batch(child, NO_ITEMS, null, -1);
+            failed.error = e;
+            offer(failed);
+        }
+    }
+
+    private boolean offer(Batch batch) {
+        try {
+            while (!stopped) {
+                if (queue.offer(batch, 10, TimeUnit.MILLISECONDS)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private boolean fill() {
+        while (currentPos >= current.size) {
+            if (finished == children.size()) return false;
+            try {
+                current = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for workers", e);
+            }
+            currentPos = 0;
+            if (current.size < 0) {
+                if (current.error != null) throw current.error;
+                finished++;
+            }
+        }
+        return true;
+    }
+
+    private void stopWorkers() {
+        stopped = true;
+        queue.clear();
+        try {
+            workersDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while stopping workers", e);
+        }
+        queue.clear();
+    }
+
+    private static class Batch {
+        final int child;
+        final Object[] items;
+        final State[] states;
+        final int size;
+        RuntimeException error;
+
+        Batch(int child, Object[] items, State[] states, int size) {
+            this.child = child;
+            this.items = items;
+            this.states = states;
+            this.size = size;
+        }
+    }
+
+    private static class Head<T> {
+        final T item;
+        final int child;
+        final State after;
+
+        Head(T item, int child, State after) {
+            this.item = item;
+            this.child = child;
+            this.after = after;
+        }
+    }
+
+    public static class VectorState implements State {
+        private static final long serialVersionUID = 1L;
+        private final State[] states;
+
+        public VectorState(State[] states) {
+            this.states = states;
+        }
+
+        public State[] getStates() { return states; }
+    }
+
+    private static List<ResumableIterator<long[]>> shards(int shards, int perShard) {
+        List<ResumableIterator<long[]>> out = new ArrayList<>();
+        for (int s = 0; s < shards; s++) {
+            List<long[]> records = new ArrayList<>();
+            // {timestamp, shard}，每个分片内部时间戳递增
+            for (int i = 0; i < perShard; i++) records.add(new long[]{(long) i * shards + (s * 7) % shards, s});
+            out.add(new ListResumableIterator<>(records));
+        }
+        return out;
+    }
+
+    public static void main(String[] args) {
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        int shards = 8;
+        int perShard = 50_000;
+
+        // 无序：读一部分，checkpoint，丢掉（模拟崩溃），新实例恢复后读完，每条记录恰好一次
+        ParallelMultiResumableIterator<long[]> it = new ParallelMultiResumableIterator<>(shards(shards, perShard), executor);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 123_456; i++) {
+            long[] r = it.next();
+            if (!seen.add(r[0])) throw new AssertionError("duplicate " + r[0]);
+        }
+        State checkpoint = it.getState();
+        it.close();
+        it = new ParallelMultiResumableIterator<>(shards(shards, perShard), executor);
+        it.setState(checkpoint);
+        while (it.hasNext()) {
+            long[] r = it.next();
+            if (!seen.add(r[0])) throw new AssertionError("duplicate after resume " + r[0]);
+        }
+        if (seen.size() != shards * perShard) throw new AssertionError("missing records: " + seen.size());
+        System.out.println("parallel resume ok: " + seen.size() + " records");
+
+        // 按时间戳归并
+        Comparator<long[]> byTime = Comparator.comparingLong(r -> r[0]);
+        ParallelMultiResumableIterator<long[]> merged =
+                new ParallelMultiResumableIterator<>(shards(shards, perShard), executor, byTime);
+        long last = -1;
+        for (int i = 0; i < 99_999; i++) last = merged.next()[0];
+        checkpoint = merged.getState();
+        merged.close();
+        merged = new ParallelMultiResumableIterator<>(shards(shards, perShard), executor, byTime);
+        merged.setState(checkpoint);
+        long count = 99_999;
+        while (merged.hasNext()) {
+            long t = merged.next()[0];
+            if (t <= last) throw new AssertionError("out of order " + t + " after " + last);
+            last = t;
+            count++;
+        }
+        if (count != (long) shards * perShard) throw new AssertionError("merged count " + count);
+        System.out.println("timestamp merge resume ok: " + Arrays.toString(new long[]{count, last}));
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+第四问 follow up：真正的异步预读
+AsyncWrapperResumableIterator 每个元素都 supplyAsync 一次，一次线程切换只拿到一个元素，也没有预读。
+
+- 后台生产者（executor 上的一个任务，JDK 21 可以直接传虚拟线程 executor）一次从 delegate 读一批，
+  放进有界的 ArrayBlockingQueue（环形缓冲），满了就等，内存上限 = capacity * batchSize 个元素
+- 每个元素和读完它之后 delegate 的状态一起入队，消费者每批只同步一次
+- getState() 返回消费者最后拿走的那个元素之后的状态，而不是预读到的位置：
+  崩溃后从这个状态恢复，已经预读但没交给调用方的元素会被重新读一遍，不会丢也不会重复
+- setState()：先停掉生产者、清空缓冲，再设置 delegate，重新开始预读
+- hasNextAsync / nextAsync 不往 executor 提交任务：生产者占着 executor 的线程、又因为缓冲满在等消费者，
+  单线程（或者占满的）executor 上再排一个消费任务就互相等死了。缓冲里有数据直接返回完成的 future，
+  没有就挂一个 waiter，生产者下次入队时 complete 它（后续回调跑在生产者线程上）
+- 同一时间只能有一个消费者；current / currentPos / consumedState 会在生产者线程上的回调里改，所以是 volatile
+*/
+public class PrefetchingResumableIterator<T> extends AsyncResumableIterator<T> implements ResumableIterator<T> {
+    private static final Object[] NO_ITEMS = new Object[0];
+
+    private final ResumableIterator<T> delegate;
+    private final Executor executor;
+    private final int batchSize;
+    private final ArrayBlockingQueue<Batch> buffer;
+
+    private final AtomicReference<CompletableFuture<Void>> waiter = new AtomicReference<>();
+
+    private volatile Batch current;
+    private volatile int currentPos;
+    private volatile State consumedState;
+    private volatile boolean stopped;
+    private CountDownLatch producerDone;
+
+    public PrefetchingResumableIterator(ResumableIterator<T> delegate, Executor executor, int capacity, int batchSize) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.consumedState = delegate.getState();
+        startProducer();
+    }
+
+    public PrefetchingResumableIterator(ResumableIterator<T> delegate, Executor executor) {
+        this(delegate, executor, 16, 256);
+    }
+
+    private void startProducer() {
+        stopped = false;
+        current = new Batch(NO_ITEMS, null, 0, false, null);
+        currentPos = 0;
+        CountDownLatch done = new CountDownLatch(1);
+        producerDone = done;
+        executor.execute(() -> {
+            try {
+                produce();
+            } finally {
+                done.countDown();
+            }
+        });
+    }
+
+    private void produce() {
+        try {
+            while (!stopped) {
+                Object[] items = new Object[batchSize];
+                State[] states = new State[batchSize];
+                int n = 0;
+                while (n < batchSize && delegate.hasNext()) {
+                    items[n] = delegate.next();
+                    states[n] = delegate.getState();
+                    n++;
+                }
+                boolean last = !delegate.hasNext();
+                if (!offer(new Batch(items, states, n, last, null)) || last) return;
+            }
+        } catch (RuntimeException e) {
+            offer(new Batch(NO_ITEMS, null, 0, true, e));
+        }
+    }
+
+    // 队列满时等待，setState / close 时放弃
+    private boolean offer(Batch batch) {
+        try {
+            while (!stopped) {
+                if (buffer.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                    CompletableFuture<Void> w = waiter.getAndSet(null);
+                    if (w != null) w.complete(null);
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    // 当前批次用完后阻塞等待下一批；返回 false 表示已经结束
+    private boolean fill() {
+        while (currentPos == current.size) {
+            if (current.last) {
+                if (current.error != null) throw current.error;
+                return false;
+            }
+            try {
+                current = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for prefetch", e);
+            }
+            currentPos = 0;
+        }
+        return true;
+    }
+
+    // 不阻塞的 fill：当前批次用完时只 poll，队列暂时是空的返回 null
+    private Boolean poll() {
+        while (currentPos == current.size) {
+            if (current.last) {
+                if (current.error != null) throw current.error;
+                return false;
+            }
+            Batch next = buffer.poll();
+            if (next == null) return null;
+            current = next;
+            currentPos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return fill();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!fill()) throw new NoSuchElementException();
+        T item = (T) current.items[currentPos];
+        consumedState = current.states[currentPos];
+        current.items[currentPos++] = null;
+        return item;
+    }
+
+    // 缓冲里已经有数据时直接返回完成的 future，不切线程；没有就等生产者下次入队
+    @Override
+    public CompletableFuture<Boolean> hasNextAsync() {
+        try {
+            Boolean ready = poll();
+            if (ready != null) return CompletableFuture.completedFuture(ready);
+            CompletableFuture<Void> signal = new CompletableFuture<>();
+            waiter.set(signal);
+            // 挂上 waiter 之前刚好入队的批次不会再通知，再 poll 一次
+            ready = poll();
+            if (ready != null) return CompletableFuture.completedFuture(ready);
+            return signal.thenCompose(v -> hasNextAsync());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<T> nextAsync() {
+        if (currentPos < current.size) return CompletableFuture.completedFuture(next());
+        return hasNextAsync().thenApply(hasNext -> {
+            if (!hasNext) throw new NoSuchElementException();
+            return next();
+        });
+    }
+
+    @Override
+    public State getState() {
+        return consumedState;
+    }
+
+    @Override
+    public void setState(State state) {
+        stopProducer();
+        delegate.setState(state);
+        consumedState = state;
+        startProducer();
+    }
+
+    public void close() {
+        stopProducer();
+        CompletableFuture<Void> w = waiter.getAndSet(null);
+        if (w != null) w.cancel(false);
+    }
+
+    private void stopProducer() {
+        stopped = true;
+        buffer.clear();
+        try {
+            producerDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while stopping prefetch", e);
+        }
+        buffer.clear();
+    }
+
+    private static class Batch {
+        final Object[] items;
+        final State[] states;
+        final int size;
+        final boolean last;
+        final RuntimeException error;
+
+        Batch(Object[] items, State[] states, int size, boolean last, RuntimeException error) {
+            this.items = items;
+            this.states = states;
+            this.size = size;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<Integer> data = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) data.add(i);
+
+        // 1. 预读远远超过消费位置时，状态仍然指向消费者拿到的最后一个元素
+        PrefetchingResumableIterator<Integer> it =
+                new PrefetchingResumableIterator<>(new ListResumableIterator<>(data), executor, 4, 100);
+        for (int i = 0; i < 250; i++) it.next();
+        Thread.sleep(50);
+        State checkpoint = it.getState();
+        it.close(); // 模拟崩溃：丢掉已经预读的 400 个元素
+
+        PrefetchingResumableIterator<Integer> resumed =
+                new PrefetchingResumableIterator<>(new ListResumableIterator<>(data), executor, 4, 100);
+        resumed.setState(checkpoint);
+        int expected = 250;
+        while (resumed.hasNext()) {
+            int v = resumed.next();
+            if (v != expected++) throw new AssertionError("resume gap/duplicate at " + v);
+        }
+        if (expected != data.size()) throw new AssertionError("missing tail: " + expected);
+        System.out.println("resume after crash ok");
+
+        // 2. 文件迭代器：恢复后从下一行继续
+        File file = File.createTempFile("prefetch", ".log");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < 200_000; i++) out.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        try (ResumableFileIterator fileIt = new ResumableFileIterator(file.getPath())) {
+            PrefetchingResumableIterator<String> p = new PrefetchingResumableIterator<>(fileIt, executor);
+            for (int i = 0; i < 12_345; i++) p.next();
+            State s = p.getState();
+            p.next();
+            p.setState(s);
+            if (!"line 12345".equals(p.next())) throw new AssertionError("file resume");
+            p.close();
+        }
+        System.out.println("file resume ok");
+
+        // 3. 单线程 executor：唯一的线程被生产者占着，异步接口也不能排到它后面
+        ExecutorService single = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        PrefetchingResumableIterator<Integer> one =
+                new PrefetchingResumableIterator<>(new ListResumableIterator<>(data.subList(0, 10_000)), single, 2, 10);
+        Thread.sleep(20);
+        int count = 0;
+        try {
+            while (one.hasNextAsync().get(5, TimeUnit.SECONDS)) {
+                if (one.nextAsync().get(5, TimeUnit.SECONDS) != count++) throw new AssertionError("order at " + count);
+            }
+        } catch (TimeoutException e) {
+            throw new AssertionError("async consumer deadlocked behind the producer at " + count);
+        }
+        if (count != 10_000) throw new AssertionError("single thread executor: " + count);
+        one.close();
+        single.shutdown();
+        System.out.println("single thread executor ok");
+
+        // 4. 吞吐：每个元素一次 supplyAsync vs 批量预读
+        int n = data.size();
+        long start = System.nanoTime();
+        AsyncWrapperResumableIterator<Integer> wrapper =
+                new AsyncWrapperResumableIterator<>(new ListResumableIterator<>(data), executor);
+        long sum = 0;
+        while (wrapper.hasNextAsync().get()) sum += wrapper.nextAsync().get();
+        long wrapperNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        PrefetchingResumableIterator<Integer> prefetch =
+                new PrefetchingResumableIterator<>(new ListResumableIterator<>(data), executor);
+        while (prefetch.hasNextAsync().get()) sum -= prefetch.nextAsync().get();
+        long prefetchNanos = System.nanoTime() - start;
+        if (sum != 0) throw new AssertionError("different elements");
+
+        System.out.printf("AsyncWrapper: %,.0f items/s, Prefetching: %,.0f items/s%n",
+                n * 1e9 / wrapperNanos, n * 1e9 / prefetchNanos);
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/*
+第四问 follow up：ResumableFileIterator，按行读取很大的日志文件
+- 状态 = 下一行的字节偏移 offset + 行号 lineNumber，不依赖之前读过的内容
+- setState 直接 RandomAccessFile.seek(offset)，O(1)，不从头重读
+- 自己管理 64KB 读缓冲，按字节找 '\n'（RandomAccessFile.readLine 每个字节一次系统调用，而且不支持 UTF-8）
+- 状态编码：[版本 1 字节][varint offset][varint lineNumber]，不用 Java 序列化，一般 5~10 字节；
+  varint 读写用 BinaryStateCodec 的 Output / Input，截断、畸形、多余字节都抛 IllegalArgumentException
+*/
+public class ResumableFileIterator implements ResumableIterator<String>, Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final RandomAccessFile file;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    // buf[bufPos, bufLen) 是已读入还没消费的字节，bufStart 是 buf[0] 在文件中的偏移
+    private int bufPos;
+    private int bufLen;
+    private long bufStart;
+    private long lineNumber;
+
+    public ResumableFileIterator(String path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+    }
+
+    // 下一行开始的字节偏移
+    public long position() {
+        return bufStart + bufPos;
+    }
+
+    public long lineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (bufPos < bufLen) return true;
+        try {
+            return position() < file.length();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        try {
+            int scan = bufPos;
+            while (true) {
+                for (; scan < bufLen; scan++) {
+                    if (buf[scan] == '\n') return takeLine(scan, scan + 1);
+                }
+                // 缓冲里没有完整的一行：把剩余部分挪到开头，必要时扩容，再读
+                int rest = bufLen - bufPos;
+                if (rest == buf.length) {
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, bufPos, bigger, 0, rest);
+                    buf = bigger;
+                } else {
+                    System.arraycopy(buf, bufPos, buf, 0, rest);
+                }
+                bufStart += bufPos;
+                scan -= bufPos;
+                bufPos = 0;
+                bufLen = rest;
+                int n = file.read(buf, bufLen, buf.length - bufLen);
+                if (n <= 0) {
+                    // 文件最后一行没有换行符
+                    return takeLine(bufLen, bufLen);
+                }
+                bufLen += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String takeLine(int end, int nextPos) {
+        int len = end - bufPos;
+        if (len > 0 && buf[end - 1] == '\r') len--;
+        String line = new String(buf, bufPos, len, StandardCharsets.UTF_8);
+        bufPos = nextPos;
+        lineNumber++;
+        return line;
+    }
+
+    @Override
+    public State getState() {
+        return new FileState(position(), lineNumber);
+    }
+
+    @Override
+    public void setState(State state) {
+        if (!(state instanceof FileState)) throw new IllegalArgumentException("Invalid state");
+        FileState s = (FileState) state;
+        // 目标还在当前缓冲里就只移动指针
+        if (s.offset >= bufStart && s.offset <= bufStart + bufLen) {
+            bufPos = (int) (s.offset - bufStart);
+        } else {
+            try {
+                file.seek(s.offset);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bufStart = s.offset;
+            bufPos = 0;
+            bufLen = 0;
+        }
+        lineNumber = s.lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public static class FileState implements State {
+        private static final long serialVersionUID = 1L;
+        private static final byte VERSION = 1;
+
+        private final long offset;
+        private final long lineNumber;
+
+        public FileState(long offset, long lineNumber) {
+            if (offset < 0 || lineNumber < 0)
+                throw new IllegalArgumentException("Invalid file state: offset " + offset + ", line " + lineNumber);
+            this.offset = offset;
+            this.lineNumber = lineNumber;
+        }
+
+        public long getOffset() { return offset; }
+        public long getLineNumber() { return lineNumber; }
+
+        public byte[] toBytes() {
+            BinaryStateCodec.Output out = new BinaryStateCodec.Output();
+            out.writeVarLong(VERSION);
+            out.writeVarLong(offset);
+            out.writeVarLong(lineNumber);
+            return out.toByteArray();
+        }
+
+        public static FileState fromBytes(byte[] data) {
+            BinaryStateCodec.Input in = new BinaryStateCodec.Input(data);
+            if (data.length == 0 || in.readVarLong() != VERSION) throw new IllegalArgumentException("Unknown state format");
+            FileState state = new FileState(in.readVarLong(), in.readVarLong());
+            if (!in.atEnd()) throw new IllegalArgumentException("Trailing bytes after state");
+            return state;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File small = File.createTempFile("resumable", ".log");
+        small.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(small)) {
+            out.write("a\r\n\nccc\n日志\nlast".getBytes(StandardCharsets.UTF_8));
+        }
+        try (ResumableFileIterator it = new ResumableFileIterator(small.getPath())) {
+            System.out.println(it.next()); // a
+            State s = it.getState();
+            System.out.println(it.next().isEmpty()); // true
+            System.out.println(it.next()); // ccc
+            byte[] saved = ((FileState) s).toBytes();
+            System.out.println(saved.length); // 3
+            it.setState(FileState.fromBytes(saved));
+            System.out.println(it.next().isEmpty() + " " + it.lineNumber()); // true 2
+            it.next();
+            System.out.println(it.next()); // 日志
+            System.out.println(it.next()); // last
+            System.out.println(it.hasNext()); // false
+            // 截断、畸形 varint、多余字节、负数偏移：都是 IllegalArgumentException，不是越界
+            byte[][] corrupt = {{}, {1}, java.util.Arrays.copyOf(saved, saved.length - 1),
+                    {1, (byte) 0x80, (byte) 0x80}, {1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 0},
+                    java.util.Arrays.copyOf(saved, saved.length + 1), {2, 0, 0},
+                    {1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1, 0}};
+            for (byte[] data : corrupt) {
+                try {
+                    FileState.fromBytes(data);
+                    throw new AssertionError("accepted " + java.util.Arrays.toString(data));
+                } catch (IllegalArgumentException expected) {
+                }
+            }
+        }
+
+        // 生成测试日志，默认 256MB，参数可以指定 MB 数（例如 10240 = 10GB）
+        long mb = args.length > 0 ? Long.parseLong(args[0]) : 256;
+        File big = File.createTempFile("resumable-big", ".log");
+        big.deleteOnExit();
+        byte[] line = "2024-01-01T00:00:00Z INFO worker-17 processed request id=0123456789 in 12ms\n"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] chunk = new byte[line.length * 8192];
+        for (int i = 0; i < 8192; i++) System.arraycopy(line, 0, chunk, i * line.length, line.length);
+        try (OutputStream out = new FileOutputStream(big)) {
+            for (long written = 0; written < mb << 20; written += chunk.length) out.write(chunk);
+        }
+
+        try (ResumableFileIterator it = new ResumableFileIterator(big.getPath())) {
+            List<State> checkpoints = new ArrayList<>();
+            long start = System.nanoTime();
+            long lines = 0;
+            long bytes = 0;
+            while (it.hasNext()) {
+                bytes += it.next().length();
+                if ((++lines & 0xFFF) == 0 && it.hasNext()) checkpoints.add(it.getState());
+            }
+            long readNanos = System.nanoTime() - start;
+            System.out.printf("%,d lines, %,.0f lines/s, %.0f MB/s%n",
+                    lines, lines * 1e9 / readNanos, (double) big.length() / (1 << 20) * 1e9 / readNanos);
+
+            Random random = new Random(7);
+            int restores = 10_000;
+            start = System.nanoTime();
+            for (int i = 0; i < restores; i++) {
+                State s = checkpoints.get(random.nextInt(checkpoints.size()));
+                it.setState(FileState.fromBytes(((FileState) s).toBytes()));
+                if (it.next().length() != line.length - 1) throw new AssertionError("bad restore");
+            }
+            long restoreNanos = System.nanoTime() - start;
+            System.out.printf("setState + first next: %.1f us avg (%d checkpoints, %d chars)%n",
+                    restoreNanos / 1e3 / restores, checkpoints.size(), bytes);
+        }
+    }
+}
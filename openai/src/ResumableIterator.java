@@ -0,0 +1,19 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// ResumableIterator 接口定义
+interface ResumableIterator<T> extends Iterator<T> {
+    State getState();
+
+    void setState(State state);
+
+    // 最多返回 max 个元素，可能少于 max（比如只取到当前子列表末尾），空列表表示结束。
+    // 调用后 getState() 与逐个 next() 同样多次的结果完全一样；max <= 0 抛 IllegalArgumentException（空列表只表示结束）
+    default List<T> nextBatch(int max) {
+        if (max <= 0) throw new IllegalArgumentException("max must be positive: " + max);
+        List<T> batch = new ArrayList<>(Math.min(max, 1024));
+        while (batch.size() < max && hasNext()) batch.add(next());
+        return batch;
+    }
+}
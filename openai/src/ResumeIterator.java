@@ -96,228 +96,10 @@ iterator.setState(s); // 恢复到状态2
 iterator.next();  // 再次返回 3
  */
 
-import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-// 状态接口
-interface State extends Serializable {
-}
-
-// ResumableIterator 接口定义
-interface ResumableIterator<T> extends Iterator<T> {
-    State getState();
-
-    void setState(State state);
-}
-
-class ListResumableIterator<T> implements ResumableIterator<T> {
-
-    private final List<T> list;
-    private int index;
-
-    public ListResumableIterator(List<T> list) {
-        this.list = list;
-        this.index = 0;
-    }
-
-    @Override
-    public State getState() {
-        return new ListState(index);
-    }
-
-    @Override
-    public void setState(State state) {
-        this.index = ((ListState) state).index;
-    }
-
-    @Override
-    public boolean hasNext() {
-        return index < list.size();
-    }
-
-    @Override
-    public T next() {
-        if (hasNext()) {
-            return list.get(index++);
-        }
-        return null;
-    }
-
-    class ListState implements State {
-        private static final long serialVersionUID = 1L;
-
-        private final int index;
-
-        public ListState(int index) {
-            this.index = index;
-        }
-    }
-}
-
-// MultiResumableIterator 实现
-class MultiResumableIterator<T> implements ResumableIterator<T> {
-    private final List<ResumableIterator<T>> iterators;
-    private int currentIdx;
-
-    public MultiResumableIterator(List<ResumableIterator<T>> iterators) {
-        this.iterators = iterators;
-        this.currentIdx = 0;
-        skipEmpty();
-    }
-
-    private void skipEmpty() {
-        while (currentIdx < iterators.size() && !iterators.get(currentIdx).hasNext()) {
-            currentIdx++;
-        }
-    }
-
-    @Override
-    public boolean hasNext() {
-        skipEmpty();
-        return currentIdx < iterators.size();
-    }
-
-    @Override
-    public T next() {
-        if (!hasNext())
-            throw new NoSuchElementException();
-        return iterators.get(currentIdx).next();
-    }
-
-    @Override
-    public State getState() {
-        return new MultiState(
-                currentIdx,
-                currentIdx < iterators.size() ? iterators.get(currentIdx).getState() : null);
-    }
-
-    @Override
-    public void setState(State state) {
-        if (!(state instanceof MultiState))
-            throw new IllegalArgumentException("Invalid state");
-        MultiState ms = (MultiState) state;
-        this.currentIdx = ms.iteratorIndex;
-        if (this.currentIdx < iterators.size() && ms.innerState != null) {
-            iterators.get(this.currentIdx).setState(ms.innerState);
-        }
-    }
-
-    public static class MultiState implements State {
-        private static final long serialVersionUID = 1L;
-        private final int iteratorIndex;
-        private final State innerState;
-
-        public MultiState(int iteratorIndex, State innerState) {
-            this.iteratorIndex = iteratorIndex;
-            this.innerState = innerState;
-        }
-    }
-}
-
-class TwoDResumableIterator<T> implements ResumableIterator<T> {
-    private final List<List<T>> matrix;
-    private int outer;
-    private int inner;
-
-    public TwoDResumableIterator(List<List<T>> matrix) {
-        this.matrix = matrix;
-        this.outer = 0;
-        this.inner = 0;
-        skipEmpty();
-    }
-
-    private void skipEmpty() {
-        while (outer < matrix.size() && (matrix.get(outer) == null || inner >= matrix.get(outer).size())) {
-            outer++;
-            inner = 0;
-        }
-    }
-
-    @Override
-    public boolean hasNext() {
-        skipEmpty();
-        return outer < matrix.size();
-    }
-
-    @Override
-    public T next() {
-        if (!hasNext())
-            throw new NoSuchElementException();
-        return matrix.get(outer).get(inner++);
-    }
-
-    @Override
-    public State getState() {
-        return new TwoDState(outer, inner);
-    }
-
-    @Override
-    public void setState(State state) {
-        if (!(state instanceof TwoDState))
-            throw new IllegalArgumentException("Invalid state");
-        TwoDState s = (TwoDState) state;
-        this.outer = s.outer;
-        this.inner = s.inner;
-    }
-
-    public static class TwoDState implements State {
-        private static final long serialVersionUID = 1L;
-        private final int outer;
-        private final int inner;
-
-        public TwoDState(int outer, int inner) {
-            this.outer = outer;
-            this.inner = inner;
-        }
-    }
-}
-
-// AsyncResumableIterator 用协程方式模拟异步（使用 CompletableFuture）
-abstract class AsyncResumableIterator<T> {
-    public abstract CompletableFuture<Boolean> hasNextAsync();
-
-    public abstract CompletableFuture<T> nextAsync();
-
-    public abstract State getState();
-
-    public abstract void setState(State state);
-}
-
-// 将 ResumableIterator 封装为异步版本
-class AsyncWrapperResumableIterator<T> extends AsyncResumableIterator<T> {
-    private final ResumableIterator<T> delegate;
-    private final Executor executor;
-
-    public AsyncWrapperResumableIterator(ResumableIterator<T> delegate, Executor executor) {
-        this.delegate = delegate;
-        this.executor = executor;
-    }
-
-    @Override
-    public CompletableFuture<Boolean> hasNextAsync() {
-        return CompletableFuture.supplyAsync(delegate::hasNext, executor);
-    }
-
-    @Override
-    public CompletableFuture<T> nextAsync() {
-        return CompletableFuture.supplyAsync(delegate::next, executor);
-    }
-
-    @Override
-    public State getState() {
-        return delegate.getState();
-    }
-
-    @Override
-    public void setState(State state) {
-        delegate.setState(state);
-    }
-}
-
 // 示例测试类（可选）
 class IteratorTest {
     public static void main(String[] args) throws Exception {
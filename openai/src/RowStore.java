@@ -0,0 +1,79 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/*
+只追加的行存储：一个写线程追加，任意多个读线程不加锁读
+- 行放在固定大小的块里（每块 1 << 14 个），块满了只新开一块，已有的块不会被搬走，
+  读线程手里拿着的块一直有效；块目录满了换一个更大的目录（老目录里的块照样共用）
+- size 是 volatile 的水位线：写线程先把元素写进块、必要时换目录，最后才把 size 加一，
+  读线程先读 size 再读块，看到的 size 以内的元素都已经写完（volatile 的 happens-before）
+- snapshot() 把当前水位线固定下来，返回一个不会再变的 List，一次查询里所有的 size / 遍历都用它，
+  查询中途追加的行对这次查询不可见；下标在水位线以内的元素以后也不会再变，所以直接 get(id) 总是安全的
+- add 不是线程安全的，多个写线程由调用方加锁
+- hack2hire/、openai/src/ 和 my_openai/src/ 各有一份一模一样的，改的时候三份一起改
+*/
+public class RowStore<T> extends AbstractList<T> implements RandomAccess {
+    static final int SHIFT = 14;
+    static final int CHUNK = 1 << SHIFT;
+    static final int MASK = CHUNK - 1;
+
+    private volatile Object[][] chunks = new Object[8][];
+    private volatile int size;
+
+    @Override
+    public boolean add(T value) {
+        int n = size;
+        int c = n >>> SHIFT;
+        Object[][] directory = chunks;
+        if (c == directory.length) {
+            directory = Arrays.copyOf(directory, c * 2);
+            chunks = directory;
+        }
+        if (directory[c] == null) directory[c] = new Object[CHUNK];
+        directory[c][n & MASK] = value;
+        size = n + 1;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+        return (T) chunks[index >>> SHIFT][index & MASK];
+    }
+
+    // 当前已经发布的行数，读线程每次调用都可能变大
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public List<T> snapshot() {
+        int n = size;
+        return new Snapshot<>(chunks, n);
+    }
+
+    static class Snapshot<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[][] chunks;
+        private final int size;
+
+        Snapshot(Object[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+            return (T) chunks[index >>> SHIFT][index & MASK];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+import java.io.Serializable;
+
+// 状态接口
+interface State extends Serializable {
+}
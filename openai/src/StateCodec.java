@@ -0,0 +1,11 @@
+/*
+follow up：不用 Serializable，自己定义状态的二进制格式
+- 每个状态 = [类型 tag varint][字段...]，整数都是 varint（每字节 7 位），嵌套状态直接递归写在后面，null 是 tag 0
+- 3 层嵌套 MultiState(MultiState(ListState)) 一般只要 7~10 个字节，Java 序列化要几百字节（类描述符）
+- 可插拔：register(tag, 类型, 编码, 解码) 就能支持新的 State 类型
+*/
+public interface StateCodec {
+    byte[] encode(State state);
+
+    State decode(byte[] data);
+}
@@ -0,0 +1,309 @@
+import java.util.*;
+
+/*
+GPUCredit follow up：一个租户有几万条 grant 时，GPUCredit.useCredit 每次都要整表排序、拆分出新的 CreditEntry，
+getBalance 每次扫全部 entry。
+
+时间轴差分：
+- grant [s, e] amount：s 处 +amount，e + 1 处 -amount
+- 在 t 时刻从某个 grant 用掉 x：只影响 [t, e]，t 处 -x，e + 1 处 +x
+- getBalance(t) = 差分在 <= t 上的前缀和 -> O(log n)
+差分挂在按时间戳排序、带子树和的 treap 上：时间戳是在线到来的，没法事先离散化成 Fenwick 下标，
+treap 插入新时间戳和查前缀和都是期望 O(log n)。
+
+useCredit 按过期时间最早优先：
+- pending：还没生效的 grant，按 start 的小顶堆
+- active：已经生效的 grant，按 end 的小顶堆；堆顶已过期就直接丢掉
+- 使用时间单调不减时（正常情况）每个 grant 只进出堆一次，均摊 O(log n)
+- 使用时间比之前的还早时走慢路径：扫一遍这个账户的全部 grant，只能用 grant 的 remaining，
+  也就是没被之后的使用占掉的部分（GPUCredit 这种情况下同一份积分可以在两个时间点各用一次）
+余额不足时返回 false，且不做任何修改（GPUCredit 在这种情况下会把已经遍历到的 entry 删掉）。
+*/
+public class TimelineGPUCredit {
+
+    static class Grant {
+        final int start;
+        final int end;
+        long remaining;
+
+        Grant(int start, int end, long remaining) {
+            this.start = start;
+            this.end = end;
+            this.remaining = remaining;
+        }
+    }
+
+    static class Account {
+        final SumTreap timeline = new SumTreap();
+        final PriorityQueue<Grant> pending = new PriorityQueue<>(Comparator.comparingInt(g -> g.start));
+        final PriorityQueue<Grant> active = new PriorityQueue<>(Comparator.comparingInt(g -> g.end));
+        final List<Grant> all = new ArrayList<>();
+        int lastUse = Integer.MIN_VALUE;
+    }
+
+    private final Map<String, Account> accounts = new HashMap<>();
+
+    // 添加积分：指定用户、数量、生效时间和有效期，有效区间 [timestamp, timestamp + expiration]
+    public void addCredit(String creditId, int amount, int timestamp, int expiration) {
+        Account account = accounts.computeIfAbsent(creditId, k -> new Account());
+        int end = timestamp + expiration;
+        Grant g = new Grant(timestamp, end, amount);
+        account.all.add(g);
+        account.timeline.add(timestamp, amount);
+        account.timeline.add(end + 1, -amount);
+        if (timestamp <= account.lastUse) {
+            if (end >= account.lastUse) account.active.add(g);
+        } else {
+            account.pending.add(g);
+        }
+    }
+
+    // 在指定时间消费指定数量的积分，若成功返回 true，余额不足返回 false
+    public boolean useCredit(String creditId, int timestamp, int amount) {
+        Account account = accounts.get(creditId);
+        if (account == null) return false;
+        if (timestamp < account.lastUse) return useOutOfOrder(account, timestamp, amount);
+
+        account.lastUse = timestamp;
+        while (!account.pending.isEmpty() && account.pending.peek().start <= timestamp) {
+            account.active.add(account.pending.poll());
+        }
+        while (!account.active.isEmpty() && account.active.peek().end < timestamp) {
+            account.active.poll();
+        }
+        if (account.timeline.prefixSum(timestamp) < amount) return false;
+
+        long need = amount;
+        while (need > 0) {
+            Grant g = account.active.peek();
+            long used = Math.min(g.remaining, need);
+            consume(account, g, timestamp, used);
+            need -= used;
+            if (g.remaining == 0) account.active.poll();
+        }
+        return true;
+    }
+
+    private boolean useOutOfOrder(Account account, int timestamp, int amount) {
+        List<Grant> candidates = new ArrayList<>();
+        long available = 0;
+        for (Grant g : account.all) {
+            if (g.start <= timestamp && timestamp <= g.end && g.remaining > 0) {
+                candidates.add(g);
+                available += g.remaining;
+            }
+        }
+        if (available < amount) return false;
+        candidates.sort(Comparator.comparingInt(g -> g.end));
+        long need = amount;
+        for (Grant g : candidates) {
+            if (need == 0) break;
+            long used = Math.min(g.remaining, need);
+            consume(account, g, timestamp, used);
+            need -= used;
+        }
+        // 用完的 grant 还留在 active 里，下次轮到堆顶时 remaining == 0 会被直接跳过
+        account.active.removeIf(g -> g.remaining == 0);
+        return true;
+    }
+
+    private void consume(Account account, Grant g, int timestamp, long used) {
+        g.remaining -= used;
+        account.timeline.add(timestamp, -used);
+        account.timeline.add(g.end + 1, used);
+    }
+
+    // 查询指定用户在指定时间点的有效余额；如果没有任何有效积分，则返回 null
+    public Integer getBalance(String creditId, int timestamp) {
+        Account account = accounts.get(creditId);
+        if (account == null) return null;
+        long total = account.timeline.prefixSum(timestamp);
+        return total == 0 ? null : (int) total;
+    }
+
+    /*
+    按 key 排序的 treap，每个节点存 key 处的差分值和整棵子树的和。
+    数组存节点，避免每个时间戳一个对象。
+    */
+    static class SumTreap {
+        private int[] keys = new int[16];
+        private int[] prio = new int[16];
+        private int[] left = new int[16];
+        private int[] right = new int[16];
+        private long[] value = new long[16];
+        private long[] sum = new long[16];
+        private int size;  // 节点 1..size，0 表示空
+        private int root;
+        private int seed = 0x2545F491;
+
+        void add(int key, long delta) {
+            root = insert(root, key, delta);
+        }
+
+        // key <= bound 的所有差分之和
+        long prefixSum(int bound) {
+            long total = 0;
+            int node = root;
+            while (node != 0) {
+                if (keys[node] <= bound) {
+                    total += sum[left[node]] + value[node];
+                    node = right[node];
+                } else {
+                    node = left[node];
+                }
+            }
+            return total;
+        }
+
+        int nodeCount() {
+            return size;
+        }
+
+        private int insert(int node, int key, long delta) {
+            if (node == 0) return newNode(key, delta);
+            if (key == keys[node]) {
+                value[node] += delta;
+            } else if (key < keys[node]) {
+                // 先放到局部变量：insert 可能扩容换掉 left 数组
+                int child = insert(left[node], key, delta);
+                left[node] = child;
+                if (prio[left[node]] > prio[node]) node = rotateRight(node);
+            } else {
+                int child = insert(right[node], key, delta);
+                right[node] = child;
+                if (prio[right[node]] > prio[node]) node = rotateLeft(node);
+            }
+            pull(node);
+            return node;
+        }
+
+        private int rotateRight(int node) {
+            int l = left[node];
+            left[node] = right[l];
+            right[l] = node;
+            pull(node);
+            return l;
+        }
+
+        private int rotateLeft(int node) {
+            int r = right[node];
+            right[node] = left[r];
+            left[r] = node;
+            pull(node);
+            return r;
+        }
+
+        private void pull(int node) {
+            sum[node] = sum[left[node]] + value[node] + sum[right[node]];
+        }
+
+        private int newNode(int key, long delta) {
+            if (++size == keys.length) {
+                int cap = keys.length * 2;
+                keys = Arrays.copyOf(keys, cap);
+                prio = Arrays.copyOf(prio, cap);
+                left = Arrays.copyOf(left, cap);
+                right = Arrays.copyOf(right, cap);
+                value = Arrays.copyOf(value, cap);
+                sum = Arrays.copyOf(sum, cap);
+            }
+            // xorshift 随机优先级
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            keys[size] = key;
+            prio[size] = seed;
+            value[size] = delta;
+            sum[size] = delta;
+            return size;
+        }
+    }
+
+    public static void main(String[] args) {
+        TimelineGPUCredit gpu = new TimelineGPUCredit();
+
+        // Test 1
+        gpu.addCredit("microsoft", 10, 10, 30);
+        System.out.println(gpu.getBalance("microsoft", 0)); // null
+        System.out.println(gpu.getBalance("microsoft", 10)); // 10
+        System.out.println(gpu.getBalance("microsoft", 40)); // 10
+        System.out.println(gpu.getBalance("microsoft", 41)); // null
+
+        // Test 2
+        gpu = new TimelineGPUCredit();
+        gpu.addCredit("amazon", 40, 10, 50);
+        gpu.useCredit("amazon", 30, 30);
+        System.out.println(gpu.getBalance("amazon", 12)); // 40
+        gpu.addCredit("amazon", 20, 60, 10);
+        System.out.println(gpu.getBalance("amazon", 60)); // 30
+        System.out.println(gpu.getBalance("amazon", 61)); // 20
+        System.out.println(gpu.getBalance("amazon", 70)); // 20
+        System.out.println(gpu.getBalance("amazon", 71)); // null
+
+        // Edge case：超额使用失败，不影响已有积分
+        gpu = new TimelineGPUCredit();
+        gpu.addCredit("openai", 10, 10, 30);
+        System.out.println(gpu.useCredit("openai", 10, 100000000)); // false
+        System.out.println(gpu.getBalance("openai", 10)); // 10
+        gpu.addCredit("openai", 10, 20, 10);
+        System.out.println(gpu.getBalance("openai", 20)); // 20
+
+        benchmark(args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000);
+    }
+
+    // 一个账户 n 条 grant，穿插时间递增的 useCredit，之后随机查询余额；GPUCredit 只跑一小部分做对比
+    private static void benchmark(int n) {
+        Random random = new Random(1);
+        int[][] ops = new int[n][];
+        int time = 0;
+        for (int i = 0; i < n; i++) {
+            time += random.nextInt(3);
+            ops[i] = new int[]{time, 1 + random.nextInt(100), 100 + random.nextInt(10_000), random.nextInt(150)};
+        }
+
+        TimelineGPUCredit fast = new TimelineGPUCredit();
+        long start = System.nanoTime();
+        for (int[] op : ops) {
+            fast.addCredit("tenant", op[1], op[0], op[2]);
+            fast.useCredit("tenant", op[0], op[3]);
+        }
+        long updateNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < n; i++) {
+            Integer b = fast.getBalance("tenant", random.nextInt(time + 1));
+            checksum += b == null ? 0 : b;
+        }
+        long queryNanos = System.nanoTime() - start;
+        System.out.printf("TimelineGPUCredit n=%,d: add+use %,.0f ops/s, getBalance %,.0f ops/s [%d]%n",
+                n, 2.0 * n * 1e9 / updateNanos, n * 1e9 / queryNanos, checksum & 1);
+
+        int small = Math.min(n, 20_000);
+        GPUCredit slow = new GPUCredit();
+        TimelineGPUCredit check = new TimelineGPUCredit();
+        start = System.nanoTime();
+        for (int i = 0; i < small; i++) {
+            int[] op = ops[i];
+            slow.addCredit("tenant", op[1], op[0], op[2]);
+            check.addCredit("tenant", op[1], op[0], op[2]);
+            // 只发余额够的 useCredit：GPUCredit 失败时会删掉 entry，两边没法对比
+            Integer balance = check.getBalance("tenant", op[0]);
+            if (balance != null && balance >= op[3]) {
+                if (!slow.useCredit("tenant", op[0], op[3]) || !check.useCredit("tenant", op[0], op[3])) {
+                    throw new AssertionError("useCredit failed at " + op[0]);
+                }
+            }
+        }
+        long slowUpdateNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < small; i++) {
+            int t = random.nextInt(ops[small - 1][0] + 1);
+            if (!Objects.equals(slow.getBalance("tenant", t), check.getBalance("tenant", t))) {
+                throw new AssertionError("balance differs at " + t);
+            }
+        }
+        long slowQueryNanos = System.nanoTime() - start;
+        System.out.printf("GPUCredit (+ timeline check) n=%,d: add+use %,.0f ops/s, getBalance %,.0f ops/s%n",
+                small, 2.0 * small * 1e9 / slowUpdateNanos, small * 1e9 / slowQueryNanos);
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+class TwoDResumableIterator<T> implements ResumableIterator<T> {
+    private final List<List<T>> matrix;
+    private int outer;
+    private int inner;
+
+    public TwoDResumableIterator(List<List<T>> matrix) {
+        this.matrix = matrix;
+        this.outer = 0;
+        this.inner = 0;
+        skipEmpty();
+    }
+
+    private void skipEmpty() {
+        while (outer < matrix.size() && (matrix.get(outer) == null || inner >= matrix.get(outer).size())) {
+            outer++;
+            inner = 0;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        skipEmpty();
+        return outer < matrix.size();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return matrix.get(outer).get(inner++);
+    }
+
+    // 一次取当前行剩下的一段，skipEmpty 每批只调用一次
+    @Override
+    public List<T> nextBatch(int max) {
+        if (max <= 0) throw new IllegalArgumentException("max must be positive: " + max);
+        if (!hasNext())
+            return Collections.emptyList();
+        List<T> row = matrix.get(outer);
+        int end = (int) Math.min((long) inner + max, row.size());
+        List<T> batch = row.subList(inner, end);
+        inner = end;
+        return batch;
+    }
+
+    @Override
+    public State getState() {
+        return new TwoDState(outer, inner);
+    }
+
+    @Override
+    public void setState(State state) {
+        if (!(state instanceof TwoDState))
+            throw new IllegalArgumentException("Invalid state");
+        TwoDState s = (TwoDState) state;
+        this.outer = s.outer;
+        this.inner = s.inner;
+    }
+
+    public static class TwoDState implements State {
+        private static final long serialVersionUID = 1L;
+        private final int outer;
+        private final int inner;
+
+        public TwoDState(int outer, int inner) {
+            this.outer = outer;
+            this.inner = inner;
+        }
+
+        public int getOuter() { return outer; }
+        public int getInner() { return inner; }
+    }
+}
@@ -0,0 +1,267 @@
+import java.util.*;
+
+/*
+GPUCredit follow up：用量是一条高频事件流，不要每条事件调一次 useCredit
+- UsageLog：只追加的用量日志（相当于一个 Kafka partition），每条事件一个 offset，列存 int[]，不为每条事件建对象
+- UsageIngestor：从 sink 已提交的 offset 之后开始读，按事件时间切 tumbling window，
+  窗口内同一账户的用量先累加，窗口结束时每个账户只做一次扣费，整个窗口一次 useCredits 批量提交
+- exactly-once：扣费和 offset 在 BillingSink 里同一把锁下一起提交；ingestor 崩溃后从 committed + 1 重读，
+  没提交的窗口整窗重算，已经提交过的窗口（lastOffset <= committed）直接跳过，不会重复扣
+- 事件按时间大致有序；比当前窗口早的迟到事件算进当前窗口
+- 窗口只在看到 >= 窗口结束时间的事件（或者 advanceTo 给出的水位线）时才关闭，读到日志末尾也不关：
+  窗口边界只取决于事件时间，和 poll 每次读多少、什么时候调用无关，同一个窗口也不会被提交两次
+- 语义：一个窗口里某账户的用量合在一起扣，余额不够时整窗拒绝，计入 rejected，不会只扣一部分；
+  合计超过 int 的扣费（余额是 int，不可能够扣）同样整窗拒绝，不截断
+- 用量不能是负数，append 直接拒绝
+*/
+public class UsageIngestor {
+
+    static class UsageLog {
+        private int[] accounts = new int[1024];
+        private int[] timestamps = new int[1024];
+        private int[] amounts = new int[1024];
+        private int size;
+
+        long append(int account, int timestamp, int amount) {
+            if (amount < 0) throw new IllegalArgumentException("usage must not be negative: " + amount);
+            if (size == accounts.length) {
+                int cap = size * 2;
+                accounts = Arrays.copyOf(accounts, cap);
+                timestamps = Arrays.copyOf(timestamps, cap);
+                amounts = Arrays.copyOf(amounts, cap);
+            }
+            accounts[size] = account;
+            timestamps[size] = timestamp;
+            amounts[size] = amount;
+            return size++;
+        }
+
+        long endOffset() {
+            return size;
+        }
+    }
+
+    static class BillingSink {
+        final ConcurrentCreditLedger ledger;
+        private long committed = -1;
+        private long windows;
+        private long rejected;
+
+        BillingSink(ConcurrentCreditLedger ledger) {
+            this.ledger = ledger;
+        }
+
+        synchronized long committedOffset() {
+            return committed;
+        }
+
+        // 一个窗口的聚合结果；lastOffset 是窗口里最后一条事件的 offset
+        // overLimit 是合计超过 int、没有交给 ledger 直接拒绝的扣费数
+        synchronized boolean apply(String[] ids, int[] timestamps, int[] amounts, int overLimit, long lastOffset) {
+            if (lastOffset <= committed) return false;  // 重放的窗口，已经扣过了
+            boolean[] ok = ledger.useCredits(ids, timestamps, amounts);
+            for (boolean b : ok) if (!b) rejected++;
+            rejected += overLimit;
+            committed = lastOffset;
+            windows++;
+            return true;
+        }
+
+        synchronized long windowCount() {
+            return windows;
+        }
+
+        synchronized long rejectedCount() {
+            return rejected;
+        }
+    }
+
+    private final UsageLog log;
+    private final BillingSink sink;
+    private final String[] accountNames;
+    private final int windowSize;
+
+    // 当前窗口的聚合：按账户下标累加，touched 记录这个窗口用到的账户，inWindow 标记账户是否已经在 touched 里
+    private final long[] pending;
+    private final int[] touched;
+    private final boolean[] inWindow;
+    private int touchedCount;
+    private int windowEnd;
+    private long position;
+
+    public UsageIngestor(UsageLog log, BillingSink sink, String[] accountNames, int windowSize) {
+        this.log = log;
+        this.sink = sink;
+        this.accountNames = accountNames;
+        this.windowSize = windowSize;
+        this.pending = new long[accountNames.length];
+        this.touched = new int[accountNames.length];
+        this.inWindow = new boolean[accountNames.length];
+        this.position = sink.committedOffset() + 1;
+        this.windowEnd = Integer.MIN_VALUE;
+    }
+
+    // 最多处理 maxEvents 条，返回实际处理的条数；最后一个窗口等到后面的事件或者 advanceTo 才提交
+    public long poll(long maxEvents) {
+        long end = Math.min(log.endOffset(), position + maxEvents);
+        int[] accounts = log.accounts;
+        int[] timestamps = log.timestamps;
+        int[] amounts = log.amounts;
+        long start = position;
+        for (long offset = position; offset < end; offset++) {
+            int i = (int) offset;
+            int t = timestamps[i];
+            if (t >= windowEnd) {
+                flush(offset - 1);
+                windowEnd = Math.floorDiv(t, windowSize) * windowSize + windowSize;
+            }
+            int a = accounts[i];
+            if (!inWindow[a]) {
+                inWindow[a] = true;
+                touched[touchedCount++] = a;
+            }
+            pending[a] += amounts[i];
+        }
+        position = end;
+        return end - start;
+    }
+
+    // 水位线：调用方保证之后不会再有时间 < time 的事件，当前窗口在 time 之前结束的话就提交
+    public void advanceTo(int time) {
+        if (time >= windowEnd) flush(position - 1);
+    }
+
+    private void flush(long lastOffset) {
+        if (touchedCount == 0) return;
+        String[] ids = new String[touchedCount];
+        int[] timestamps = new int[touchedCount];
+        int[] amounts = new int[touchedCount];
+        int n = 0;
+        int overLimit = 0;
+        for (int k = 0; k < touchedCount; k++) {
+            int a = touched[k];
+            long amount = pending[a];
+            pending[a] = 0;
+            inWindow[a] = false;
+            if (amount > Integer.MAX_VALUE) {
+                overLimit++;
+            } else if (amount > 0) {
+                ids[n] = accountNames[a];
+                timestamps[n] = windowEnd - 1;
+                amounts[n++] = (int) amount;
+            }
+        }
+        touchedCount = 0;
+        sink.apply(Arrays.copyOf(ids, n), Arrays.copyOf(timestamps, n), Arrays.copyOf(amounts, n), overLimit, lastOffset);
+    }
+
+    public static void main(String[] args) {
+        int accounts = 10_000;
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        int window = 1_000;
+        String[] names = new String[accounts];
+        for (int a = 0; a < accounts; a++) names[a] = "tenant-" + a;
+
+        // 负载生成：每个时间单位 ~200 条，账户按 zipf 分布
+        long start = System.nanoTime();
+        UsageLog log = generate(accounts, events, 1);
+        System.out.printf("load generator: %,d events in %.0f ms%n", events, (System.nanoTime() - start) / 1e6);
+
+        // 逐条 useCredit
+        ConcurrentCreditLedger perEvent = grant(names);
+        start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            perEvent.useCredit(names[log.accounts[i]], log.timestamps[i], log.amounts[i]);
+        }
+        long perEventNanos = System.nanoTime() - start;
+
+        // 窗口聚合
+        BillingSink sink = new BillingSink(grant(names));
+        UsageIngestor ingestor = new UsageIngestor(log, sink, names, window);
+        start = System.nanoTime();
+        while (ingestor.poll(1 << 16) > 0) {
+        }
+        long windowedNanos = System.nanoTime() - start;
+        System.out.printf("per-event useCredit: %,.0f events/s, windowed ingest: %,.0f events/s (%,d windows)%n",
+                events * 1e9 / perEventNanos, events * 1e9 / windowedNanos, sink.windowCount());
+
+        // 崩溃恢复：处理到一半丢掉 ingestor（包括还没提交的半个窗口），新的 ingestor 从 committed + 1 接着读，
+        // 再把一个已经提交的窗口重放一次，结果要和不崩溃时一样
+        BillingSink crashed = new BillingSink(grant(names));
+        UsageIngestor first = new UsageIngestor(log, crashed, names, window);
+        first.poll(events / 3);
+        long committedAtCrash = crashed.committedOffset();
+        UsageIngestor second = new UsageIngestor(log, crashed, names, window);
+        while (second.poll(1 << 16) > 0) {
+        }
+        if (crashed.apply(new String[]{names[0]}, new int[]{0}, new int[]{1}, 0, committedAtCrash)) {
+            throw new AssertionError("replayed window applied twice");
+        }
+        int end = log.timestamps[events - 1];
+        for (int a = 0; a < accounts; a += 97) {
+            if (!Objects.equals(sink.ledger.getBalance(names[a], end), crashed.ledger.getBalance(names[a], end))) {
+                throw new AssertionError("balance differs after recovery for " + names[a]);
+            }
+        }
+        if (crashed.rejectedCount() != sink.rejectedCount() || crashed.windowCount() != sink.windowCount()) {
+            throw new AssertionError("window or rejection count differs after recovery");
+        }
+        System.out.printf("crash at offset %,d, resumed from %,d: balances match, %,d rejected window charges%n",
+                events / 3, committedAtCrash + 1, sink.rejectedCount());
+
+        // 窗口边界和 poll 的批大小无关；最后一个窗口只在水位线过了之后提交，而且只提交一次
+        BillingSink small = new BillingSink(grant(names));
+        UsageIngestor odd = new UsageIngestor(log, small, names, window);
+        while (odd.poll(7_777) > 0) {
+        }
+        if (small.windowCount() != sink.windowCount()) throw new AssertionError("window boundaries depend on poll size");
+        odd.advanceTo(end);
+        if (small.windowCount() != sink.windowCount()) throw new AssertionError("window closed before its end");
+        odd.advanceTo(end + window);
+        odd.advanceTo(end + window);
+        if (small.windowCount() != sink.windowCount() + 1) throw new AssertionError("last window not committed once");
+
+        // 一个窗口里同一账户很多条 0 用量、以及合计超过 int 的用量
+        UsageLog edge = new UsageLog();
+        for (int i = 0; i < 3 * accounts; i++) edge.append(0, 0, 0);
+        edge.append(1, 0, Integer.MAX_VALUE);
+        edge.append(1, 0, Integer.MAX_VALUE);
+        edge.append(2, 0, 7);
+        edge.append(0, window, 1);
+        BillingSink edgeSink = new BillingSink(grant(names));
+        new UsageIngestor(edge, edgeSink, names, window).poll(Long.MAX_VALUE);
+        if (edgeSink.windowCount() != 1 || edgeSink.rejectedCount() != 1 || edgeSink.ledger.getBalance(names[2], window) != 50_000 - 7
+                || edgeSink.ledger.getBalance(names[1], window) != 50_000) {
+            throw new AssertionError("zero / oversized usage: " + edgeSink.windowCount() + " windows, " + edgeSink.rejectedCount() + " rejected");
+        }
+        System.out.println("window boundaries, zero and oversized usage ok");
+    }
+
+    private static ConcurrentCreditLedger grant(String[] names) {
+        ConcurrentCreditLedger ledger = new ConcurrentCreditLedger();
+        for (String name : names) ledger.addCredit(name, 50_000, 0, Integer.MAX_VALUE / 2);
+        return ledger;
+    }
+
+    static UsageLog generate(int accounts, int events, long seed) {
+        double[] cdf = new double[accounts];
+        double sum = 0;
+        for (int i = 0; i < accounts; i++) {
+            sum += 1 / Math.pow(i + 1, 0.99);
+            cdf[i] = sum;
+        }
+        // 把 zipf 查表成 64K 个桶，生成时不用二分
+        int[] table = new int[1 << 16];
+        for (int k = 0, a = 0; k < table.length; k++) {
+            double target = (k + 0.5) / table.length * sum;
+            while (cdf[a] < target) a++;
+            table[k] = a;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        UsageLog log = new UsageLog();
+        for (int i = 0; i < events; i++) {
+            log.append(table[random.nextInt(table.length)], i / 200, 1 + random.nextInt(4));
+        }
+        return log;
+    }
+}
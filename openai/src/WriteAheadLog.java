@@ -0,0 +1,336 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+内存表的持久化：WAL + 快照
+- 文件是一串块：[varint 长度][CRC32 4 字节][记录...]，块攒到 64KB 或者 sync 时写出，CRC 按块算
+- 记录：[type 1 字节][varint 字段数][字段...]；type 0 留给快照头，调用方用 1 以上
+- 字段：varint h，0 是 null；奇数是 h >>> 1 个字节的 UTF-8；偶数是引用最近出现过的值（按 hashCode 分的 4096 个槽），
+  年份、作者这种重复很多的值只占 1 ~ 2 个字节，恢复时也直接共用同一个 String，不再新建
+- 目录里是 wal-<gen>.log 和 snapshot.db；快照第一条记录是 (0, gen)，表示 gen 之前的 WAL 都已经包含在快照里
+- append 只写进块缓冲，块满了才写到 OS；sync() 之后才保证落盘，相当于组提交，调用方决定多久 sync 一次
+- recover：先读快照，再按 gen 顺序重放 >= 快照 gen 的 WAL；遇到截断或者 CRC 不对的块就当作日志的结尾，
+  文件截到最后一个完整的块、后面 gen 的 WAL 删掉（崩溃时没写完的那一块，里面都是还没 sync 的记录）。恢复完总是新开一个 gen，不往旧文件后面追加
+- snapshot：先 sync 并关掉当前 WAL，把整个状态写到 snapshot.tmp，force 之后 rename 成 snapshot.db，
+  再开 wal-(gen+1)、删掉旧的 WAL；中间任何一步崩溃，恢复时看到的要么是旧快照 + 旧 WAL，要么是新快照 + 新 WAL
+- 不是线程安全的，由调用方加锁
+- hack2hire/ 和 openai/src/ 各有一份一模一样的，改的时候两份一起改
+*/
+public class WriteAheadLog implements Closeable {
+
+    public interface Handler {
+        void apply(int type, String[] fields) throws IOException;
+    }
+
+    public interface SnapshotWriter {
+        void writeTo(RecordWriter out) throws IOException;
+    }
+
+    private final File dir;
+    private long gen;
+    private RecordWriter current;
+    private long appended;
+
+    public WriteAheadLog(File dir) {
+        this.dir = dir;
+    }
+
+    // 重放快照和 WAL，返回重放的记录数；之后才能 append
+    public long recover(Handler handler) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        long count = 0;
+        long start = 0;
+        File snapshot = new File(dir, "snapshot.db");
+        if (snapshot.exists()) {
+            try (RecordReader in = new RecordReader(snapshot)) {
+                if (in.next() != 0) throw new IOException("Bad snapshot header in " + snapshot);
+                start = Long.parseLong(in.fields[0]);
+                int type;
+                while ((type = in.next()) >= 0) {
+                    handler.apply(type, in.fields);
+                    count++;
+                }
+                if (in.corrupt) throw new IOException("Corrupt snapshot " + snapshot);
+            }
+        }
+        gen = start;
+        boolean ended = false;
+        for (long g : generations()) {
+            File file = walFile(g);
+            if (g < start || ended) {
+                file.delete();
+                continue;
+            }
+            try (RecordReader in = new RecordReader(file)) {
+                int type;
+                while ((type = in.next()) >= 0) {
+                    handler.apply(type, in.fields);
+                    count++;
+                }
+                ended = in.corrupt;
+                if (ended) {
+                    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                        raf.setLength(in.valid);
+                    }
+                }
+            }
+            gen = g + 1;
+        }
+        current = new RecordWriter(walFile(gen));
+        appended = 0;
+        return count;
+    }
+
+    public void append(int type, String... fields) throws IOException {
+        current.append(type, fields);
+        appended++;
+    }
+
+    // 当前 WAL 里的记录数（上次快照或者恢复之后）
+    public long appendedSinceSnapshot() {
+        return appended;
+    }
+
+    public void sync() throws IOException {
+        current.force();
+    }
+
+    public void snapshot(SnapshotWriter writer) throws IOException {
+        current.force();
+        current.close();
+        gen++;
+        File tmp = new File(dir, "snapshot.tmp");
+        File snapshot = new File(dir, "snapshot.db");
+        try {
+            try (RecordWriter out = new RecordWriter(tmp)) {
+                out.append(0, String.valueOf(gen));
+                writer.writeTo(out);
+                out.force();
+            }
+            if (!tmp.renameTo(snapshot)) throw new IOException("Cannot rename " + tmp + " to " + snapshot);
+        } finally {
+            // 快照没写成时旧快照和旧 WAL 都还在，新的写入照样记到下一个 gen
+            current = new RecordWriter(walFile(gen));
+        }
+        appended = 0;
+        for (long g : generations()) {
+            if (g < gen) walFile(g).delete();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.force();
+            current.close();
+            current = null;
+        }
+    }
+
+    private File walFile(long g) {
+        return new File(dir, "wal-" + g + ".log");
+    }
+
+    private long[] generations() {
+        List<Long> gens = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("wal-") && name.endsWith(".log")) {
+                    gens.add(Long.parseLong(name.substring(4, name.length() - 4)));
+                }
+            }
+        }
+        long[] out = new long[gens.size()];
+        for (int i = 0; i < out.length; i++) out[i] = gens.get(i);
+        Arrays.sort(out);
+        return out;
+    }
+
+    // 最近出现过的值：按 hashCode 放进固定大小的槽，写和读两边按同样的顺序更新，所以状态一样
+    static final int CACHE_SLOTS = 1 << 12;
+
+    public static class RecordWriter implements Closeable {
+        private final FileOutputStream file;
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private final String[] cache = new String[CACHE_SLOTS];
+        private byte[] block = new byte[BLOCK_SIZE + 256];
+        private int size;
+
+        RecordWriter(File path) throws IOException {
+            this.file = new FileOutputStream(path);
+            this.out = new BufferedOutputStream(file, 1 << 16);
+        }
+
+        public void append(int type, String... fields) throws IOException {
+            ensure(1 + 5);
+            block[size++] = (byte) type;
+            putVarint(fields.length);
+            for (String field : fields) {
+                if (field == null) {
+                    ensure(1);
+                    block[size++] = 0;
+                    continue;
+                }
+                int slot = field.hashCode() & (CACHE_SLOTS - 1);
+                if (field.equals(cache[slot])) {
+                    ensure(5);
+                    putVarint((slot + 1) << 1);
+                    continue;
+                }
+                cache[slot] = field;
+                int len = field.length();
+                int ascii = 0;
+                while (ascii < len && field.charAt(ascii) < 0x80) ascii++;
+                if (ascii == len) {
+                    // 大部分字段是 ASCII，直接按字符写，不经过 getBytes 的临时数组
+                    ensure(5 + len);
+                    putVarint(len << 1 | 1);
+                    for (int i = 0; i < len; i++) block[size++] = (byte) field.charAt(i);
+                } else {
+                    byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                    ensure(5 + bytes.length);
+                    putVarint(bytes.length << 1 | 1);
+                    System.arraycopy(bytes, 0, block, size, bytes.length);
+                    size += bytes.length;
+                }
+            }
+            if (size >= BLOCK_SIZE) writeBlock();
+        }
+
+        // [varint 长度][CRC32][记录...]，一个块整个有效或者整个作废
+        private void writeBlock() throws IOException {
+            if (size == 0) return;
+            crc.reset();
+            crc.update(block, 0, size);
+            int c = (int) crc.getValue();
+            int n = size;
+            do {
+                out.write(n > 0x7F ? (n & 0x7F) | 0x80 : n);
+                n >>>= 7;
+            } while (n != 0);
+            out.write(c >>> 24);
+            out.write(c >>> 16);
+            out.write(c >>> 8);
+            out.write(c);
+            out.write(block, 0, size);
+            size = 0;
+        }
+
+        private void putVarint(int n) {
+            while ((n & ~0x7F) != 0) {
+                block[size++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            block[size++] = (byte) n;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > block.length) block = Arrays.copyOf(block, Math.max(block.length * 2, size + extra));
+        }
+
+        void force() throws IOException {
+            writeBlock();
+            out.flush();
+            file.getChannel().force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeBlock();
+            out.close();
+        }
+    }
+
+    static final int BLOCK_SIZE = 1 << 16;
+
+    static class RecordReader implements Closeable {
+        private final DataInputStream in;
+        private final CRC32 crc = new CRC32();
+        private final String[] cache = new String[CACHE_SLOTS];
+        private byte[] block = new byte[BLOCK_SIZE + 256];
+        private int size;
+        private int pos;
+        String[] fields;
+        boolean corrupt;
+        long valid;  // 最后一个完整的块结束的位置
+
+        RecordReader(File path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+        }
+
+        // 下一条记录的 type，读到结尾返回 -1；块被截断或者 CRC 不对时 corrupt = true 并返回 -1
+        int next() throws IOException {
+            if (pos == size && !readBlock()) return -1;
+            int type = block[pos++] & 0xFF;
+            int count = varint();
+            fields = new String[count];
+            for (int i = 0; i < count; i++) {
+                int h = varint();
+                if (h == 0) continue;
+                if ((h & 1) == 0) {
+                    fields[i] = cache[(h >>> 1) - 1];
+                    continue;
+                }
+                int n = h >>> 1;
+                String field = new String(block, pos, n, StandardCharsets.UTF_8);
+                pos += n;
+                cache[field.hashCode() & (CACHE_SLOTS - 1)] = field;
+                fields[i] = field;
+            }
+            return type;
+        }
+
+        private boolean readBlock() throws IOException {
+            try {
+                int first = in.read();
+                if (first < 0) return false;
+                int len = first & 0x7F;
+                int header = 1 + 4;
+                for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+                    if (shift > 28) return fail();
+                    first = in.readUnsignedByte();
+                    len |= (first & 0x7F) << shift;
+                    header++;
+                }
+                int expected = in.readInt();
+                if (len <= 0) return fail();
+                if (len > block.length) block = new byte[len];
+                in.readFully(block, 0, len);
+                crc.reset();
+                crc.update(block, 0, len);
+                if ((int) crc.getValue() != expected) return fail();
+                size = len;
+                pos = 0;
+                valid += header + len;
+                return true;
+            } catch (EOFException e) {
+                return fail();
+            }
+        }
+
+        private int varint() {
+            int n = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = block[pos++];
+                n |= (b & 0x7F) << shift;
+                if (b >= 0) return n;
+            }
+        }
+
+        private boolean fail() {
+            corrupt = true;
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}